@@ -2,8 +2,12 @@ package com.tripplanner.TripPlanner.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tripplanner.TripPlanner.dto.AgentResponse;
+import com.tripplanner.TripPlanner.filter.AiRateLimitingFilter;
+import com.tripplanner.TripPlanner.service.AiCacheRefresher;
 import com.tripplanner.TripPlanner.service.AiCacheService;
+import com.tripplanner.TripPlanner.service.AiSingleFlight;
 import com.tripplanner.TripPlanner.service.AiUsageService;
+import com.tripplanner.TripPlanner.service.SemanticCacheIndex;
 import jakarta.annotation.PostConstruct;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
@@ -19,6 +23,7 @@ import org.springframework.web.client.RestTemplate;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/ai")
@@ -41,12 +46,19 @@ public class AiInsightsController {
     private final AiCacheService cacheService;
     private final AiUsageService usageService;
     private final ObjectMapper objectMapper;
+    private final AiSingleFlight singleFlight;
+    private final AiCacheRefresher cacheRefresher;
+    private final SemanticCacheIndex semanticCache;
 
     public AiInsightsController(AiCacheService cacheService, AiUsageService usageService,
-                                ObjectMapper objectMapper) {
+                                ObjectMapper objectMapper, AiSingleFlight singleFlight,
+                                AiCacheRefresher cacheRefresher, SemanticCacheIndex semanticCache) {
         this.cacheService = cacheService;
         this.usageService = usageService;
         this.objectMapper = objectMapper;
+        this.singleFlight = singleFlight;
+        this.cacheRefresher = cacheRefresher;
+        this.semanticCache = semanticCache;
 
         SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
         factory.setConnectTimeout(5000);
@@ -103,20 +115,58 @@ public class AiInsightsController {
         // user (or the same user with a different route) would be wrong
         boolean cacheable = currentRoute.isEmpty();
         String cacheKey = cacheService.cacheKey(prompt, language);
-        String cached = cacheable ? cacheService.get(cacheKey) : null;
+        AiCacheService.Lookup cached = cacheable ? cacheService.lookup(cacheKey) : null;
+        if (cacheable && cached == null) {
+            // Same question in other words, already answered (off by default)
+            SemanticCacheIndex.Match similar = semanticCache.find(cacheKey, prompt, language);
+            if (similar != null) {
+                logger.info("Cache SIMILAR for prompt length={}", prompt.length());
+                Long logId = usageService.logRequest(null, userEmail, clientIp, prompt, language);
+                usageService.logResponse(logId, "success_cached", null, System.currentTimeMillis() - startTime);
+                // Counts toward the matched entry's hotness, but never refreshes it:
+                // this prompt is not the one its answer belongs to
+                boolean stale = similar.lookup().stale();
+                cacheRefresher.onHit(similar.key(), prompt, language, false);
+
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                headers.set("X-Cache-Status", stale ? "SIMILAR_STALE" : "SIMILAR");
+                return ResponseEntity.ok().headers(headers).body(StreamRecording.result(similar.lookup().value()));
+            }
+        }
         if (cached != null) {
             logger.info("Cache HIT for prompt length={}", prompt.length());
             Long logId = usageService.logRequest(null, userEmail, clientIp, prompt, language);
             usageService.logResponse(logId, "success_cached", null, System.currentTimeMillis() - startTime);
+            // Past the soft TTL: served anyway, renewed in the background if hot
+            cacheRefresher.onHit(cacheKey, prompt, language, cached.stale());
 
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.set("X-Cache-Status", "HIT");
-            return ResponseEntity.ok().headers(headers).body(cached);
+            headers.set("X-Cache-Status", cached.stale() ? "STALE" : "HIT");
+            return ResponseEntity.ok().headers(headers).body(StreamRecording.result(cached.value()));
         }
 
         Long logId = usageService.logRequest(null, userEmail, clientIp, prompt, language);
 
+        // Same prompt already being answered (here or, in prod, on another node):
+        // wait for that answer instead of paying for a second agent call
+        AiSingleFlight.Flight flight = cacheable ? singleFlight.begin(cacheKey) : null;
+        if (flight != null && !flight.leader()) {
+            String shared = awaitShared(flight);
+            if (shared != null) {
+                httpRequest.setAttribute(AiRateLimitingFilter.SHARED_UPSTREAM_ATTRIBUTE, Boolean.TRUE);
+                usageService.logResponse(logId, "success_shared", null, System.currentTimeMillis() - startTime);
+
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                headers.set("X-Cache-Status", "SHARED");
+                return ResponseEntity.ok().headers(headers).body(shared);
+            }
+            // The call we waited on produced nothing shareable: make our own
+            flight = null;
+        }
+
         try {
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
@@ -154,7 +204,9 @@ public class AiInsightsController {
                 if (agentResponse != null && agentResponse.isValid()) {
                     if (cacheable) {
                         cacheService.put(cacheKey, responseBody);
+                        semanticCache.remember(cacheKey, prompt, language);
                     }
+                    singleFlight.finish(flight, responseBody);
                     usageService.logResponse(logId, "success", null, duration);
                 } else {
                     String agentError = agentResponse != null ? agentResponse.getError() : "unparseable response";
@@ -181,6 +233,22 @@ public class AiInsightsController {
             usageService.logResponse(logId, "error", e.getMessage(), duration);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of("error", "Failed to generate route", "message", e.getMessage()));
+        } finally {
+            // No-op after a successful finish; otherwise releases waiters empty-handed
+            singleFlight.finish(flight, null);
+        }
+    }
+
+    /** The leader's answer, or null if it had none to share within our own agent timeout. */
+    private String awaitShared(AiSingleFlight.Flight flight) {
+        try {
+            // A leader on another node hands over the cache entry, which may carry a stream's recording
+            return StreamRecording.result(flight.result().get(timeoutSeconds, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            return null;
         }
     }
 
@@ -2,8 +2,18 @@ package com.tripplanner.TripPlanner.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tripplanner.TripPlanner.dto.AgentResponse;
+import com.tripplanner.TripPlanner.filter.AiRateLimitingFilter;
+import com.tripplanner.TripPlanner.service.AiCacheRefresher;
 import com.tripplanner.TripPlanner.service.AiCacheService;
+import com.tripplanner.TripPlanner.service.AiSingleFlight;
 import com.tripplanner.TripPlanner.service.AiUsageService;
+import com.tripplanner.TripPlanner.service.SemanticCacheIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
@@ -18,6 +28,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
@@ -28,16 +39,39 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
 /**
  * SSE relay in front of the agent's /parse-route/stream. Applies the exact
  * guards and cache gate of the sync proxy (AiInsightsController); on a cache
- * hit it emits a single result frame so the stream contract holds even for
- * instant answers. JDK HttpClient (not WebFlux) — the project is Spring MVC.
+ * hit it replays the progress frames recorded when the answer was first
+ * streamed (see {@link StreamRecording}), then the result, so cached and
+ * live answers look the same to the client. JDK HttpClient (not WebFlux) — the project is Spring MVC.
+ * Identical cacheable prompts in flight together share one upstream stream
+ * through a {@link StreamBroadcast}: late joiners get the frames so far
+ * replayed, then the live tail, and the result is cached once. A prompt
+ * being answered by the sync proxy or another node (see AiSingleFlight) is
+ * waited on and delivered as one result frame, like a cache hit.
+ *
+ * <p>Each relayed stream holds one thread blocked on the upstream body for
+ * its whole life, so relays run on a bounded pool with a bounded queue. Past
+ * that, new streams are shed with 503 rather than growing threads (and
+ * memory) without limit. Pool size, queue depth, queue wait and rejections
+ * are exported as metrics.</p>
+ *
+ * <p>By default the upstream body is relayed byte for byte (see
+ * {@link SseFrame#readFrames}): frames are cut at blank lines and written
+ * out as received, and only the result frame's payload is decoded, for
+ * caching and usage logging. {@code ai.stream.passthrough.enabled=false}
+ * switches back to parsing every line into Strings.</p>
  */
 @RestController
 @RequestMapping("/api/ai")
@@ -49,13 +83,38 @@ public class AiStreamController {
     // Agent worst case ≈ geocode retries ~30s; generous headroom, still bounded
     private static final long EMITTER_TIMEOUT_MS = 75_000L;
     private static final Duration UPSTREAM_TIMEOUT = Duration.ofSeconds(70);
+    private static final String STREAM_FAILED = "{\"error\":\"stream_failed\"}";
 
     @Value("${agent.url:}")
     private String agentUrl;
 
+    @Value("${ai.stream.passthrough.enabled:true}")
+    private boolean passthrough = true;
+
+    // 0 replays a cached answer's progress frames at once; otherwise recorded gaps are scaled by this
+    @Value("${ai.stream.replay.pace:0}")
+    private double replayPace = 0;
+
+    @Value("${ai.stream.replay.max-gap.ms:250}")
+    private long replayMaxGapMs = 250;
+
+    @Value("${ai.stream.relay.max-threads:200}")
+    private int relayMaxThreads = 200;
+
+    @Value("${ai.stream.relay.queue-capacity:100}")
+    private int relayQueueCapacity = 100;
+
+    @Value("${ai.stream.fanout.max-threads:50}")
+    private int fanoutMaxThreads = 50;
+
     private final AiCacheService cacheService;
     private final AiUsageService usageService;
     private final ObjectMapper objectMapper;
+    private final AiSingleFlight singleFlight;
+    private final AiCacheRefresher cacheRefresher;
+    private final SemanticCacheIndex semanticCache;
+    // Upstream streams that cacheable requests can still join, by cache key
+    private final Map<String, StreamBroadcast> broadcasts = new ConcurrentHashMap<>();
     // HTTP/1.1 forced: the JDK client's default h2c Upgrade request makes
     // uvicorn drop the request body ("Unsupported upgrade request" -> 422),
     // which would silently kill every stream in production
@@ -63,17 +122,63 @@ public class AiStreamController {
             .version(HttpClient.Version.HTTP_1_1)
             .connectTimeout(Duration.ofSeconds(5))
             .build();
-    private final ExecutorService relayExecutor = Executors.newCachedThreadPool(r -> {
-        Thread t = new Thread(r, "ai-sse-relay");
-        t.setDaemon(true);
-        return t;
-    });
+    private final MeterRegistry meterRegistry;
+    private final Timer relayQueueWait;
+    private final Counter relayRejected;
+    private ThreadPoolExecutor relayExecutor;
+    // Writes frames to subscribed clients, so a slow client never blocks a relay
+    private ThreadPoolExecutor fanoutExecutor;
 
     public AiStreamController(AiCacheService cacheService, AiUsageService usageService,
-                              ObjectMapper objectMapper) {
+                              ObjectMapper objectMapper, AiSingleFlight singleFlight,
+                              AiCacheRefresher cacheRefresher, SemanticCacheIndex semanticCache,
+                              MeterRegistry meterRegistry) {
         this.cacheService = cacheService;
         this.usageService = usageService;
         this.objectMapper = objectMapper;
+        this.singleFlight = singleFlight;
+        this.cacheRefresher = cacheRefresher;
+        this.semanticCache = semanticCache;
+        this.meterRegistry = meterRegistry;
+        this.relayQueueWait = Timer.builder("ai.sse.relay.queue.wait")
+                .description("Time a relay waited for a free thread")
+                .register(meterRegistry);
+        this.relayRejected = Counter.builder("ai.sse.relay.rejected")
+                .description("Streams shed with 503 because the relay pool and queue were full")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void initRelayExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        // core == max: threads are added up to the cap before anything queues,
+        // and idle ones time out so a quiet server holds none
+        relayExecutor = new ThreadPoolExecutor(relayMaxThreads, relayMaxThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(relayQueueCapacity), r -> {
+            Thread t = new Thread(r, "ai-sse-relay-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        relayExecutor.allowCoreThreadTimeOut(true);
+        // executor.active / executor.queued / executor.pool.size, tagged name=ai.sse.relay
+        ExecutorServiceMetrics.monitor(meterRegistry, relayExecutor, "ai.sse.relay");
+
+        // One drain task per subscriber at most, so the unbounded queue is bounded by clients
+        AtomicInteger fanoutThreadNumber = new AtomicInteger();
+        fanoutExecutor = new ThreadPoolExecutor(fanoutMaxThreads, fanoutMaxThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "ai-sse-fanout-" + fanoutThreadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        fanoutExecutor.allowCoreThreadTimeOut(true);
+        ExecutorServiceMetrics.monitor(meterRegistry, fanoutExecutor, "ai.sse.fanout");
+    }
+
+    @PreDestroy
+    void shutdownRelayExecutor() {
+        relayExecutor.shutdownNow();
+        fanoutExecutor.shutdownNow();
     }
 
     /** Destination for a single parsed SSE frame (event name + joined data payload). */
@@ -120,18 +225,31 @@ public class AiStreamController {
         // depend on the caller's current route and must not be replayed
         boolean cacheable = currentRoute.isEmpty();
         String cacheKey = cacheService.cacheKey(prompt, language);
-        String cached = cacheable ? cacheService.get(cacheKey) : null;
-        if (cached != null) {
+        AiCacheService.Lookup hit = cacheable ? cacheService.lookup(cacheKey) : null;
+        if (cacheable && hit == null) {
+            SemanticCacheIndex.Match similar = semanticCache.find(cacheKey, prompt, language);
+            if (similar != null) {
+                String cached = similar.lookup().value();
+                Long logId = usageService.logRequest(null, userEmail, clientIp, prompt, language);
+                usageService.logResponse(logId, "success_cached", null, System.currentTimeMillis() - startTime);
+                // Only counted: a refresh must ask the matched entry's own prompt
+                cacheRefresher.onHit(similar.key(), prompt, language, false);
+                // Replays the matched prompt's recording along with its answer
+                if (!trySubmit(() -> replayCached(emitter, cached, true))) {
+                    replayCached(emitter, cached, false);
+                }
+                return emitter;
+            }
+        }
+        if (hit != null) {
+            String cached = hit.value();
             Long logId = usageService.logRequest(null, userEmail, clientIp, prompt, language);
             usageService.logResponse(logId, "success_cached", null, System.currentTimeMillis() - startTime);
-            relayExecutor.submit(() -> {
-                try {
-                    emitter.send(SseEmitter.event().name("result").data(cached, MediaType.APPLICATION_JSON));
-                    emitter.complete();
-                } catch (Exception e) {
-                    emitter.completeWithError(e);
-                }
-            });
+            cacheRefresher.onHit(cacheKey, prompt, language, hit.stale());
+            if (!trySubmit(() -> replayCached(emitter, cached, true))) {
+                // A cached answer is a few small writes: not worth shedding, but not paced either
+                replayCached(emitter, cached, false);
+            }
             return emitter;
         }
 
@@ -161,40 +279,189 @@ public class AiStreamController {
             return ResponseEntity.internalServerError().body(Map.of("error", "Failed to contact agent"));
         }
 
-        CompletableFuture<HttpResponse<Stream<String>>> future =
-                httpClient.sendAsync(upstream, HttpResponse.BodyHandlers.ofLines());
+        if (cacheable && joinBroadcast(cacheKey, emitter, logId, startTime)) {
+            httpRequest.setAttribute(AiRateLimitingFilter.SHARED_UPSTREAM_ATTRIBUTE, Boolean.TRUE);
+            return emitter;
+        }
 
-        // Holds the upstream body stream once relay() has one, so a terminal
-        // emitter callback (client gone) can close it and unblock the relay
-        // thread instead of leaving it parked on the upstream connection.
-        AtomicReference<Stream<String>> bodyRef = new AtomicReference<>();
-
-        // Any terminal emitter state cancels the upstream request so the
-        // agent doesn't keep computing for a client that's gone. cancel(true)
-        // only takes effect before response headers arrive (ofLines()
-        // completes the future on headers) — closing the body stream is what
-        // actually unblocks a relay thread already iterating the body.
-        emitter.onCompletion(() -> { future.cancel(true); closeBody(bodyRef); });
-        emitter.onTimeout(() -> { future.cancel(true); closeBody(bodyRef); });
-        emitter.onError(e -> { future.cancel(true); closeBody(bodyRef); });
-
-        relayExecutor.submit(() -> relay(future, emitter, cacheable, cacheKey, logId, startTime, bodyRef));
+        // Same prompt already being answered (by the sync proxy or, in prod, on
+        // another node): wait for that answer instead of paying for a second call
+        AiSingleFlight.Flight flight = cacheable ? singleFlight.begin(cacheKey) : null;
+        if (flight != null && !flight.leader()) {
+            // Decided now, while the rate limiter can still see it: the global slot
+            // goes back, so this request must never make an agent call of its own
+            httpRequest.setAttribute(AiRateLimitingFilter.SHARED_UPSTREAM_ATTRIBUTE, Boolean.TRUE);
+            // The leader may be a stream that registered its broadcast a moment ago
+            if (joinBroadcast(cacheKey, emitter, logId, startTime)) {
+                return emitter;
+            }
+            flight.result().whenComplete((shared, e) -> {
+                if (shared != null) {
+                    usageService.logResponse(logId, "success_shared", null, System.currentTimeMillis() - startTime);
+                    // Runs on the thread that finished the flight: replay, but never sleep there
+                    replayCached(emitter, shared, false);
+                } else {
+                    // The call we waited on produced nothing shareable. Unlike the sync
+                    // proxy, this request has already given its global slot back, so an
+                    // own call here would go uncounted (and the agent is likely failing)
+                    usageService.logResponse(logId, "error", "shared_call_failed",
+                            System.currentTimeMillis() - startTime);
+                    sendFrame(emitter, "error", STREAM_FAILED);
+                }
+            });
+            return emitter;
+        }
+
+        if (!startRelay(upstream, emitter, cacheable, cacheKey, prompt, language, logId, startTime, flight)) {
+            singleFlight.finish(flight, null);
+            usageService.logResponse(logId, "rejected_capacity", null, System.currentTimeMillis() - startTime);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", "5")
+                    .body(Map.of("error", "AI streaming is at capacity, please retry shortly"));
+        }
         return emitter;
     }
 
+    /** Subscribes to a running upstream stream for the same prompt, if there is one to join. */
+    private boolean joinBroadcast(String cacheKey, SseEmitter emitter, Long logId, long startTime) {
+        StreamBroadcast broadcast = broadcasts.get(cacheKey);
+        if (broadcast == null) {
+            return false;
+        }
+        boolean joined = broadcast.subscribe(emitter, frame -> {
+            String event = frame.event();
+            if ("result".equals(event)) {
+                usageService.logResponse(logId, "success_shared", null, System.currentTimeMillis() - startTime);
+            } else if ("error".equals(event)) {
+                usageService.logResponse(logId, "error", "stream_failed", System.currentTimeMillis() - startTime);
+            }
+        });
+        if (joined) {
+            logger.debug("Joined in-flight agent stream: key={}", cacheKey);
+        }
+        return joined;
+    }
+
+    /**
+     * Opens the upstream stream and relays it through a broadcast whose first
+     * subscriber is {@code emitter}; {@code share} makes it joinable by key.
+     * @return false if the relay pool is saturated and nothing was started
+     */
+    private boolean startRelay(HttpRequest upstream, SseEmitter emitter, boolean share, String cacheKey,
+                            String prompt, String language, Long logId, long startTime,
+                            AiSingleFlight.Flight flight) {
+        CompletableFuture<? extends HttpResponse<?>> future = passthrough
+                ? httpClient.sendAsync(upstream, HttpResponse.BodyHandlers.ofInputStream())
+                : httpClient.sendAsync(upstream, HttpResponse.BodyHandlers.ofLines());
+
+        // Holds the upstream body stream once relay() has one, so abandoning the
+        // broadcast (every client gone) can close it and unblock the relay
+        // thread instead of leaving it parked on the upstream connection.
+        AtomicReference<AutoCloseable> bodyRef = new AtomicReference<>();
+
+        // Once no subscriber is left, cancel the upstream request so the agent
+        // doesn't keep computing for clients that are gone. cancel(true) only
+        // takes effect before response headers arrive (ofLines() completes the
+        // future on headers) — closing the body stream is what actually
+        // unblocks a relay thread already iterating the body.
+        StreamBroadcast broadcast = new StreamBroadcast(fanoutExecutor, abandoned -> {
+            broadcasts.remove(cacheKey, abandoned);
+            future.cancel(true);
+            closeBody(bodyRef);
+        });
+        broadcast.subscribe(emitter, null);
+        if (share) {
+            broadcasts.put(cacheKey, broadcast);
+        }
+
+        boolean submitted = trySubmit(() -> {
+            try {
+                relay(future, broadcast, share, cacheKey, prompt, language, logId, startTime, bodyRef, flight);
+            } finally {
+                broadcasts.remove(cacheKey, broadcast);
+            }
+        });
+        if (!submitted) {
+            broadcasts.remove(cacheKey, broadcast);
+            future.cancel(true);
+        }
+        return submitted;
+    }
+
+    /** Runs {@code task} on the relay pool; false (and counted) when pool and queue are full. */
+    boolean trySubmit(Runnable task) {
+        long queuedAt = System.nanoTime();
+        try {
+            relayExecutor.execute(() -> {
+                relayQueueWait.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+                task.run();
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            relayRejected.increment();
+            logger.warn("AI stream relay pool saturated ({} threads, {} queued), shedding stream",
+                    relayExecutor.getPoolSize(), relayExecutor.getQueue().size());
+            return false;
+        }
+    }
+
+    /**
+     * Serves a cached (or shared) answer as a stream: the recorded progress
+     * frames, paced per {@code ai.stream.replay.pace} when {@code paced}, then
+     * the result. Without a recording it is the result frame alone.
+     * @param stored The cache value, with or without a recording (see {@link StreamRecording#withResult})
+     */
+    void replayCached(SseEmitter emitter, String stored, boolean paced) {
+        List<StreamRecording.Frame> frames = StreamRecording.decode(StreamRecording.recording(stored), objectMapper);
+        try {
+            for (StreamRecording.Frame frame : frames) {
+                long gap = paced ? Math.min(replayMaxGapMs, Math.round(frame.gapMs() * replayPace)) : 0;
+                if (gap > 0) {
+                    Thread.sleep(gap);
+                }
+                frame.frame().sendTo(emitter);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            emitter.completeWithError(e);
+            return;
+        } catch (Exception e) {
+            emitter.completeWithError(e);
+            return;
+        }
+        sendResult(emitter, StreamRecording.result(stored));
+    }
+
+    private static void sendResult(SseEmitter emitter, String payload) {
+        sendFrame(emitter, "result", payload);
+    }
+
+    /** Sends one frame and ends the stream. */
+    private static void sendFrame(SseEmitter emitter, String event, String payload) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(payload, MediaType.APPLICATION_JSON));
+            emitter.complete();
+        } catch (Exception e) {
+            emitter.completeWithError(e);
+        }
+    }
+
     // Package-private (not private) so AiStreamControllerTest can drive it directly
     // with a mocked HttpResponse, without mocking the JDK HttpClient async pipeline.
-    void relay(CompletableFuture<HttpResponse<Stream<String>>> future, SseEmitter emitter,
-                       boolean cacheable, String cacheKey, Long logId, long startTime,
-                       AtomicReference<Stream<String>> bodyRef) {
+    // The body is an InputStream in passthrough mode and a Stream<String> of lines otherwise.
+    void relay(CompletableFuture<? extends HttpResponse<?>> future, StreamBroadcast broadcast,
+                       boolean cacheable, String cacheKey, String prompt, String language, Long logId,
+                       long startTime, AtomicReference<AutoCloseable> bodyRef, AiSingleFlight.Flight flight) {
         try {
-            HttpResponse<Stream<String>> response = future.get();
+            HttpResponse<?> response = future.get();
             if (response.statusCode() != 200) {
+                if (response.body() instanceof AutoCloseable body) {
+                    body.close();
+                }
                 usageService.logResponse(logId, "error", "Agent returned " + response.statusCode(),
                         System.currentTimeMillis() - startTime);
-                emitter.send(SseEmitter.event().name("error")
-                        .data("{\"error\":\"stream_failed\"}", MediaType.APPLICATION_JSON));
-                emitter.complete();
+                broadcast.publish(SseFrame.of("error", STREAM_FAILED));
+                broadcast.complete();
                 return;
             }
 
@@ -202,41 +469,54 @@ public class AiStreamController {
             // ends without either (truncation, upstream closing mid-iteration) still
             // gets a logged outcome instead of leaving this request's usage log open.
             AtomicReference<Boolean> terminalFrameSeen = new AtomicReference<>(false);
-            SseFrameSink sink = (event, data) -> {
-                emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+            StreamRecording recording = cacheable ? new StreamRecording(startTime) : null;
+            SseFrame.Listener sink = frame -> {
+                broadcast.publish(frame);
+                String event = frame.event();
                 if ("result".equals(event)) {
                     terminalFrameSeen.set(true);
-                    recordResult(data, cacheable, cacheKey, logId, startTime);
+                    recordResult(frame.data(), cacheable, cacheKey, prompt, language, logId, startTime, flight, recording);
                 } else if ("error".equals(event)) {
                     terminalFrameSeen.set(true);
                     usageService.logResponse(logId, "error", "stream_failed",
                             System.currentTimeMillis() - startTime);
+                } else if (recording != null) {
+                    recording.record(frame, System.currentTimeMillis());
                 }
             };
 
-            try (Stream<String> lines = response.body()) {
-                // Publish immediately so a concurrent onCompletion/onTimeout/onError
-                // callback can close this exact stream and unblock the iteration below.
-                bodyRef.set(lines);
-                forwardSseLines(lines.iterator(), sink);
-            } finally {
-                bodyRef.set(null);
+            if (response.body() instanceof InputStream bytes) {
+                try (bytes) {
+                    // Publish immediately so abandoning the broadcast can close this
+                    // exact stream and unblock the read below.
+                    bodyRef.set(bytes);
+                    SseFrame.readFrames(bytes, sink);
+                } finally {
+                    bodyRef.set(null);
+                }
+            } else {
+                @SuppressWarnings("unchecked")
+                Stream<String> body = (Stream<String>) response.body();
+                try (Stream<String> lines = body) {
+                    bodyRef.set(lines);
+                    forwardSseLines(lines.iterator(), (event, data) -> sink.frame(SseFrame.of(event, data)));
+                } finally {
+                    bodyRef.set(null);
+                }
             }
             if (!terminalFrameSeen.get()) {
                 usageService.logResponse(logId, "error", "stream ended without terminal frame",
                         System.currentTimeMillis() - startTime);
             }
-            emitter.complete();
+            broadcast.complete();
         } catch (Exception e) {
             logger.warn("AI stream relay failed: {}", e.getMessage());
             usageService.logResponse(logId, "error", e.getMessage(), System.currentTimeMillis() - startTime);
-            try {
-                emitter.send(SseEmitter.event().name("error")
-                        .data("{\"error\":\"stream_failed\"}", MediaType.APPLICATION_JSON));
-                emitter.complete();
-            } catch (Exception ignored) {
-                emitter.completeWithError(e);
-            }
+            broadcast.publish(SseFrame.of("error", STREAM_FAILED));
+            broadcast.complete();
+        } finally {
+            // No-op after a valid result was shared; otherwise releases waiters empty-handed
+            singleFlight.finish(flight, null);
         }
     }
 
@@ -256,12 +536,12 @@ public class AiStreamController {
         while (lines.hasNext()) {
             String line = lines.next();
             if (line.startsWith("event:")) {
-                event = stripFieldValue(line.substring("event:".length())).trim();
+                event = SseFrame.stripFieldValue(line.substring("event:".length())).trim();
             } else if (line.startsWith("data:")) {
                 if (data.length() > 0) {
                     data.append('\n');
                 }
-                data.append(stripFieldValue(line.substring("data:".length())));
+                data.append(SseFrame.stripFieldValue(line.substring("data:".length())));
             } else if (line.isEmpty() && event != null) {
                 sink.frame(event, data.toString());
                 event = null;
@@ -270,37 +550,34 @@ public class AiStreamController {
         }
     }
 
-    /**
-     * Per SSE spec, a single leading space after the field colon is not part
-     * of the value; any further spaces are. Mirrors the frontend's
-     * {@code stripFieldValue} so both hops tolerate the agent emitting either
-     * {@code "event: x"} (with space) or {@code "event:x"} (spaceless).
-     */
-    private static String stripFieldValue(String raw) {
-        return raw.startsWith(" ") ? raw.substring(1) : raw;
-    }
-
-    private static void closeBody(AtomicReference<Stream<String>> bodyRef) {
-        Stream<String> lines = bodyRef.get();
-        if (lines != null) {
+    private static void closeBody(AtomicReference<AutoCloseable> bodyRef) {
+        AutoCloseable body = bodyRef.get();
+        if (body != null) {
             try {
-                lines.close();
+                body.close();
             } catch (Exception ignored) {
                 // Best-effort unblock; relay()'s own catch handles termination.
             }
         }
     }
 
-    /** Same cache/log semantics as the sync proxy's post-response handling. */
-    private void recordResult(String payload, boolean cacheable, String cacheKey,
-                              Long logId, long startTime) {
+    /**
+     * Same cache/log semantics as the sync proxy's post-response handling,
+     * plus the stream's recording, stored in the same entry as the result so
+     * the two are always replaced and evicted together.
+     */
+    private void recordResult(String payload, boolean cacheable, String cacheKey, String prompt, String language,
+                              Long logId, long startTime, AiSingleFlight.Flight flight, StreamRecording recording) {
         long duration = System.currentTimeMillis() - startTime;
         try {
             AgentResponse agentResponse = objectMapper.readValue(payload, AgentResponse.class);
             if (agentResponse != null && agentResponse.isValid()) {
                 if (cacheable) {
-                    cacheService.put(cacheKey, payload);
+                    String frames = recording != null ? recording.encode(objectMapper) : null;
+                    cacheService.put(cacheKey, frames != null ? StreamRecording.withResult(frames, payload) : payload);
+                    semanticCache.remember(cacheKey, prompt, language);
                 }
+                singleFlight.finish(flight, payload);
                 usageService.logResponse(logId, "success", null, duration);
             } else {
                 String agentError = agentResponse != null ? agentResponse.getError() : "unparseable response";
@@ -0,0 +1,202 @@
+package com.tripplanner.TripPlanner.controller;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * One server-sent event as the exact bytes written to clients, plus its
+ * event name. Frames read from the agent in passthrough mode keep the
+ * upstream bytes as they are; only the event name is decoded, and the data
+ * payload only when {@link #data()} is asked for (the result frame, which is
+ * cached and logged).
+ */
+final class SseFrame {
+
+    // A frame this large is not an agent frame; refuse rather than buffer without bound
+    static final int MAX_FRAME_BYTES = 1 << 20;
+
+    private final String event;
+    private final byte[] bytes;
+
+    private SseFrame(String event, byte[] bytes) {
+        this.event = event;
+        this.bytes = bytes;
+    }
+
+    /** Serialises a frame the way SseEmitter would: one data line per payload line, LF endings. */
+    static SseFrame of(String event, String data) {
+        StringBuilder sb = new StringBuilder(data.length() + event.length() + 16);
+        sb.append("event:").append(event).append('\n');
+        for (String line : data.split("\n", -1)) {
+            sb.append("data:").append(line).append('\n');
+        }
+        sb.append('\n');
+        return new SseFrame(event, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** A frame from its text as previously sent (e.g. a stored recording), event name re-read from it. */
+    static SseFrame raw(String text) {
+        String event = null;
+        for (String line : text.split("\n")) {
+            if (line.startsWith("event:")) {
+                event = stripFieldValue(line.substring("event:".length())).trim();
+                break;
+            }
+        }
+        return new SseFrame(event, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    String event() {
+        return event;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /** Writes the frame's bytes to {@code emitter} as they are; the emitter flushes per send. */
+    void sendTo(SseEmitter emitter) throws IOException {
+        emitter.send(Set.of(new ResponseBodyEmitter.DataWithMediaType(bytes, MediaType.TEXT_EVENT_STREAM)));
+    }
+
+    /** The joined data lines, decoded on demand. */
+    String data() {
+        StringBuilder data = new StringBuilder();
+        boolean first = true;
+        for (String line : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+            if (line.startsWith("data:")) {
+                if (!first) {
+                    data.append('\n');
+                }
+                data.append(stripFieldValue(line.substring("data:".length())));
+                first = false;
+            }
+        }
+        return data.toString();
+    }
+
+    /** Destination for frames read by {@link #readFrames}. */
+    @FunctionalInterface
+    interface Listener {
+        void frame(SseFrame frame) throws IOException;
+    }
+
+    /**
+     * Splits a raw text/event-stream body into frames without decoding it:
+     * bytes are scanned for line ends, the event name is the only field read,
+     * and each frame's bytes are handed on as received. CR and CRLF line ends
+     * are rewritten to LF (the only copy made) so clients see one convention.
+     * Same rules as the line-based parser: frames without an {@code event:}
+     * field are dropped, and a trailing frame without its blank line is not
+     * emitted.
+     */
+    static void readFrames(InputStream in, Listener listener) throws IOException {
+        byte[] buf = new byte[8192];
+        int frameStart = 0;
+        int lineStart = 0;
+        int pos = 0;
+        int end = 0;
+        String event = null;
+        boolean hasCr = false;
+        boolean afterCr = false;
+        while (true) {
+            if (pos == end) {
+                if (frameStart > 0) {
+                    System.arraycopy(buf, frameStart, buf, 0, end - frameStart);
+                    lineStart -= frameStart;
+                    pos -= frameStart;
+                    end -= frameStart;
+                    frameStart = 0;
+                }
+                if (end == buf.length) {
+                    if (buf.length >= MAX_FRAME_BYTES) {
+                        throw new IOException("SSE frame exceeds " + MAX_FRAME_BYTES + " bytes");
+                    }
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                int n = in.read(buf, end, buf.length - end);
+                if (n < 0) {
+                    return;
+                }
+                end += n;
+            }
+            byte b = buf[pos++];
+            if (afterCr && b == '\n') {
+                // Second half of a CRLF already handled at the CR
+                afterCr = false;
+                lineStart = pos;
+                if (frameStart == pos - 1) {
+                    frameStart = pos;
+                }
+                continue;
+            }
+            afterCr = b == '\r';
+            if (b != '\n' && b != '\r') {
+                continue;
+            }
+            hasCr |= afterCr;
+            int lineEnd = pos - 1;
+            if (lineEnd == lineStart) {
+                if (event != null) {
+                    byte[] frame = hasCr ? toLf(buf, frameStart, pos) : Arrays.copyOfRange(buf, frameStart, pos);
+                    listener.frame(new SseFrame(event, frame));
+                }
+                event = null;
+                hasCr = false;
+                frameStart = pos;
+            } else if (startsWith(buf, lineStart, lineEnd, EVENT_FIELD)) {
+                event = stripFieldValue(new String(buf, lineStart + EVENT_FIELD.length,
+                        lineEnd - lineStart - EVENT_FIELD.length, StandardCharsets.UTF_8)).trim();
+            }
+            lineStart = pos;
+        }
+    }
+
+    private static final byte[] EVENT_FIELD = "event:".getBytes(StandardCharsets.US_ASCII);
+
+    private static boolean startsWith(byte[] buf, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] toLf(byte[] buf, int from, int to) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(to - from);
+        for (int i = from; i < to; i++) {
+            byte b = buf[i];
+            if (b == '\r') {
+                out.write('\n');
+                if (i + 1 < to && buf[i + 1] == '\n') {
+                    i++;
+                }
+            } else {
+                out.write(b);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Per SSE spec, a single leading space after the field colon is not part
+     * of the value; any further spaces are. Mirrors the frontend's
+     * {@code stripFieldValue} so both hops tolerate the agent emitting either
+     * {@code "event: x"} (with space) or {@code "event:x"} (spaceless).
+     */
+    static String stripFieldValue(String raw) {
+        return raw.startsWith(" ") ? raw.substring(1) : raw;
+    }
+}
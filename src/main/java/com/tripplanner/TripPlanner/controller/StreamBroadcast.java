@@ -0,0 +1,249 @@
+package com.tripplanner.TripPlanner.controller;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Fan-out of one upstream agent stream to every SSE client asking the same
+ * question. Frames are appended to a replay log as they are published, so a
+ * client that subscribes late first receives everything sent so far and then
+ * the live tail — the replay is queued under the same lock publish queues
+ * under, so no frame is missed or sent twice.
+ *
+ * <p>Nothing is written to a client under that lock, or on the publishing
+ * (relay) thread. Each subscriber has its own bounded queue, drained in order
+ * by a task on {@code delivery}, so a slow or stalled client holds up only
+ * itself. A client more than {@link #MAX_PENDING_FRAMES} frames behind is
+ * completed with an error and dropped.</p>
+ *
+ * <p>Frames go out as their {@link SseFrame#bytes()}, written and flushed per
+ * frame through the emitter's byte-array converter, so fanning a frame out
+ * to N clients re-encodes nothing.</p>
+ *
+ * <p>The upstream is only worth keeping while someone listens: when the last
+ * subscriber goes away before the stream completes, {@code onAbandoned} runs
+ * (the relay uses it to cancel the agent call) and the hub refuses new
+ * subscribers.</p>
+ */
+final class StreamBroadcast {
+
+    // Agent streams are a handful of stage frames plus one result; a stream
+    // running far past that is not replayed to newcomers
+    static final int MAX_REPLAY_FRAMES = 256;
+    // A full replay plus some live frames; beyond that the client is not keeping up
+    static final int MAX_PENDING_FRAMES = MAX_REPLAY_FRAMES + 64;
+
+    private final Executor delivery;
+    private final Consumer<StreamBroadcast> onAbandoned;
+    private final List<SseFrame> replay = new ArrayList<>();
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    private boolean replayable = true;
+    private boolean closed;
+
+    StreamBroadcast(Executor delivery, Consumer<StreamBroadcast> onAbandoned) {
+        this.delivery = delivery;
+        this.onAbandoned = onAbandoned;
+    }
+
+    /**
+     * Queues the frames so far for {@code emitter} and adds it to the live fan-out.
+     * @param listener also told about every frame delivered to this subscriber; may be null
+     * @return false if the stream is over, abandoned or too long to replay — the
+     *         caller should serve the client some other way
+     */
+    boolean subscribe(SseEmitter emitter, SseFrame.Listener listener) {
+        Subscriber subscriber = new Subscriber(emitter, listener);
+        boolean drain;
+        synchronized (this) {
+            if (closed || !replayable) {
+                return false;
+            }
+            subscriber.queue.addAll(replay);
+            subscribers.add(subscriber);
+            drain = subscriber.claimDrain();
+        }
+        emitter.onCompletion(() -> unsubscribe(emitter));
+        emitter.onTimeout(() -> unsubscribe(emitter));
+        emitter.onError(e -> unsubscribe(emitter));
+        if (drain) {
+            schedule(subscriber);
+        }
+        return true;
+    }
+
+    void publish(SseFrame frame) {
+        List<Subscriber> toDrain = new ArrayList<>();
+        List<Subscriber> laggards = null;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (replayable) {
+                if (replay.size() < MAX_REPLAY_FRAMES) {
+                    replay.add(frame);
+                } else {
+                    replayable = false;
+                    replay.clear();
+                }
+            }
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.queue.size() >= MAX_PENDING_FRAMES) {
+                    if (laggards == null) {
+                        laggards = new ArrayList<>();
+                    }
+                    laggards.add(subscriber);
+                    continue;
+                }
+                subscriber.queue.add(frame);
+                if (subscriber.claimDrain()) {
+                    toDrain.add(subscriber);
+                }
+            }
+            if (laggards != null) {
+                for (Subscriber laggard : laggards) {
+                    laggard.queue.clear();
+                    laggard.dropped = true;
+                }
+            }
+        }
+        for (Subscriber subscriber : toDrain) {
+            schedule(subscriber);
+        }
+        if (laggards != null) {
+            for (Subscriber laggard : laggards) {
+                laggard.emitter.completeWithError(new IOException("SSE client fell behind the agent stream"));
+                unsubscribe(laggard.emitter);
+            }
+        }
+    }
+
+    /** Ends the stream for every subscriber, once each has been sent what is queued for it. */
+    void complete() {
+        List<Subscriber> toDrain = new ArrayList<>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Subscriber subscriber : subscribers) {
+                subscriber.completing = true;
+                if (subscriber.claimDrain()) {
+                    toDrain.add(subscriber);
+                }
+            }
+            subscribers.clear();
+            replay.clear();
+        }
+        for (Subscriber subscriber : toDrain) {
+            schedule(subscriber);
+        }
+    }
+
+    synchronized int subscriberCount() {
+        return subscribers.size();
+    }
+
+    private void unsubscribe(SseEmitter emitter) {
+        boolean abandoned;
+        synchronized (this) {
+            subscribers.removeIf(subscriber -> subscriber.emitter == emitter);
+            abandoned = !closed && subscribers.isEmpty();
+            if (abandoned) {
+                closed = true;
+                replay.clear();
+            }
+        }
+        if (abandoned) {
+            onAbandoned.accept(this);
+        }
+    }
+
+    private void schedule(Subscriber subscriber) {
+        try {
+            delivery.execute(subscriber);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                subscriber.queue.clear();
+                subscriber.dropped = true;
+            }
+            subscriber.emitter.completeWithError(e);
+            unsubscribe(subscriber.emitter);
+        }
+    }
+
+    /** One client: its pending frames, sent in order by at most one drain task at a time. */
+    private final class Subscriber implements Runnable {
+        final SseEmitter emitter;
+        final SseFrame.Listener listener;
+        // Guarded by the broadcast's lock, like the flags below
+        final ArrayDeque<SseFrame> queue = new ArrayDeque<>();
+        boolean draining;
+        boolean completing;
+        boolean dropped;
+
+        Subscriber(SseEmitter emitter, SseFrame.Listener listener) {
+            this.emitter = emitter;
+            this.listener = listener;
+        }
+
+        /** @return true if the caller must schedule a drain (none is running or queued) */
+        boolean claimDrain() {
+            if (draining || dropped || (queue.isEmpty() && !completing)) {
+                return false;
+            }
+            draining = true;
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                SseFrame frame;
+                boolean finish = false;
+                synchronized (StreamBroadcast.this) {
+                    frame = dropped ? null : queue.poll();
+                    if (frame == null) {
+                        draining = false;
+                        finish = completing && !dropped;
+                        dropped |= finish;
+                    }
+                }
+                if (frame == null) {
+                    if (finish) {
+                        emitter.complete();
+                    }
+                    return;
+                }
+                if (!deliver(frame)) {
+                    synchronized (StreamBroadcast.this) {
+                        queue.clear();
+                        dropped = true;
+                        draining = false;
+                    }
+                    unsubscribe(emitter);
+                    return;
+                }
+            }
+        }
+
+        private boolean deliver(SseFrame frame) {
+            try {
+                frame.sendTo(emitter);
+                if (listener != null) {
+                    listener.frame(frame);
+                }
+                return true;
+            } catch (Exception e) {
+                emitter.completeWithError(e);
+                return false;
+            }
+        }
+    }
+}
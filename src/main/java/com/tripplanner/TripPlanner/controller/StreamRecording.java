@@ -0,0 +1,126 @@
+package com.tripplanner.TripPlanner.controller;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The progress frames of one agent stream, with timing, so a cache hit can
+ * replay them ahead of the cached result and look like the live stream.
+ * Encoded as a JSON array of {@code [gapMs, frameText]} pairs: the gap is
+ * milliseconds since the previous frame (the first is counted from the
+ * upstream call), the text is the frame exactly as it was sent.
+ *
+ * <p>Only what comes before the result frame is recorded. The recording is
+ * stored in the same cache entry as the result (see {@link #withResult}), so it
+ * expires, is refreshed and is evicted with it and costs no extra lookup; a
+ * stored value without one is just the result. A stream that outgrows the caps
+ * is not recorded at all, and a hit without a recording just gets the result
+ * frame as before.</p>
+ */
+public final class StreamRecording {
+
+    // Agent results are JSON objects, so a stored value starting with this carries a recording
+    static final String PREFIX = "~frames:";
+    static final int MAX_FRAMES = StreamBroadcast.MAX_REPLAY_FRAMES;
+    static final int MAX_BYTES = 64 * 1024;
+
+    private static final TypeReference<List<Object[]>> FORMAT = new TypeReference<>() {
+    };
+
+    /** One recorded frame and the gap before it. */
+    record Frame(long gapMs, SseFrame frame) {
+    }
+
+    private final List<Frame> frames = new ArrayList<>();
+    private long lastAt;
+    private int bytes;
+    private boolean overflowed;
+
+    StreamRecording(long startedAt) {
+        this.lastAt = startedAt;
+    }
+
+    /** The cache value holding {@code result} and its encoded recording: {@code ~frames:<length>:<recording><result>}. */
+    public static String withResult(String recording, String result) {
+        return PREFIX + recording.length() + ':' + recording + result;
+    }
+
+    /** The result part of a stored cache value, which is the whole value when there is no recording. */
+    public static String result(String stored) {
+        int end = recordingEnd(stored);
+        return end < 0 ? stored : stored.substring(end);
+    }
+
+    /** The encoded recording in a stored cache value, or null. */
+    public static String recording(String stored) {
+        int end = recordingEnd(stored);
+        return end < 0 ? null : stored.substring(stored.indexOf(':', PREFIX.length()) + 1, end);
+    }
+
+    private static int recordingEnd(String stored) {
+        if (stored == null || !stored.startsWith(PREFIX)) {
+            return -1;
+        }
+        int colon = stored.indexOf(':', PREFIX.length());
+        try {
+            int end = colon + 1 + Integer.parseInt(stored, PREFIX.length(), colon, 10);
+            return end <= stored.length() ? end : -1;
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    synchronized void record(SseFrame frame, long at) {
+        if (overflowed) {
+            return;
+        }
+        bytes += frame.bytes().length;
+        if (frames.size() == MAX_FRAMES || bytes > MAX_BYTES) {
+            overflowed = true;
+            frames.clear();
+            return;
+        }
+        frames.add(new Frame(Math.max(0, at - lastAt), frame));
+        lastAt = at;
+    }
+
+    /** @return the stored form, or null when there is nothing worth storing */
+    synchronized String encode(ObjectMapper objectMapper) {
+        if (overflowed || frames.isEmpty()) {
+            return null;
+        }
+        List<Object[]> out = new ArrayList<>(frames.size());
+        for (Frame f : frames) {
+            out.add(new Object[]{f.gapMs(), new String(f.frame().bytes(), StandardCharsets.UTF_8)});
+        }
+        try {
+            return objectMapper.writeValueAsString(out);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** @return the recorded frames, or an empty list for a missing or unreadable recording */
+    static List<Frame> decode(String stored, ObjectMapper objectMapper) {
+        if (stored == null) {
+            return List.of();
+        }
+        try {
+            List<Object[]> pairs = objectMapper.readValue(stored, FORMAT);
+            List<Frame> frames = new ArrayList<>(pairs.size());
+            for (Object[] pair : pairs) {
+                if (pair.length != 2 || !(pair[0] instanceof Number gap) || !(pair[1] instanceof String text)) {
+                    return List.of();
+                }
+                frames.add(new Frame(gap.longValue(), SseFrame.raw(text)));
+            }
+            return frames;
+        } catch (Exception e) {
+            return List.of();
+        }
+    }
+}
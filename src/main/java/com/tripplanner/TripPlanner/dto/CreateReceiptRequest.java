@@ -17,4 +17,6 @@ public class CreateReceiptRequest {
     private Integer people;
     private String locale;
     private String routeGeometry;
+    /** "polyline6" or "float32" when routeGeometry uses that /api/routing encoding; JSON [lat, lng] pairs otherwise. */
+    private String routeGeometryFormat;
 }
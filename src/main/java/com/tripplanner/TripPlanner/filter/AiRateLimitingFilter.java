@@ -23,7 +23,6 @@ import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -32,16 +31,35 @@ import java.util.concurrent.atomic.AtomicReference;
  * Applies only to /api/ai/** endpoints.
  *
  * <p>User and process-wide windows are checked and reserved atomically. A
- * rejected request therefore consumes no quota in any other window.</p>
+ * rejected request therefore consumes no quota in any other window. There is
+ * no lock on this path: every window is a packed counter updated by CAS (see
+ * {@link RateWindows}), and per-user state lives in the striped identity map.
+ * The process-wide slot is taken first and handed back if the user has no
+ * room.</p>
+ *
+ * <p>A request the controller served by attaching to another request's
+ * agent call (see {@code AiSingleFlight}) gives its process-wide slot back:
+ * the global windows bound agent spend, and that request caused none. The
+ * caller's own quota still counts it.</p>
+ *
+ * <p>Background cache refreshes (see {@code AiCacheRefresher}) call the agent
+ * with no request behind them. They take process-wide slots through
+ * {@link #tryReserveGlobal}, which is capped at a fixed share of each global
+ * window ({@code ai.ratelimit.global.refresh-share}) so refreshes can never
+ * crowd out users.</p>
  */
 public class AiRateLimitingFilter implements Filter {
 
     private static final Logger logger = LoggerFactory.getLogger(AiRateLimitingFilter.class);
-    private static final long MINUTE_MS = 60 * 1000;
-    private static final long HOUR_MS = 60 * 60 * 1000;
-    private static final long DAY_MS = 24 * 60 * 60 * 1000;
+    private static final long MINUTE_MS = RateWindows.WINDOW_MS[RateWindows.MINUTE];
+    private static final long HOUR_MS = RateWindows.WINDOW_MS[RateWindows.HOUR];
+    private static final long DAY_MS = RateWindows.WINDOW_MS[RateWindows.DAY];
+    private static final String[] WINDOW_SCOPES = {"per-minute", "hourly", "daily"};
     private static final long REJECTION_LOG_INTERVAL_MS = 10 * 1000;
 
+    /** Request attribute a controller sets (to TRUE) when it did not call the agent itself. */
+    public static final String SHARED_UPSTREAM_ATTRIBUTE = AiRateLimitingFilter.class.getName() + ".sharedUpstream";
+
     @Value("${ai.ratelimit.authenticated.minute:3}")
     private int authMinuteLimit;
 
@@ -60,15 +78,17 @@ public class AiRateLimitingFilter implements Filter {
     @Value("${ai.ratelimit.global.daily:500}")
     private int globalDailyLimit;
 
+    @Value("${ai.ratelimit.global.refresh-share:0.1}")
+    private double refreshShare = 0.1;
+
     @Value("${ai.ratelimit.max-identities:1000}")
     private int maxUserBuckets;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final ConcurrentHashMap<String, RateLimitBucket> userLimits = new ConcurrentHashMap<>();
-    private final Object globalLock = new Object();
-    private final RateLimitEntry globalMinute = new RateLimitEntry(System.currentTimeMillis());
-    private final RateLimitEntry globalHourly = new RateLimitEntry(System.currentTimeMillis());
-    private final RateLimitEntry globalDaily = new RateLimitEntry(System.currentTimeMillis());
+    private final RateWindows global = new RateWindows(System.currentTimeMillis());
+    // The part of the global windows spent on background refreshes
+    private final RateWindows refreshes = new RateWindows(System.currentTimeMillis());
 
     private final AtomicLong totalRequests = new AtomicLong();
     private final AtomicLong totalRejections = new AtomicLong();
@@ -77,7 +97,7 @@ public class AiRateLimitingFilter implements Filter {
     private final AtomicReference<LimitRejection> capacityCooldown = new AtomicReference<>();
     private final ConcurrentHashMap<String, Boolean> activeUsers = new ConcurrentHashMap<>();
     private volatile long lastLogTime = System.currentTimeMillis();
-    private volatile long lastCleanupTime = System.currentTimeMillis();
+    private final AtomicLong lastCleanupTime = new AtomicLong(System.currentTimeMillis());
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
@@ -150,7 +170,9 @@ public class AiRateLimitingFilter implements Filter {
         }
 
         totalRequests.incrementAndGet();
-        LimitRejection rejection = reserveAtomically(rateLimitKey, currentTime);
+        // Where the global slot was taken, should this request have to give it back
+        long[] globalStarts = new long[3];
+        LimitRejection rejection = reserveAtomically(rateLimitKey, currentTime, globalStarts);
         if (rejection != null) {
             totalRejections.incrementAndGet();
             logRejectionSampled(rejection, currentTime);
@@ -164,76 +186,102 @@ public class AiRateLimitingFilter implements Filter {
             lastLogTime = currentTime;
         }
         if (userLimits.size() > maxUserBuckets / 2
-                && currentTime - lastCleanupTime >= HOUR_MS) {
+                && currentTime - lastCleanupTime.get() >= HOUR_MS) {
             cleanupOldEntries(currentTime);
         }
 
         chain.doFilter(request, response);
-    }
 
-    private LimitRejection reserveAtomically(String rateLimitKey, long now) {
-        synchronized (globalLock) {
-            RateLimitBucket global = globalBucket();
-            resetBucket(global, now);
-            LimitRejection rejection = firstExceeded(global, now, true,
-                    globalMinuteLimit, globalHourlyLimit, globalDailyLimit);
-            if (rejection != null) {
-                globalCooldown.set(rejection);
-                return rejection;
-            }
-
-            RateLimitBucket user = userLimits.get(rateLimitKey);
-            if (user == null) {
-                if (userLimits.size() >= maxUserBuckets) {
-                    cleanupOldEntriesLocked(now);
-                }
-                if (userLimits.size() >= maxUserBuckets) {
-                    LimitRejection capacityRejection = new LimitRejection("identity-capacity",
-                            now + MINUTE_MS, maxUserBuckets, true);
-                    capacityCooldown.set(capacityRejection);
-                    return capacityRejection;
-                }
-                user = new RateLimitBucket(now);
-                userLimits.put(rateLimitKey, user);
-            }
+        // Set synchronously by the controller, so it is visible here even for SSE
+        if (Boolean.TRUE.equals(request.getAttribute(SHARED_UPSTREAM_ATTRIBUTE))) {
+            releaseGlobal(globalStarts);
+        }
+    }
 
-            resetBucket(user, now);
-            rejection = firstExceeded(user, now, false,
-                    authMinuteLimit, authHourlyLimit, authDailyLimit);
-            if (rejection != null) {
-                user.cooldown = rejection;
-                return rejection;
-            }
+    /** Returns one global slot taken in the windows starting at {@code starts}, unless they have rolled over. */
+    private void releaseGlobal(long[] starts) {
+        global.release(starts);
+        globalCooldown.set(null);
+    }
 
-            increment(user);
-            increment(global);
-            return null;
+    /**
+     * Reserves one process-wide slot for an agent call made without a user
+     * request (a background cache refresh). Succeeds only while every global
+     * window has room and refreshes stay within their share of it; a refusal
+     * sets no cooldown, so users never see it.
+     */
+    public boolean tryReserveGlobal() {
+        long now = System.currentTimeMillis();
+        long[] refreshStarts = new long[3];
+        if (global.firstFull(now, globalMinuteLimit, globalHourlyLimit, globalDailyLimit) >= 0
+                || refreshes.tryAcquire(now, refreshLimit(globalMinuteLimit),
+                        refreshLimit(globalHourlyLimit), refreshLimit(globalDailyLimit), refreshStarts) >= 0) {
+            return false;
+        }
+        if (global.tryAcquire(now, globalMinuteLimit, globalHourlyLimit, globalDailyLimit) >= 0) {
+            refreshes.release(refreshStarts);
+            return false;
         }
+        return true;
     }
 
-    private void resetBucket(RateLimitBucket bucket, long now) {
-        resetExpired(bucket.minute, now, MINUTE_MS);
-        resetExpired(bucket.hourly, now, HOUR_MS);
-        resetExpired(bucket.daily, now, DAY_MS);
+    private int refreshLimit(int globalLimit) {
+        return (int) (globalLimit * refreshShare);
     }
 
-    private LimitRejection firstExceeded(RateLimitBucket bucket, long now, boolean global,
-                                         int minuteLimit, int hourlyLimit, int dailyLimit) {
-        if (bucket.minute.count.get() >= minuteLimit) {
-            return new LimitRejection(prefix(global, "per-minute"),
-                    bucket.minute.windowStart.get() + MINUTE_MS, minuteLimit, global);
+    private LimitRejection reserveAtomically(String rateLimitKey, long now, long[] globalStarts) {
+        RateLimitBucket user = userLimits.get(rateLimitKey);
+        int full = global.tryAcquire(now, globalMinuteLimit, globalHourlyLimit, globalDailyLimit, globalStarts);
+        if (full >= 0) {
+            LimitRejection rejection = rejection(global, full, now, true,
+                    globalMinuteLimit, globalHourlyLimit, globalDailyLimit);
+            globalCooldown.set(rejection);
+            // The slot that filled the window may have been handed back since;
+            // a release before this check is seen here, one after it clears the cooldown
+            if (global.firstFull(now, globalMinuteLimit, globalHourlyLimit, globalDailyLimit) < 0) {
+                globalCooldown.compareAndSet(rejection, null);
+            }
+            return rejection;
         }
-        if (bucket.hourly.count.get() >= hourlyLimit) {
-            return new LimitRejection(prefix(global, "hourly"),
-                    bucket.hourly.windowStart.get() + HOUR_MS, hourlyLimit, global);
+
+        if (user == null) {
+            if (userLimits.size() >= maxUserBuckets) {
+                cleanupOldEntries(now, MINUTE_MS);
+            }
+            if (userLimits.size() >= maxUserBuckets) {
+                releaseGlobal(globalStarts);
+                LimitRejection capacityRejection = new LimitRejection("identity-capacity",
+                        now + MINUTE_MS, maxUserBuckets, true);
+                capacityCooldown.set(capacityRejection);
+                return capacityRejection;
+            }
+            // Concurrent first requests can overshoot the cap by a few entries
+            RateLimitBucket created = new RateLimitBucket(now);
+            user = userLimits.putIfAbsent(rateLimitKey, created);
+            if (user == null) {
+                user = created;
+            }
         }
-        if (bucket.daily.count.get() >= dailyLimit) {
-            return new LimitRejection(prefix(global, "daily"),
-                    bucket.daily.windowStart.get() + DAY_MS, dailyLimit, global);
+
+        full = user.windows.tryAcquire(now, authMinuteLimit, authHourlyLimit, authDailyLimit);
+        if (full >= 0) {
+            releaseGlobal(globalStarts);
+            LimitRejection rejection = rejection(user.windows, full, now, false,
+                    authMinuteLimit, authHourlyLimit, authDailyLimit);
+            user.cooldown = rejection;
+            return rejection;
         }
         return null;
     }
 
+    private LimitRejection rejection(RateWindows windows, int window, long now, boolean global,
+                                     int minuteLimit, int hourlyLimit, int dailyLimit) {
+        int limit = window == RateWindows.MINUTE ? minuteLimit
+                : window == RateWindows.HOUR ? hourlyLimit : dailyLimit;
+        return new LimitRejection(prefix(global, WINDOW_SCOPES[window]),
+                windows.start(window, now) + RateWindows.WINDOW_MS[window], limit, global);
+    }
+
     private String prefix(boolean global, String scope) {
         return global ? "global-" + scope : scope;
     }
@@ -260,23 +308,6 @@ public class AiRateLimitingFilter implements Filter {
                 rejection.global() ? globalDailyLimit : authDailyLimit);
     }
 
-    private RateLimitBucket globalBucket() {
-        return new RateLimitBucket(globalMinute, globalHourly, globalDaily);
-    }
-
-    private void increment(RateLimitBucket bucket) {
-        bucket.minute.count.incrementAndGet();
-        bucket.hourly.count.incrementAndGet();
-        bucket.daily.count.incrementAndGet();
-    }
-
-    private void resetExpired(RateLimitEntry entry, long now, long windowMs) {
-        if (now - entry.windowStart.get() >= windowMs) {
-            entry.count.set(0);
-            entry.windowStart.set(now);
-        }
-    }
-
     private void rejectUnauthorized(HttpServletResponse response, String message) throws IOException {
         response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
         response.setContentType("application/json");
@@ -318,46 +349,28 @@ public class AiRateLimitingFilter implements Filter {
     }
 
     private void cleanupOldEntries(long now) {
-        synchronized (globalLock) {
-            cleanupOldEntriesLocked(now);
-        }
+        cleanupOldEntries(now, HOUR_MS);
     }
 
-    private void cleanupOldEntriesLocked(long now) {
-        if (now - lastCleanupTime < MINUTE_MS) {
+    /** Drops identities idle for two days; at most one thread sweeps per {@code interval}. */
+    private void cleanupOldEntries(long now, long interval) {
+        long last = lastCleanupTime.get();
+        if (now - last < interval || !lastCleanupTime.compareAndSet(last, now)) {
             return;
         }
         userLimits.entrySet().removeIf(entry ->
-                now - entry.getValue().daily.windowStart.get() > DAY_MS * 2);
-        lastCleanupTime = now;
+                now - entry.getValue().windows.startedAt(RateWindows.DAY) > DAY_MS * 2);
     }
 
     private record LimitRejection(String scope, long resetAt, int limit, boolean global) {
     }
 
     private static class RateLimitBucket {
-        final RateLimitEntry minute;
-        final RateLimitEntry hourly;
-        final RateLimitEntry daily;
+        final RateWindows windows;
         volatile LimitRejection cooldown;
 
         RateLimitBucket(long now) {
-            this(new RateLimitEntry(now), new RateLimitEntry(now), new RateLimitEntry(now));
-        }
-
-        RateLimitBucket(RateLimitEntry minute, RateLimitEntry hourly, RateLimitEntry daily) {
-            this.minute = minute;
-            this.hourly = hourly;
-            this.daily = daily;
-        }
-    }
-
-    private static class RateLimitEntry {
-        final AtomicInteger count = new AtomicInteger();
-        final AtomicLong windowStart;
-
-        RateLimitEntry(long windowStart) {
-            this.windowStart = new AtomicLong(windowStart);
+            this.windows = new RateWindows(now);
         }
     }
 }
@@ -0,0 +1,162 @@
+package com.tripplanner.TripPlanner.filter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The minute, hour and day windows of one rate-limit scope (a user, all
+ * users, background refreshes), updated without locks: each window is one
+ * long packing its start time (epoch ms, high 44 bits) and count (low 20
+ * bits), changed only by compare-and-set. A window starts with the first
+ * request after the previous one expired, as before.
+ *
+ * <p>Acquiring is all-or-nothing across the three windows. A full window is
+ * usually seen before anything is written, so a refusal costs no quota. If
+ * a concurrent request takes a window's last slot mid-acquire, the slots
+ * already taken are given back straight away. Nothing is over-admitted, but
+ * a request racing for the same last slot may be refused too. Scopes are
+ * combined the same way (see {@link #release}).</p>
+ */
+final class RateWindows {
+
+    static final int MINUTE = 0;
+    static final int HOUR = 1;
+    static final int DAY = 2;
+    static final long[] WINDOW_MS = {60 * 1000L, 60 * 60 * 1000L, 24 * 60 * 60 * 1000L};
+
+    static final int COUNT_BITS = 20;
+    static final int MAX_COUNT = (1 << COUNT_BITS) - 1;
+    private static final long COUNT_MASK = MAX_COUNT;
+
+    private final AtomicLongArray windows = new AtomicLongArray(3);
+
+    RateWindows(long now) {
+        for (int i = 0; i < 3; i++) {
+            windows.set(i, pack(now, 0));
+        }
+    }
+
+    static long pack(long start, int count) {
+        return (start << COUNT_BITS) | count;
+    }
+
+    static long start(long packed) {
+        return packed >>> COUNT_BITS;
+    }
+
+    static int count(long packed) {
+        return (int) (packed & COUNT_MASK);
+    }
+
+    /** Start of {@code window} as of {@code now}: now itself if the stored one has expired. */
+    long start(int window, long now) {
+        long start = start(windows.get(window));
+        return now - start >= WINDOW_MS[window] ? now : start;
+    }
+
+    /** Start of {@code window} as stored, however long ago that was. */
+    long startedAt(int window) {
+        return start(windows.get(window));
+    }
+
+    /** Requests counted in {@code window} as of {@code now}. */
+    int count(int window, long now) {
+        long packed = windows.get(window);
+        return now - start(packed) >= WINDOW_MS[window] ? 0 : count(packed);
+    }
+
+    /** The first window with no room left, or -1. Writes nothing. */
+    int firstFull(long now, int minuteLimit, int hourLimit, int dayLimit) {
+        for (int i = 0; i < 3; i++) {
+            if (count(i, now) >= limit(i, minuteLimit, hourLimit, dayLimit)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** {@link #tryAcquire(long, int, int, int, long[])} for a slot that is never given back. */
+    int tryAcquire(long now, int minuteLimit, int hourLimit, int dayLimit) {
+        return tryAcquire(now, minuteLimit, hourLimit, dayLimit, null);
+    }
+
+    /**
+     * Takes one slot in every window, or none.
+     * @param starts if not null, receives on success the start of each window
+     *               the slot was taken in, for a later {@link #release}
+     * @return -1 on success, else the window that was full
+     */
+    int tryAcquire(long now, int minuteLimit, int hourLimit, int dayLimit, long[] starts) {
+        int full = firstFull(now, minuteLimit, hourLimit, dayLimit);
+        if (full >= 0) {
+            return full;
+        }
+        long minuteStart = acquire(MINUTE, now, limit(MINUTE, minuteLimit, hourLimit, dayLimit));
+        if (minuteStart < 0) {
+            return MINUTE;
+        }
+        long hourStart = acquire(HOUR, now, limit(HOUR, minuteLimit, hourLimit, dayLimit));
+        if (hourStart < 0) {
+            giveBack(MINUTE, minuteStart);
+            return HOUR;
+        }
+        long dayStart = acquire(DAY, now, limit(DAY, minuteLimit, hourLimit, dayLimit));
+        if (dayStart < 0) {
+            giveBack(MINUTE, minuteStart);
+            giveBack(HOUR, hourStart);
+            return DAY;
+        }
+        if (starts != null) {
+            starts[MINUTE] = minuteStart;
+            starts[HOUR] = hourStart;
+            starts[DAY] = dayStart;
+        }
+        return -1;
+    }
+
+    /**
+     * Gives back a slot taken by {@link #tryAcquire(long, int, int, int, long[])},
+     * in each window still the one it was taken in: a window that has rolled
+     * over since, even within the same millisecond, is left alone.
+     */
+    void release(long[] starts) {
+        for (int i = 0; i < 3; i++) {
+            giveBack(i, starts[i]);
+        }
+    }
+
+    /** @return the start of the window the slot was taken in, or -1 if it was full */
+    private long acquire(int window, long now, int limit) {
+        while (true) {
+            long packed = windows.get(window);
+            long start = start(packed);
+            int count = count(packed);
+            if (now - start >= WINDOW_MS[window]) {
+                start = now;
+                count = 0;
+            }
+            if (count >= limit) {
+                return -1;
+            }
+            if (windows.compareAndSet(window, packed, pack(start, count + 1))) {
+                return start;
+            }
+        }
+    }
+
+    private void giveBack(int window, long start) {
+        while (true) {
+            long packed = windows.get(window);
+            if (start(packed) != start || count(packed) == 0) {
+                return;
+            }
+            if (windows.compareAndSet(window, packed, packed - 1)) {
+                return;
+            }
+        }
+    }
+
+    private static int limit(int window, int minuteLimit, int hourLimit, int dayLimit) {
+        int limit = window == MINUTE ? minuteLimit : window == HOUR ? hourLimit : dayLimit;
+        return Math.min(limit, MAX_COUNT);
+    }
+}
@@ -0,0 +1,46 @@
+package com.tripplanner.TripPlanner.health;
+
+import com.tripplanner.TripPlanner.routing.ProviderCircuitBreaker;
+import com.tripplanner.TripPlanner.routing.RoutingService;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Circuit state of each routing provider. Always UP: with every circuit open
+ * the planner still serves straight-line routes, so routing alone must never
+ * mark the application unhealthy — "degraded" in the details says so instead.
+ */
+@Component
+public class RoutingHealthIndicator implements HealthIndicator {
+
+    private final RoutingService routingService;
+
+    public RoutingHealthIndicator(RoutingService routingService) {
+        this.routingService = routingService;
+    }
+
+    @Override
+    public Health health() {
+        List<ProviderCircuitBreaker.Snapshot> providers = routingService.providerHealth();
+        Map<String, Object> details = new LinkedHashMap<>();
+        for (ProviderCircuitBreaker.Snapshot provider : providers) {
+            details.put(provider.provider(), Map.of(
+                    "state", provider.state(),
+                    "calls", provider.calls(),
+                    "errorRate", provider.errorRate(),
+                    "p95LatencyMs", provider.p95LatencyMs(),
+                    "score", provider.score()));
+        }
+        boolean degraded = providers.stream()
+                .noneMatch(provider -> provider.state() == ProviderCircuitBreaker.State.CLOSED);
+        return Health.up()
+                .withDetail("degraded", degraded)
+                .withDetails(details)
+                .build();
+    }
+}
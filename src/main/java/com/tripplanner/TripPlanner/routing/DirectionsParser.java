@@ -0,0 +1,223 @@
+package com.tripplanner.TripPlanner.routing;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadFeature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Single-pass streaming reader for Mapbox Directions / OSRM route responses
+ * (both share the {@code code} + {@code routes[].geometry.coordinates} shape).
+ *
+ * <p>Also reads the Mapbox Matrix / OSRM table shape ({@code durations} and
+ * {@code distances} as row-major arrays of arrays) via {@link #parseTable}.</p>
+ *
+ * <p>Pulls only what the proxy uses — code, message and the first route's
+ * distance, duration and GeoJSON coordinates — straight into a primitive
+ * [lat, lng, ...] array. Everything else (legs, waypoints, alternatives) is
+ * skipped token by token, never materialised as Map/List/Double trees.</p>
+ */
+final class DirectionsParser {
+
+    // Fast double parsing works off the parser's char buffer instead of a
+    // String per number — coordinates are nearly every token in the payload
+    private static final JsonFactory JSON = JsonFactory.builder()
+        .enable(StreamReadFeature.USE_FAST_DOUBLE_PARSER)
+        .build();
+
+    private DirectionsParser() {
+    }
+
+    /**
+     * @param distanceMeters NaN when absent
+     * @param latLng         first route's geometry as [lat0, lng0, ...]; null when absent
+     */
+    record Directions(String code, String message, double distanceMeters, double durationSeconds,
+                      double[] latLng) {
+    }
+
+    /**
+     * @param durations seconds, [source][destination]; NaN where no route exists; null when absent
+     * @param distances metres, same layout as {@code durations}
+     */
+    record Table(String code, String message, double[][] durations, double[][] distances) {
+    }
+
+    static Directions parse(InputStream body) throws IOException {
+        try (JsonParser parser = JSON.createParser(body)) {
+            return parse(parser);
+        }
+    }
+
+    static Directions parse(byte[] body) throws IOException {
+        try (JsonParser parser = JSON.createParser(body)) {
+            return parse(parser);
+        }
+    }
+
+    static Table parseTable(byte[] body) throws IOException {
+        try (JsonParser parser = JSON.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "table response is not a JSON object");
+            }
+            String code = null;
+            String message = null;
+            double[][] durations = null;
+            double[][] distances = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "code" -> code = parser.getValueAsString();
+                    case "message" -> message = parser.getValueAsString();
+                    case "durations" -> durations = value == JsonToken.START_ARRAY ? parseRows(parser) : skip(parser);
+                    case "distances" -> distances = value == JsonToken.START_ARRAY ? parseRows(parser) : skip(parser);
+                    default -> parser.skipChildren();
+                }
+            }
+            return new Table(code, message, durations, distances);
+        }
+    }
+
+    private static double[][] parseRows(JsonParser parser) throws IOException {
+        double[][] rows = new double[8][];
+        int n = 0;
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+            double[] row = new double[8];
+            int m = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token != JsonToken.VALUE_NULL && !token.isNumeric()) {
+                    throw new JsonParseException(parser, "table cell is neither a number nor null");
+                }
+                if (m == row.length) {
+                    row = Arrays.copyOf(row, m * 2);
+                }
+                // null = unreachable pair
+                row[m++] = token == JsonToken.VALUE_NULL ? Double.NaN : parser.getDoubleValue();
+            }
+            if (n == rows.length) {
+                rows = Arrays.copyOf(rows, n * 2);
+            }
+            rows[n++] = Arrays.copyOf(row, m);
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY) {
+            throw new JsonParseException(parser, "table must be an array of rows");
+        }
+        return Arrays.copyOf(rows, n);
+    }
+
+    private static double[][] skip(JsonParser parser) throws IOException {
+        parser.skipChildren();
+        return null;
+    }
+
+    private static Directions parse(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "directions response is not a JSON object");
+        }
+        String code = null;
+        String message = null;
+        Route route = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "code" -> code = parser.getValueAsString();
+                case "message" -> message = parser.getValueAsString();
+                case "routes" -> {
+                    if (value != JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                        break;
+                    }
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        if (route == null && parser.currentToken() == JsonToken.START_OBJECT) {
+                            route = parseRoute(parser);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return route == null
+            ? new Directions(code, message, Double.NaN, Double.NaN, null)
+            : new Directions(code, message, route.distance, route.duration, route.latLng);
+    }
+
+    private static Route parseRoute(JsonParser parser) throws IOException {
+        Route route = new Route();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "distance" -> route.distance = value.isNumeric() ? parser.getDoubleValue() : Double.NaN;
+                case "duration" -> route.duration = value.isNumeric() ? parser.getDoubleValue() : Double.NaN;
+                case "geometry" -> {
+                    if (value == JsonToken.START_OBJECT) {
+                        route.latLng = parseGeometry(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return route;
+    }
+
+    private static double[] parseGeometry(JsonParser parser) throws IOException {
+        double[] latLng = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("coordinates".equals(field) && value == JsonToken.START_ARRAY) {
+                latLng = parseCoordinates(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return latLng;
+    }
+
+    /** GeoJSON [lng, lat(, elevation)] positions, flipped to [lat, lng] for Leaflet. */
+    private static double[] parseCoordinates(JsonParser parser) throws IOException {
+        double[] out = new double[256];
+        int n = 0;
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+            if (!parser.nextToken().isNumeric()) {
+                throw new JsonParseException(parser, "coordinate longitude is not a number");
+            }
+            double lng = parser.getDoubleValue();
+            if (!parser.nextToken().isNumeric()) {
+                throw new JsonParseException(parser, "coordinate latitude is not a number");
+            }
+            double lat = parser.getDoubleValue();
+            // Skip any extra ordinates (elevation) up to the position's closing bracket
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                parser.skipChildren();
+            }
+            if (n + 2 > out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            out[n++] = lat;
+            out[n++] = lng;
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY) {
+            throw new JsonParseException(parser, "coordinates must be an array of positions");
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static final class Route {
+        double distance = Double.NaN;
+        double duration = Double.NaN;
+        double[] latLng;
+    }
+}
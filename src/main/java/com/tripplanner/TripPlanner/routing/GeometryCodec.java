@@ -0,0 +1,138 @@
+package com.tripplanner.TripPlanner.routing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Compact encodings for flat [lat0, lng0, lat1, lng1, ...] geometry, written
+ * straight from the array — no per-point List or boxed Double on the way out.
+ *
+ * <ul>
+ *   <li>{@code polyline6}: Google's encoded-polyline algorithm at 1e-6
+ *       precision (the variant Mapbox/OSRM emit for geometries=polyline6),
+ *       roughly 6-8 ASCII chars per point instead of ~40 for JSON pairs.</li>
+ *   <li>{@code float32}: little-endian float32 lat/lng pairs, base64-encoded
+ *       so it fits a JSON field. 8 bytes per point, ~0.2 m resolution.</li>
+ * </ul>
+ */
+public final class GeometryCodec {
+
+    private static final double POLYLINE6_FACTOR = 1e6;
+
+    public enum Format {
+        GEOJSON, POLYLINE6, FLOAT32;
+
+        /** Parses the {@code format} request parameter; null/blank means GEOJSON. */
+        public static Format fromParameter(String value) {
+            if (value == null || value.isBlank()) {
+                return GEOJSON;
+            }
+            return switch (value.trim().toLowerCase(Locale.ROOT)) {
+                case "geojson" -> GEOJSON;
+                case "polyline6" -> POLYLINE6;
+                case "float32" -> FLOAT32;
+                default -> throw new IllegalArgumentException("unsupported geometry format: " + value);
+            };
+        }
+
+        public String parameterValue() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private GeometryCodec() {
+    }
+
+    public static String encodePolyline6(double[] latLng) {
+        StringBuilder sb = new StringBuilder(latLng.length * 4);
+        long prevLat = 0;
+        long prevLng = 0;
+        for (int i = 0; i < latLng.length; i += 2) {
+            long lat = Math.round(latLng[i] * POLYLINE6_FACTOR);
+            long lng = Math.round(latLng[i + 1] * POLYLINE6_FACTOR);
+            encodeSigned(lat - prevLat, sb);
+            encodeSigned(lng - prevLng, sb);
+            prevLat = lat;
+            prevLng = lng;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Strict decoder for untrusted input: any character outside the encoding
+     * alphabet, a truncated varint, or an odd number of values is rejected
+     * with IllegalArgumentException rather than decoded into garbage.
+     */
+    public static double[] decodePolyline6(String encoded) {
+        double[] out = new double[Math.max(8, encoded.length() / 2)];
+        int count = 0;
+        // Running lat and lng totals: each value is a delta from the previous of its kind
+        long[] previous = new long[2];
+        int i = 0;
+        while (i < encoded.length()) {
+            long result = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (i >= encoded.length() || shift > 60) {
+                    throw new IllegalArgumentException("truncated polyline");
+                }
+                b = encoded.charAt(i++) - 63;
+                if (b < 0 || b > 0x3f) {
+                    throw new IllegalArgumentException("invalid polyline character");
+                }
+                result |= (long) (b & 0x1f) << shift;
+                shift += 5;
+            } while (b >= 0x20);
+            long delta = (result & 1) != 0 ? ~(result >> 1) : (result >> 1);
+            long value = previous[count & 1] + delta;
+            previous[count & 1] = value;
+            if (count == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            out[count++] = value / POLYLINE6_FACTOR;
+        }
+        if ((count & 1) != 0) {
+            throw new IllegalArgumentException("polyline has an unpaired coordinate");
+        }
+        return Arrays.copyOf(out, count);
+    }
+
+    public static String encodeFloat32(double[] latLng) {
+        ByteBuffer buffer = ByteBuffer.allocate(latLng.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (double value : latLng) {
+            buffer.putFloat((float) value);
+        }
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    /**
+     * Strict decoder for untrusted input: invalid base64 or a byte count that
+     * is not a whole number of lat/lng pairs is rejected with
+     * IllegalArgumentException.
+     */
+    public static double[] decodeFloat32(String encoded) {
+        byte[] bytes = Base64.getDecoder().decode(encoded);
+        if (bytes.length % (2 * Float.BYTES) != 0) {
+            throw new IllegalArgumentException("float32 geometry has an unpaired coordinate");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        double[] out = new double[bytes.length / Float.BYTES];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = buffer.getFloat();
+        }
+        return out;
+    }
+
+    private static void encodeSigned(long value, StringBuilder sb) {
+        long v = value < 0 ? ~(value << 1) : (value << 1);
+        while (v >= 0x20) {
+            sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>= 5;
+        }
+        sb.append((char) (v + 63));
+    }
+}
@@ -0,0 +1,103 @@
+package com.tripplanner.TripPlanner.routing;
+
+import java.util.Arrays;
+
+/**
+ * Douglas–Peucker line simplification over flat [lat0, lng0, lat1, lng1, ...]
+ * arrays. Distances are measured in metres on a local equirectangular
+ * projection around the line's mean latitude — exact enough for a tolerance
+ * of a few pixels, and far cheaper than great-circle maths per point.
+ */
+final class GeometrySimplifier {
+
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    private GeometrySimplifier() {
+    }
+
+    /**
+     * Returns the points that keep the line within {@code toleranceMeters} of
+     * the original. The first and last points are always kept; the input is
+     * returned as-is when there is nothing to drop.
+     */
+    static double[] simplify(double[] latLng, double toleranceMeters) {
+        int n = latLng.length / 2;
+        if (n <= 2 || toleranceMeters <= 0) {
+            return latLng;
+        }
+
+        // Project once: x/y in metres, relative to the first point
+        double meanLat = 0;
+        for (int i = 0; i < latLng.length; i += 2) {
+            meanLat += latLng[i];
+        }
+        double lngScale = METERS_PER_DEGREE * Math.cos(Math.toRadians(meanLat / n));
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = (latLng[2 * i + 1] - latLng[1]) * lngScale;
+            y[i] = (latLng[2 * i] - latLng[0]) * METERS_PER_DEGREE;
+        }
+
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        double toleranceSq = toleranceMeters * toleranceMeters;
+
+        // Explicit stack of [start, end] ranges: recursion depth on a
+        // 50k-point route would risk the request thread's stack
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        int kept = 2;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+            double maxDistSq = 0;
+            int farthest = -1;
+            for (int i = start + 1; i < end; i++) {
+                double d = segmentDistanceSq(x[i], y[i], x[start], y[start], x[end], y[end]);
+                if (d > maxDistSq) {
+                    maxDistSq = d;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0 && maxDistSq > toleranceSq) {
+                keep[farthest] = true;
+                kept++;
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = start;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = end;
+            }
+        }
+
+        if (kept == n) {
+            return latLng;
+        }
+        double[] out = new double[kept * 2];
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                out[j++] = latLng[2 * i];
+                out[j++] = latLng[2 * i + 1];
+            }
+        }
+        return out;
+    }
+
+    private static double segmentDistanceSq(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSq;
+        t = Math.max(0, Math.min(1, t));
+        double ex = ax + t * dx - px;
+        double ey = ay + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+}
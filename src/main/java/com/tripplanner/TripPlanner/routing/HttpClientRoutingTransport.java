@@ -0,0 +1,43 @@
+package com.tripplanner.TripPlanner.routing;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Production transport on the JDK HttpClient. One client is shared by every
+ * provider: it keeps connections alive between calls and negotiates HTTP/2
+ * (Mapbox supports it), so concurrent routes multiplex over one connection
+ * instead of opening an HttpURLConnection each. No thread waits on I/O —
+ * completion runs on the client's own executor.
+ */
+final class HttpClientRoutingTransport implements RoutingTransport {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    private final HttpClient client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(CONNECT_TIMEOUT)
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .build();
+
+    @Override
+    public CompletableFuture<Response> get(String url, Map<String, String> headers) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+            .timeout(REQUEST_TIMEOUT)
+            .header("Accept", "application/json")
+            .header("User-Agent", "TripPlanner/1.0")
+            .GET();
+        headers.forEach(request::header);
+
+        CompletableFuture<HttpResponse<byte[]>> exchange =
+            client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        return RoutingTransport.cancelsUpstream(
+            exchange.thenApply(response -> new Response(response.statusCode(), response.body())), exchange);
+    }
+}
@@ -0,0 +1,135 @@
+package com.tripplanner.TripPlanner.routing;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker and health score for one routing provider, over a rolling
+ * window of its most recent calls.
+ *
+ * <p>CLOSED → OPEN when the window holds at least {@code minimumCalls} and the
+ * error rate reaches the threshold. An OPEN provider is skipped by live
+ * requests; once {@code openSeconds} pass it becomes due for a background
+ * probe (HALF_OPEN), and the probe's outcome closes or re-opens it. Live
+ * traffic never pays a half-open provider's timeout.</p>
+ */
+public class ProviderCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String provider;
+    private final RoutingProperties.CircuitBreaker config;
+    private final LongSupplier clock;
+
+    // Ring buffer of the last windowSize outcomes
+    private final boolean[] failures;
+    private final long[] latenciesMs;
+    private int next;
+    private int calls;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+
+    ProviderCircuitBreaker(String provider, RoutingProperties.CircuitBreaker config, LongSupplier clock) {
+        this.provider = provider;
+        this.config = config;
+        this.clock = clock;
+        int windowSize = Math.max(1, config.getWindowSize());
+        this.failures = new boolean[windowSize];
+        this.latenciesMs = new long[windowSize];
+    }
+
+    String provider() {
+        return provider;
+    }
+
+    /** Whether live requests may use this provider right now. */
+    synchronized boolean allowsRequests() {
+        return !config.isEnabled() || state == State.CLOSED;
+    }
+
+    synchronized void record(boolean success, long latencyMs) {
+        if (state != State.CLOSED) {
+            // Stragglers from before the trip don't get to vote; the probe decides
+            return;
+        }
+        failures[next] = !success;
+        latenciesMs[next] = latencyMs;
+        next = (next + 1) % failures.length;
+        calls = Math.min(calls + 1, failures.length);
+
+        if (config.isEnabled() && calls >= config.getMinimumCalls()
+                && errorRate() >= config.getFailureRateThreshold()) {
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+        }
+    }
+
+    /**
+     * Moves an OPEN breaker whose cool-down has elapsed to HALF_OPEN and
+     * returns true; the caller owns the single probe and must report it
+     * through {@link #probeFinished}.
+     */
+    synchronized boolean tryStartProbe() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= config.getOpenSeconds() * 1000L) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void probeFinished(boolean success) {
+        if (state != State.HALF_OPEN) {
+            return;
+        }
+        if (success) {
+            state = State.CLOSED;
+            calls = 0;
+            next = 0;
+        } else {
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+        }
+    }
+
+    /**
+     * Success rate minus 0.1 per second of p95 latency (capped at 0.5), so a
+     * provider failing half its calls always ranks below one that is merely slow.
+     */
+    synchronized double score() {
+        if (calls == 0) {
+            return 1.0;
+        }
+        return (1.0 - errorRate()) - Math.min(0.5, p95LatencyMs() / 10_000.0);
+    }
+
+    synchronized Snapshot snapshot() {
+        return new Snapshot(provider, state, calls, errorRate(), p95LatencyMs(), score());
+    }
+
+    private double errorRate() {
+        if (calls == 0) {
+            return 0.0;
+        }
+        int failed = 0;
+        for (int i = 0; i < calls; i++) {
+            if (failures[i]) {
+                failed++;
+            }
+        }
+        return (double) failed / calls;
+    }
+
+    private long p95LatencyMs() {
+        if (calls == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latenciesMs, calls);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(calls * 0.95) - 1];
+    }
+
+    public record Snapshot(String provider, State state, int calls, double errorRate,
+                           long p95LatencyMs, double score) {
+    }
+}
@@ -0,0 +1,54 @@
+package com.tripplanner.TripPlanner.routing;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Adapts a blocking RestTemplate to {@link RoutingTransport} by running each
+ * exchange on its own daemon pool. Kept so a RestTemplate bound to
+ * MockRestServiceServer can stand in for the providers in tests.
+ */
+final class RestTemplateRoutingTransport implements RoutingTransport {
+
+    private final RestTemplate restTemplate;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "routing-rest-template");
+        t.setDaemon(true);
+        return t;
+    });
+
+    RestTemplateRoutingTransport(RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
+    }
+
+    @Override
+    public CompletableFuture<Response> get(String url, Map<String, String> headers) {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            try {
+                result.complete(exchange(url, headers));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        // Interrupts the blocked exchange when a hedge loser is cancelled
+        return RoutingTransport.cancelsUpstream(result, task);
+    }
+
+    private Response exchange(String url, Map<String, String> headers) {
+        try {
+            return restTemplate.execute(url, HttpMethod.GET,
+                request -> headers.forEach(request.getHeaders()::set),
+                response -> new Response(response.getStatusCode().value(), response.getBody().readAllBytes()));
+        } catch (HttpStatusCodeException e) {
+            return new Response(e.getStatusCode().value(), e.getResponseBodyAsByteArray());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.tripplanner.TripPlanner.routing;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded LRU of provider routes keyed by waypoints snapped to a decimal grid,
+ * so replanning the same trip costs no outbound call and no Mapbox quota.
+ * Only real provider answers are stored — the straight-line fallback never is,
+ * otherwise a short provider outage would be replayed for the whole TTL.
+ */
+class RouteCache<V> {
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlMs;
+    private final double scale;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Entry<V>> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    RouteCache(RoutingProperties.Cache config, LongSupplier clock) {
+        this.enabled = config.isEnabled() && config.getMaxEntries() > 0;
+        this.maxEntries = config.getMaxEntries();
+        this.ttlMs = config.getTtlMinutes() * 60_000L;
+        this.scale = Math.pow(10, config.getCoordinatePrecision());
+        this.clock = clock;
+        // Access order: get() moves an entry to the tail, the head is the LRU victim
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Coordinates snapped to the configured grid, in request order — order
+     * matters, A→B→C is a different route than A→C→B.
+     */
+    String key(List<RoutingController.Waypoint> waypoints) {
+        StringBuilder sb = new StringBuilder(waypoints.size() * 24);
+        for (RoutingController.Waypoint w : waypoints) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(Math.round(w.lat() * scale)).append(',').append(Math.round(w.lng() * scale));
+        }
+        return sb.toString();
+    }
+
+    V get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && clock.getAsLong() - entry.storedAt < ttlMs) {
+                hits.increment();
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    void put(String key, V value) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, clock.getAsLong()));
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** @param name {@code cache} tag value, distinguishing the route and matrix-cell caches */
+    void bindTo(MeterRegistry registry, String name) {
+        FunctionCounter.builder("routing.cache.gets", hits, LongAdder::doubleValue)
+                .tag("cache", name).tag("result", "hit").register(registry);
+        FunctionCounter.builder("routing.cache.gets", misses, LongAdder::doubleValue)
+                .tag("cache", name).tag("result", "miss").register(registry);
+        FunctionCounter.builder("routing.cache.evictions", evictions, LongAdder::doubleValue)
+                .tag("cache", name).register(registry);
+        Gauge.builder("routing.cache.size", this, RouteCache::size)
+                .tag("cache", name).register(registry);
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    private record Entry<V>(V value, long storedAt) {
+    }
+}
@@ -0,0 +1,78 @@
+package com.tripplanner.TripPlanner.routing;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Stop-order optimisation for multi-stop trips: distances from the routing
+ * matrix (or straight lines), order from {@link WaypointOptimizer}.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RouteOptimizationService {
+
+    private final RoutingService routingService;
+    private final RoutingProperties routingProperties;
+
+    /**
+     * @param fixEnd        keep the last waypoint as the destination (otherwise
+     *                      only the start is fixed and the trip ends anywhere)
+     * @param roadDistances use the provider matrix; false = great-circle distances
+     */
+    public CompletableFuture<Map<String, Object>> optimize(List<RoutingController.Waypoint> waypoints,
+                                                           boolean fixEnd, boolean roadDistances) {
+        if (!roadDistances) {
+            return CompletableFuture.supplyAsync(() ->
+                solve(waypoints, straightLineMatrix(waypoints), "haversine", fixEnd), ForkJoinPool.commonPool());
+        }
+        return routingService.calculateMatrixAsync(waypoints)
+            .thenApplyAsync(matrix -> solve(waypoints, (double[][]) matrix.get("distances"),
+                (String) matrix.get("source"), fixEnd), ForkJoinPool.commonPool());
+    }
+
+    private Map<String, Object> solve(List<RoutingController.Waypoint> waypoints, double[][] distances,
+                                      String source, boolean fixEnd) {
+        RoutingProperties.Optimize config = routingProperties.getOptimize();
+        long start = System.nanoTime();
+        WaypointOptimizer.Result result = WaypointOptimizer.optimize(
+            distances, fixEnd, config.getRestarts(), config.getTimeBudgetMs(), ForkJoinPool.commonPool());
+        log.info("Optimised {} waypoints in {} ms over {} restarts: {} km -> {} km",
+            waypoints.size(), (System.nanoTime() - start) / 1_000_000, result.restarts(),
+            String.format("%.2f", result.initialCost()), String.format("%.2f", result.cost()));
+
+        List<RoutingController.Waypoint> ordered = new ArrayList<>(waypoints.size());
+        for (int index : result.order()) {
+            ordered.add(waypoints.get(index));
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("order", Arrays.stream(result.order()).boxed().toList());
+        response.put("waypoints", ordered);
+        response.put("originalDistance", result.initialCost());
+        response.put("totalDistance", result.cost());
+        response.put("distanceSaved", result.initialCost() - result.cost());
+        response.put("source", source);
+        return response;
+    }
+
+    private static double[][] straightLineMatrix(List<RoutingController.Waypoint> waypoints) {
+        int n = waypoints.size();
+        double[][] km = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                km[i][j] = RoutingService.haversineKm(waypoints.get(i), waypoints.get(j));
+                km[j][i] = km[i][j];
+            }
+        }
+        return km;
+    }
+}
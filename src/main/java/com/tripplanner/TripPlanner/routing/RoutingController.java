@@ -4,6 +4,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.util.List;
 import java.util.Map;
@@ -14,23 +15,152 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class RoutingController {
 
+    // Above ~5 km the line stops following roads even on a country-wide view
+    private static final double MAX_TOLERANCE_METERS = 5000;
+    private static final int MAX_ZOOM = 22;
+    // Worst case in order: three providers at 5s connect + 10s response each
+    private static final long ROUTE_TIMEOUT_MS = 50_000;
+
     private final RoutingService routingService;
+    private final RouteOptimizationService routeOptimizationService;
+    private final RoutingProperties routingProperties;
 
+    /**
+     * @param tolerance optional simplification tolerance in metres
+     * @param zoom      optional Leaflet zoom the line will be drawn at; the
+     *                  tolerance is derived from it when none is given
+     * @param format    geometry encoding: geojson (default), polyline6 or float32
+     *
+     * <p>Asynchronous: the servlet thread is released while the providers are
+     * called, so slow upstreams queue futures rather than Tomcat workers.</p>
+     */
     @PostMapping("/calculate")
-    public ResponseEntity<Map<String, Object>> calculateRoute(@RequestBody RouteRequest request) {
+    public DeferredResult<ResponseEntity<Map<String, Object>>> calculateRoute(
+            @RequestBody RouteRequest request,
+            @RequestParam(required = false) Double tolerance,
+            @RequestParam(required = false) Integer zoom,
+            @RequestParam(required = false) String format) {
+        DeferredResult<ResponseEntity<Map<String, Object>>> deferred =
+            new DeferredResult<>(ROUTE_TIMEOUT_MS, unavailable());
+        if (tolerance != null && (tolerance < 0 || tolerance > MAX_TOLERANCE_METERS)) {
+            deferred.setResult(ResponseEntity.badRequest().body(Map.of(
+                "error", "tolerance must be between 0 and " + (int) MAX_TOLERANCE_METERS + " metres")));
+            return deferred;
+        }
+        if (zoom != null && (zoom < 0 || zoom > MAX_ZOOM)) {
+            deferred.setResult(ResponseEntity.badRequest().body(Map.of(
+                "error", "zoom must be between 0 and " + MAX_ZOOM)));
+            return deferred;
+        }
+        GeometryCodec.Format geometryFormat;
+        try {
+            geometryFormat = GeometryCodec.Format.fromParameter(format);
+        } catch (IllegalArgumentException e) {
+            deferred.setResult(ResponseEntity.badRequest().body(Map.of(
+                "error", "format must be geojson, polyline6 or float32")));
+            return deferred;
+        }
         log.info("Calculating route for {} waypoints", request.waypoints().size());
 
         try {
-            Map<String, Object> result = routingService.calculateRoute(request.waypoints());
-            return ResponseEntity.ok(result);
+            routingService.calculateRouteAsync(
+                    request.waypoints(), new RoutingService.RouteOptions(tolerance, zoom, geometryFormat))
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.error("Failed to calculate route", error);
+                        deferred.setResult(unavailable());
+                    } else {
+                        deferred.setResult(ResponseEntity.ok(result));
+                    }
+                });
         } catch (Exception e) {
             log.error("Failed to calculate route", e);
-            return ResponseEntity.ok(Map.of(
-                "error", true,
-                "message", "Routing service unavailable",
-                "fallback", true
-            ));
+            deferred.setResult(unavailable());
         }
+        return deferred;
+    }
+
+    /**
+     * Pairwise distances (km) and durations (min) for all waypoints in one
+     * call, for trying stop orderings without a /calculate per candidate.
+     * Rows are origins, columns destinations.
+     */
+    @PostMapping("/matrix")
+    public DeferredResult<ResponseEntity<Map<String, Object>>> calculateMatrix(@RequestBody RouteRequest request) {
+        DeferredResult<ResponseEntity<Map<String, Object>>> deferred =
+            new DeferredResult<>(ROUTE_TIMEOUT_MS, unavailable());
+        int maxWaypoints = routingProperties.getMatrix().getMaxWaypoints();
+        if (request.waypoints() == null || request.waypoints().size() < 2
+            || request.waypoints().size() > maxWaypoints) {
+            deferred.setResult(ResponseEntity.badRequest().body(Map.of(
+                "error", "matrix needs between 2 and " + maxWaypoints + " waypoints")));
+            return deferred;
+        }
+        log.info("Calculating {}x{} routing matrix", request.waypoints().size(), request.waypoints().size());
+
+        try {
+            routingService.calculateMatrixAsync(request.waypoints())
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.error("Failed to calculate routing matrix", error);
+                        deferred.setResult(unavailable());
+                    } else {
+                        deferred.setResult(ResponseEntity.ok(result));
+                    }
+                });
+        } catch (Exception e) {
+            log.error("Failed to calculate routing matrix", e);
+            deferred.setResult(unavailable());
+        }
+        return deferred;
+    }
+
+    /**
+     * Reorders the stops between the first waypoint and (with
+     * {@code fixEnd}, the default) the last one to shorten the trip.
+     *
+     * @param roadDistances optimise on the provider matrix (default) or on
+     *                      straight-line distances, which needs no provider call
+     */
+    @PostMapping("/optimize")
+    public DeferredResult<ResponseEntity<Map<String, Object>>> optimize(
+            @RequestBody RouteRequest request,
+            @RequestParam(defaultValue = "true") boolean fixEnd,
+            @RequestParam(defaultValue = "true") boolean roadDistances) {
+        DeferredResult<ResponseEntity<Map<String, Object>>> deferred =
+            new DeferredResult<>(ROUTE_TIMEOUT_MS, unavailable());
+        int maxWaypoints = routingProperties.getMatrix().getMaxWaypoints();
+        if (request.waypoints() == null || request.waypoints().size() < 2
+            || request.waypoints().size() > maxWaypoints) {
+            deferred.setResult(ResponseEntity.badRequest().body(Map.of(
+                "error", "optimisation needs between 2 and " + maxWaypoints + " waypoints")));
+            return deferred;
+        }
+        log.info("Optimising order of {} waypoints", request.waypoints().size());
+
+        try {
+            routeOptimizationService.optimize(request.waypoints(), fixEnd, roadDistances)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.error("Failed to optimise waypoint order", error);
+                        deferred.setResult(unavailable());
+                    } else {
+                        deferred.setResult(ResponseEntity.ok(result));
+                    }
+                });
+        } catch (Exception e) {
+            log.error("Failed to optimise waypoint order", e);
+            deferred.setResult(unavailable());
+        }
+        return deferred;
+    }
+
+    private static ResponseEntity<Map<String, Object>> unavailable() {
+        return ResponseEntity.ok(Map.of(
+            "error", true,
+            "message", "Routing service unavailable",
+            "fallback", true
+        ));
     }
 
     public record RouteRequest(List<Waypoint> waypoints) {}
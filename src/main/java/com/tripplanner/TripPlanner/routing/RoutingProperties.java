@@ -0,0 +1,97 @@
+package com.tripplanner.TripPlanner.routing;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Tuning knobs for the routing proxy (prefix "routing.").
+ *
+ * Defaults are safe for production; override in application.properties,
+ * e.g. routing.cache.ttl-minutes=30
+ */
+@Configuration
+@ConfigurationProperties(prefix = "routing")
+@Data
+public class RoutingProperties {
+
+    /**
+     * Provider result cache in front of Mapbox/OSRM
+     */
+    private Cache cache = new Cache();
+
+    /**
+     * Hedged provider racing (Mapbox first, OSRM after a delay)
+     */
+    private Hedge hedge = new Hedge();
+
+    /**
+     * Per-provider circuit breakers over a rolling window of recent calls
+     */
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    /**
+     * Server-side geometry simplification (Douglas–Peucker)
+     */
+    private Simplify simplify = new Simplify();
+
+    /**
+     * Distance/duration matrix for multi-stop planning
+     */
+    private Matrix matrix = new Matrix();
+
+    /**
+     * Stop-order optimiser behind /api/routing/optimize
+     */
+    private Optimize optimize = new Optimize();
+
+    @Data
+    public static class Cache {
+        private boolean enabled = true;
+        private int maxEntries = 1000;
+        private int ttlMinutes = 60;
+        // 5 decimal places ≈ 1.1 m — well inside a map click's precision
+        private int coordinatePrecision = 5;
+    }
+
+    @Data
+    public static class Hedge {
+        private boolean enabled = false;
+        private long delayMs = 1500;
+    }
+
+    @Data
+    public static class CircuitBreaker {
+        private boolean enabled = true;
+        private int windowSize = 20;
+        private int minimumCalls = 5;
+        private double failureRateThreshold = 0.5;
+        private int openSeconds = 30;
+        private long probeIntervalMs = 10_000;
+    }
+
+    @Data
+    public static class Simplify {
+        // 0 = return the provider's full geometry unless the client asks
+        private double defaultToleranceMeters = 0;
+    }
+
+    @Data
+    public static class Matrix {
+        // Mapbox Matrix caps the driving profile at 25 coordinates
+        private int maxWaypoints = 25;
+        // Cells are two doubles each; TTL and grid precision come from routing.cache
+        private int cellCacheEntries = 20_000;
+        // Straight-line fallback: road distance ≈ great-circle × detour factor
+        private double estimateDetourFactor = 1.3;
+        private double estimateSpeedKmh = 60;
+    }
+
+    @Data
+    public static class Optimize {
+        // Wall-clock cap for the whole search; the best tour so far is returned
+        private long timeBudgetMs = 200;
+        // Randomised nearest-neighbour restarts, spread over the fork-join pool
+        private int restarts = 32;
+    }
+}
@@ -1,14 +1,33 @@
 package com.tripplanner.TripPlanner.routing;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 
+import java.net.ConnectException;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -16,10 +35,31 @@ import java.util.stream.Collectors;
 public class RoutingService {
 
     private static final String DEFAULT_MAPBOX_REQUEST_ORIGIN = "https://trip-calculate.online";
+    // One provider's worst case: 5s connect + 10s read, plus scheduling slack
+    private static final long HEDGE_ATTEMPT_BUDGET_MS = 16_000;
+    // Two points ~600 m apart in central Kyiv: the cheapest route any provider can answer
+    private static final String PROBE_COORDINATES = "30.5234,50.4501;30.5167,50.4547";
+    private static final double EARTH_RADIUS_KM = 6371;
 
-    private final RestTemplate restTemplate;
+    private final RoutingTransport transport;
     private final String mapboxAccessToken;
     private final String mapboxRequestOrigin;
+    private final RouteCache<RouteResult> routeCache;
+    private final RoutingProperties.Hedge hedge;
+    private final RoutingProperties.Simplify simplify;
+    private final RoutingProperties.Matrix matrix;
+    // Matrix cells as {km, minutes}, keyed by the snapped origin;destination pair
+    private final RouteCache<double[]> matrixCache;
+    private final Map<String, ProviderCircuitBreaker> breakers = new LinkedHashMap<>();
+    // Single-flight: one outbound provider call per route key while it is pending
+    private final Map<String, CompletableFuture<RouteResult>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalescedCounter;
+    // Only schedules delayed hedge launches; provider I/O runs on the transport
+    private final ExecutorService providerExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "routing-provider");
+        t.setDaemon(true);
+        return t;
+    });
 
     // Mapbox as primary provider (reliable, fast, 100k free requests/month)
     // OSRM as fallback (free but currently overloaded)
@@ -28,19 +68,63 @@ public class RoutingService {
         "https://routing.openstreetmap.de/routed-car"
     );
 
-    public RoutingService() {
+    @Autowired
+    public RoutingService(RoutingProperties properties, MeterRegistry meterRegistry) {
         this(
-            createRestTemplate(),
+            new HttpClientRoutingTransport(),
             System.getenv("MAPBOX_ACCESS_TOKEN"),
             Optional.ofNullable(System.getenv("MAPBOX_REQUEST_ORIGIN"))
                 .filter(origin -> !origin.isBlank())
-                .orElse(DEFAULT_MAPBOX_REQUEST_ORIGIN)
+                .orElse(DEFAULT_MAPBOX_REQUEST_ORIGIN),
+            properties,
+            meterRegistry
         );
     }
 
     RoutingService(RestTemplate restTemplate, String mapboxAccessToken, String mapboxRequestOrigin) {
-        this.restTemplate = restTemplate;
+        this(restTemplate, mapboxAccessToken, mapboxRequestOrigin, new RoutingProperties(), new SimpleMeterRegistry());
+    }
+
+    RoutingService(RestTemplate restTemplate, String mapboxAccessToken, String mapboxRequestOrigin,
+                   RoutingProperties properties, MeterRegistry meterRegistry) {
+        this(new RestTemplateRoutingTransport(restTemplate), mapboxAccessToken, mapboxRequestOrigin,
+            properties, meterRegistry);
+    }
+
+    RoutingService(RoutingTransport transport, String mapboxAccessToken, String mapboxRequestOrigin,
+                   RoutingProperties properties, MeterRegistry meterRegistry) {
+        this.transport = transport;
+        this.routeCache = new RouteCache<>(properties.getCache(), System::currentTimeMillis);
+        this.routeCache.bindTo(meterRegistry, "route");
+        this.matrix = properties.getMatrix();
+        RoutingProperties.Cache cellCache = new RoutingProperties.Cache();
+        cellCache.setEnabled(properties.getCache().isEnabled());
+        cellCache.setMaxEntries(matrix.getCellCacheEntries());
+        cellCache.setTtlMinutes(properties.getCache().getTtlMinutes());
+        cellCache.setCoordinatePrecision(properties.getCache().getCoordinatePrecision());
+        this.matrixCache = new RouteCache<>(cellCache, System::currentTimeMillis);
+        this.matrixCache.bindTo(meterRegistry, "matrix-cell");
+        this.coalescedCounter = Counter.builder("routing.coalesced")
+            .description("Route requests that joined an identical in-flight provider call")
+            .register(meterRegistry);
+        Gauge.builder("routing.in.flight", inFlight, Map::size)
+            .description("Distinct routes currently being fetched from providers")
+            .register(meterRegistry);
+        this.hedge = properties.getHedge();
+        this.simplify = properties.getSimplify();
         this.mapboxAccessToken = mapboxAccessToken;
+        if (mapboxEnabled()) {
+            breakers.put("mapbox", new ProviderCircuitBreaker(
+                "mapbox", properties.getCircuitBreaker(), System::currentTimeMillis));
+        }
+        for (int i = 1; i <= osrmServers.size(); i++) {
+            breakers.put("osrm-" + i, new ProviderCircuitBreaker(
+                "osrm-" + i, properties.getCircuitBreaker(), System::currentTimeMillis));
+        }
+        breakers.values().forEach(breaker -> Gauge.builder("routing.provider.circuit.open", breaker,
+                b -> b.allowsRequests() ? 0 : 1)
+            .tag("provider", breaker.provider())
+            .register(meterRegistry));
         this.mapboxRequestOrigin = mapboxRequestOrigin.endsWith("/")
             ? mapboxRequestOrigin.substring(0, mapboxRequestOrigin.length() - 1)
             : mapboxRequestOrigin;
@@ -59,255 +143,679 @@ public class RoutingService {
         }
     }
 
-    private static RestTemplate createRestTemplate() {
-        // Configure RestTemplate with reasonable timeouts
-        var factory = new org.springframework.http.client.SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(5000);  // 5 seconds to establish connection
-        factory.setReadTimeout(10000);    // 10 seconds to read response
-
-        RestTemplate restTemplate = new RestTemplate(factory);
-        restTemplate.getInterceptors().add((request, body, execution) -> {
-            request.getHeaders().add("Accept", "application/json");
-            request.getHeaders().add("User-Agent", "TripPlanner/1.0");
-            return execution.execute(request, body);
-        });
-        return restTemplate;
+    @PreDestroy
+    void shutdown() {
+        providerExecutor.shutdownNow();
     }
 
-    @SuppressWarnings("unchecked")
     public Map<String, Object> calculateRoute(List<RoutingController.Waypoint> waypoints) {
+        return calculateRoute(waypoints, RouteOptions.DEFAULT);
+    }
+
+    public Map<String, Object> calculateRoute(List<RoutingController.Waypoint> waypoints, RouteOptions options) {
+        return calculateRouteAsync(waypoints, options).join();
+    }
+
+    /**
+     * Non-blocking variant: the calling thread returns as soon as the provider
+     * requests are sent. The future always completes normally — with the
+     * straight-line fallback when every provider fails.
+     */
+    public CompletableFuture<Map<String, Object>> calculateRouteAsync(List<RoutingController.Waypoint> waypoints,
+                                                                      RouteOptions options) {
         if (waypoints.size() < 2) {
-            return Map.of(
+            return CompletableFuture.completedFuture(Map.of(
                 "totalDistance", 0,
                 "totalDuration", 0,
                 "geometry", Collections.emptyList(),
                 "segments", Collections.emptyList()
-            );
+            ));
+        }
+
+        String cacheKey = routeCache.key(waypoints);
+        RouteResult cached = routeCache.get(cacheKey);
+        if (cached != null) {
+            log.debug("Route cache hit for {} waypoints", waypoints.size());
+            return CompletableFuture.completedFuture(toResponse(cached, options));
+        }
+
+        // Identical concurrent requests (same snapped waypoints) share one
+        // provider call and one parsed result; each still gets its own shaping
+        CompletableFuture<RouteResult> flight = new CompletableFuture<>();
+        CompletableFuture<RouteResult> route = inFlight.putIfAbsent(cacheKey, flight);
+        if (route != null) {
+            coalescedCounter.increment();
+            log.debug("Route request coalesced onto in-flight call for {} waypoints", waypoints.size());
+        } else {
+            route = flight;
+            CompletableFuture<RouteResult> fetch;
+            try {
+                fetch = fetchRoute(waypoints);
+            } catch (RuntimeException e) {
+                fetch = CompletableFuture.failedFuture(e);
+            }
+            fetch.whenComplete((result, error) -> {
+                // Cache before leaving the in-flight map so no request can miss both
+                if (result != null) {
+                    routeCache.put(cacheKey, result);
+                }
+                inFlight.remove(cacheKey, flight);
+                if (error != null) {
+                    flight.completeExceptionally(error);
+                } else {
+                    flight.complete(result);
+                }
+            });
         }
 
+        return route.thenApply(result -> {
+            if (result != null) {
+                return toResponse(result, options);
+            }
+            log.error("All routing providers failed. Using straight-line fallback.");
+            return createFallbackResponse(waypoints, options);
+        });
+    }
+
+    private CompletableFuture<RouteResult> fetchRoute(List<RoutingController.Waypoint> waypoints) {
         // Build coordinates string
         String coordinates = waypoints.stream()
             .map(w -> w.lng() + "," + w.lat())
             .collect(Collectors.joining(";"));
 
-        // Try Mapbox first (if token is available)
-        if (mapboxAccessToken != null && !mapboxAccessToken.isBlank()) {
-            Map<String, Object> mapboxResult = tryMapbox(coordinates);
-            if (mapboxResult != null) {
-                return mapboxResult;
-            }
-            log.warn("Mapbox routing failed, falling back to OSRM...");
+        List<Provider> providers = providers();
+        return hedge.isEnabled() && providers.size() > 1
+            ? raceProviders(providers, coordinates)
+            : tryInOrder(providers, coordinates, 0);
+    }
+
+    /**
+     * Providers with a closed circuit, healthiest first. Scores are bucketed
+     * to one decimal so the configured preference (Mapbox, then OSRM in list
+     * order) only yields to a clearly healthier provider, not to jitter. When
+     * every circuit is open the full list is returned — trying sick providers
+     * beats serving straight lines until the next probe.
+     */
+    private List<Provider> providers() {
+        List<Provider> all = allProviders();
+        List<Provider> available = all.stream()
+            .filter(provider -> provider.breaker().allowsRequests())
+            .sorted(Comparator.comparingLong(
+                (Provider provider) -> -Math.round(provider.breaker().score() * 10)))
+            .toList();
+        if (available.isEmpty()) {
+            log.warn("All routing provider circuits are open, trying every provider");
+            return all;
         }
+        return available;
+    }
 
-        // Fallback to OSRM servers
+    /** Providers in preference order: Mapbox (when a token is set), then each OSRM server. */
+    private List<Provider> allProviders() {
+        List<Provider> providers = new ArrayList<>(osrmServers.size() + 1);
+        if (mapboxEnabled()) {
+            providers.add(new Provider("mapbox", breakers.get("mapbox"), this::tryMapbox, this::mapboxMatrix));
+        }
         for (int i = 0; i < osrmServers.size(); i++) {
-            Map<String, Object> osrmResult = tryOSRM(osrmServers.get(i), coordinates, i + 1);
-            if (osrmResult != null) {
-                return osrmResult;
-            }
+            String server = osrmServers.get(i);
+            int serverNumber = i + 1;
+            providers.add(new Provider("osrm-" + serverNumber, breakers.get("osrm-" + serverNumber),
+                c -> tryOSRM(server, c, serverNumber),
+                (c, query) -> fetchTable(server + "/table/v1/driving/" + c + "?" + query, Map.of(),
+                    "osrm-" + serverNumber)));
         }
-
-        log.error("All routing providers failed. Using straight-line fallback.");
-        return createFallbackResponse(waypoints);
+        return providers;
     }
 
-    private Map<String, Object> tryMapbox(String coordinates) {
-        String url = "https://api.mapbox.com/directions/v5/mapbox/driving/" + coordinates +
-            "?access_token=" + mapboxAccessToken +
-            "&geometries=geojson" +
-            "&overview=full" +
-            "&steps=false" +
-            "&alternatives=false";
+    private boolean mapboxEnabled() {
+        return mapboxAccessToken != null && !mapboxAccessToken.isBlank();
+    }
 
-        log.info("🗺️ Attempting route from Mapbox Directions API");
-        log.debug("Mapbox URL: {}", url.replace(mapboxAccessToken, "***TOKEN***"));
+    /** Live circuit state and health score per provider, for the actuator health endpoint. */
+    public List<ProviderCircuitBreaker.Snapshot> providerHealth() {
+        return breakers.values().stream().map(ProviderCircuitBreaker::snapshot).toList();
+    }
 
-        try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setOrigin(mapboxRequestOrigin);
-            headers.set(HttpHeaders.REFERER, mapboxRequestOrigin + "/");
-
-            @SuppressWarnings("rawtypes")
-            ResponseEntity<Map> response = restTemplate.exchange(
-                url,
-                HttpMethod.GET,
-                new HttpEntity<>(headers),
-                Map.class
-            );
+    /**
+     * Background half-open probe: each provider whose circuit has cooled down
+     * gets one short known-good route. Live requests never wait on a probe.
+     */
+    @Scheduled(fixedDelayString = "${routing.circuit-breaker.probe-interval-ms:10000}")
+    public void probeOpenCircuits() {
+        for (Provider provider : allProviders()) {
+            if (!provider.breaker().tryStartProbe()) {
+                continue;
+            }
+            provider.call().apply(PROBE_COORDINATES).whenComplete((result, error) -> {
+                boolean healthy = error == null && result != null;
+                provider.breaker().probeFinished(healthy);
+                log.info("Routing provider {} probe {}: circuit {}", provider.name(),
+                    healthy ? "succeeded" : "failed", healthy ? "closed" : "stays open");
+            });
+        }
+    }
 
-            log.debug("Mapbox response status: {}", response.getStatusCode());
+    /**
+     * Distance (km) and duration (min) between every ordered pair of
+     * waypoints in one provider call — Mapbox Matrix, else an OSRM table.
+     * Cells are cached individually, so re-ordering or extending a trip only
+     * asks the provider for the pairs it hasn't seen. Cells no provider could
+     * answer get a straight-line estimate and are flagged in {@code estimated};
+     * the future always completes normally.
+     */
+    public CompletableFuture<Map<String, Object>> calculateMatrixAsync(List<RoutingController.Waypoint> waypoints) {
+        int n = waypoints.size();
+        double[][] distances = new double[n][n];
+        double[][] durations = new double[n][n];
+        boolean[][] missing = new boolean[n][n];
+        boolean[] missingSource = new boolean[n];
+        boolean[] missingDestination = new boolean[n];
+        boolean anyMissing = false;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i == j) {
+                    continue;
+                }
+                double[] cell = matrixCache.get(matrixCache.key(List.of(waypoints.get(i), waypoints.get(j))));
+                if (cell != null) {
+                    distances[i][j] = cell[0];
+                    durations[i][j] = cell[1];
+                } else {
+                    missing[i][j] = true;
+                    missingSource[i] = true;
+                    missingDestination[j] = true;
+                    anyMissing = true;
+                }
+            }
+        }
+        if (!anyMissing) {
+            log.debug("Matrix for {} waypoints served from cell cache", n);
+            return CompletableFuture.completedFuture(matrixResponse(distances, durations, new boolean[n][n], "cache"));
+        }
 
-            if (!response.getStatusCode().is2xxSuccessful()) {
-                log.warn("Mapbox returned non-2xx status: {}", response.getStatusCode());
-                return null;
+        // Ask only for the sources × destinations block covering the missing cells
+        int[] sources = indices(missingSource);
+        int[] destinations = indices(missingDestination);
+        String coordinates = waypoints.stream()
+            .map(w -> w.lng() + "," + w.lat())
+            .collect(Collectors.joining(";"));
+        CompletableFuture<MatrixResult> table = tryMatrixInOrder(providers(), coordinates, sources, destinations, 0);
+
+        // Work out the fallback while the provider call is in flight, so an
+        // outage costs no extra latency on top of the provider timeouts
+        double[][][] estimate = estimateMatrix(waypoints);
+
+        return table.thenApply(result -> {
+            boolean[][] estimated = new boolean[n][n];
+            for (int si = 0; si < sources.length; si++) {
+                for (int di = 0; di < destinations.length; di++) {
+                    int i = sources[si];
+                    int j = destinations[di];
+                    if (!missing[i][j]) {
+                        continue;
+                    }
+                    double km = result == null ? Double.NaN : result.table().distances()[si][di] / 1000;
+                    double min = result == null ? Double.NaN : result.table().durations()[si][di] / 60;
+                    if (Double.isNaN(km) || Double.isNaN(min)) {
+                        distances[i][j] = estimate[0][i][j];
+                        durations[i][j] = estimate[1][i][j];
+                        estimated[i][j] = true;
+                    } else {
+                        distances[i][j] = km;
+                        durations[i][j] = min;
+                        matrixCache.put(matrixCache.key(List.of(waypoints.get(i), waypoints.get(j))),
+                            new double[] {km, min});
+                    }
+                }
+            }
+            if (result == null) {
+                log.error("All matrix providers failed. Using straight-line estimates for {} waypoints.", n);
             }
+            return matrixResponse(distances, durations, estimated, result == null ? "estimate" : result.provider());
+        });
+    }
 
-            if (response.getBody() == null) {
-                log.warn("Mapbox returned null body");
-                return null;
+    private CompletableFuture<MatrixResult> tryMatrixInOrder(List<Provider> providers, String coordinates,
+                                                             int[] sources, int[] destinations, int index) {
+        if (index >= providers.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Provider provider = providers.get(index);
+        String query = "annotations=distance,duration"
+            + "&sources=" + joinIndices(sources)
+            + "&destinations=" + joinIndices(destinations);
+        // Matrix calls are not recorded on the breakers: a token without Matrix
+        // scope must not open the circuit for directions
+        return provider.matrix().apply(coordinates, query).thenCompose(table -> {
+            if (table != null && table.durations() != null && table.distances() != null
+                && table.durations().length == sources.length && table.distances().length == sources.length
+                && Arrays.stream(table.durations()).allMatch(row -> row.length == destinations.length)
+                && Arrays.stream(table.distances()).allMatch(row -> row.length == destinations.length)) {
+                log.info("✅ Matrix {}x{} from {}", sources.length, destinations.length, provider.name());
+                return CompletableFuture.completedFuture(new MatrixResult(provider.name(), table));
             }
+            log.warn("Matrix provider {} failed, trying next...", provider.name());
+            return tryMatrixInOrder(providers, coordinates, sources, destinations, index + 1);
+        });
+    }
 
-            Map<String, Object> data = response.getBody();
-            log.debug("Mapbox response code: {}", data.get("code"));
-
-            // Check for Mapbox API errors
-            if (data.containsKey("code")) {
-                String code = (String) data.get("code");
-                if (!"Ok".equals(code)) {
-                    String message = data.containsKey("message") ? (String) data.get("message") : "Unknown error";
-                    log.error("Mapbox API error - Code: {}, Message: {}", code, message);
-
-                    // Common Mapbox error codes
-                    switch (code) {
-                        case "InvalidInput":
-                            log.error("Invalid coordinates or parameters sent to Mapbox");
-                            break;
-                        case "NoRoute":
-                            log.error("Mapbox could not find a route between the waypoints");
-                            break;
-                        case "NoSegment":
-                            log.error("No road segment found near the coordinates");
-                            break;
-                        case "ProfileNotFound":
-                            log.error("Invalid routing profile (should be 'driving')");
-                            break;
-                        default:
-                            log.error("Unhandled Mapbox error code: {}", code);
-                    }
+    private CompletableFuture<DirectionsParser.Table> fetchTable(String url, Map<String, String> headers,
+                                                                 String providerName) {
+        CompletableFuture<RoutingTransport.Response> exchange = transport.get(url, headers);
+        return RoutingTransport.cancelsUpstream(exchange.handle((response, error) -> {
+            try {
+                if (error != null) {
+                    throw error;
+                }
+                if (!response.isSuccessful()) {
+                    log.warn("Matrix provider {} returned HTTP {}", providerName, response.status());
                     return null;
                 }
+                DirectionsParser.Table table = DirectionsParser.parseTable(response.body());
+                if (!"Ok".equals(table.code())) {
+                    log.warn("Matrix provider {} error - Code: {}, Message: {}",
+                        providerName, table.code(), table.message());
+                    return null;
+                }
+                return table;
+            } catch (Throwable e) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                log.warn("Matrix provider {} failed: {}", providerName, cause.getMessage());
+                return null;
             }
+        }), exchange);
+    }
 
-            // Parse successful response
-            if (!data.containsKey("routes") || ((List<?>) data.get("routes")).isEmpty()) {
-                log.warn("Mapbox response missing routes or routes empty");
-                return null;
+    /** [0] = km, [1] = minutes: great-circle distance stretched by the detour factor at a flat speed. */
+    private double[][][] estimateMatrix(List<RoutingController.Waypoint> waypoints) {
+        int n = waypoints.size();
+        double[][][] estimate = new double[2][n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                double km = haversineKm(waypoints.get(i), waypoints.get(j)) * matrix.getEstimateDetourFactor();
+                double min = km / matrix.getEstimateSpeedKmh() * 60;
+                estimate[0][i][j] = km;
+                estimate[0][j][i] = km;
+                estimate[1][i][j] = min;
+                estimate[1][j][i] = min;
             }
+        }
+        return estimate;
+    }
 
-            Map<String, Object> route = (Map<String, Object>) ((List<?>) data.get("routes")).get(0);
+    static double haversineKm(RoutingController.Waypoint a, RoutingController.Waypoint b) {
+        double dLat = Math.toRadians(b.lat() - a.lat());
+        double dLng = Math.toRadians(b.lng() - a.lng());
+        double h = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(a.lat())) * Math.cos(Math.toRadians(b.lat()))
+            * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
 
-            if (!route.containsKey("geometry")) {
-                log.warn("Mapbox route missing geometry");
-                return null;
+    private static int[] indices(boolean[] flags) {
+        int[] out = new int[flags.length];
+        int n = 0;
+        for (int i = 0; i < flags.length; i++) {
+            if (flags[i]) {
+                out[n++] = i;
             }
+        }
+        return Arrays.copyOf(out, n);
+    }
 
-            Map<String, Object> geometry = (Map<String, Object>) route.get("geometry");
+    private static String joinIndices(int[] indices) {
+        return Arrays.stream(indices).mapToObj(Integer::toString).collect(Collectors.joining(";"));
+    }
 
-            if (geometry == null || !geometry.containsKey("coordinates")) {
-                log.warn("Mapbox geometry missing coordinates");
-                return null;
+    private static Map<String, Object> matrixResponse(double[][] distances, double[][] durations,
+                                                      boolean[][] estimated, String source) {
+        return Map.of(
+            "distances", distances,
+            "durations", durations,
+            "estimated", estimated,
+            "source", source
+        );
+    }
+
+    private CompletableFuture<RouteResult> tryInOrder(List<Provider> providers, String coordinates, int index) {
+        if (index >= providers.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Provider provider = providers.get(index);
+        return timedCall(provider, coordinates, () -> false).thenCompose(result -> {
+            if (result != null) {
+                return CompletableFuture.completedFuture(result);
             }
+            log.warn("Routing provider {} failed, trying next...", provider.name());
+            return tryInOrder(providers, coordinates, index + 1);
+        });
+    }
 
-            List<List<Double>> coordinates_raw = (List<List<Double>>) geometry.get("coordinates");
+    private CompletableFuture<RouteResult> timedCall(Provider provider, String coordinates,
+                                                     BooleanSupplier raceDecided) {
+        long start = System.nanoTime();
+        CompletableFuture<RouteResult> call = provider.call().apply(coordinates);
+        return RoutingTransport.cancelsUpstream(call.handle((result, error) -> {
+            RouteResult route = error == null ? result : null;
+            // A hedge loser cut off by cancellation didn't fail, it lost the race
+            if (route != null || !raceDecided.getAsBoolean()) {
+                provider.breaker().record(route != null, (System.nanoTime() - start) / 1_000_000);
+            }
+            return route;
+        }), call);
+    }
 
-            if (coordinates_raw == null || coordinates_raw.isEmpty()) {
-                log.warn("Mapbox coordinates array is empty");
-                return null;
+    /**
+     * Hedged mode: the preferred provider fires first; the rest are launched
+     * together once {@code routing.hedge.delay-ms} passes without an answer,
+     * or immediately if the preferred one fails. The first usable route wins
+     * and the losers are cancelled. Preference is unchanged — a healthy Mapbox
+     * still answers every request on its own — only the slow tail is cut.
+     */
+    private CompletableFuture<RouteResult> raceProviders(List<Provider> providers, String coordinates) {
+        CompletableFuture<RouteResult> winner = new CompletableFuture<>();
+        List<CompletableFuture<RouteResult>> attempts = new CopyOnWriteArrayList<>();
+        AtomicInteger pending = new AtomicInteger(providers.size());
+        AtomicBoolean backupsLaunched = new AtomicBoolean();
+
+        Runnable launchBackups = () -> {
+            if (winner.isDone() || !backupsLaunched.compareAndSet(false, true)) {
+                return;
+            }
+            log.info("Hedging route request across {} backup providers", providers.size() - 1);
+            for (Provider backup : providers.subList(1, providers.size())) {
+                attempts.add(attempt(backup, coordinates, winner, pending, null));
             }
+        };
 
-            // Convert [lng, lat] to [lat, lng] for Leaflet
-            List<List<Double>> geometryLatLng = coordinates_raw.stream()
-                .map(coord -> List.of(coord.get(1), coord.get(0)))
-                .toList();
+        attempts.add(attempt(providers.get(0), coordinates, winner, pending, launchBackups));
+        CompletableFuture.delayedExecutor(hedge.getDelayMs(), TimeUnit.MILLISECONDS, providerExecutor)
+            .execute(launchBackups);
 
-            double distance = ((Number) route.get("distance")).doubleValue() / 1000; // km
-            double duration = ((Number) route.get("duration")).doubleValue() / 60; // minutes
+        return winner
+            .completeOnTimeout(null, hedge.getDelayMs() + HEDGE_ATTEMPT_BUDGET_MS, TimeUnit.MILLISECONDS)
+            .whenComplete((result, error) -> {
+                if (result == null) {
+                    log.warn("Hedged routing gave up without a usable route");
+                }
+                // Mark the race decided before cancelling so a backup launch that is
+                // still pending on the delayed executor becomes a no-op
+                backupsLaunched.set(true);
+                attempts.forEach(attempt -> attempt.cancel(true));
+            });
+    }
 
-            log.info("✅ Mapbox route found! Distance: {} km, Duration: {} min, Points: {}",
-                String.format("%.2f", distance),
-                String.format("%.0f", duration),
-                geometryLatLng.size());
+    private CompletableFuture<RouteResult> attempt(Provider provider, String coordinates,
+                                                   CompletableFuture<RouteResult> winner,
+                                                   AtomicInteger pending, Runnable onFailure) {
+        CompletableFuture<RouteResult> call = timedCall(provider, coordinates, winner::isDone);
+        call.whenComplete((result, error) -> {
+            if (result != null) {
+                if (winner.complete(result)) {
+                    log.info("Routing race won by {}", provider.name());
+                }
+            } else {
+                if (pending.decrementAndGet() == 0) {
+                    winner.complete(null);
+                }
+                if (onFailure != null) {
+                    onFailure.run();
+                }
+            }
+        });
+        return call;
+    }
 
-            return Map.of(
-                "totalDistance", distance,
-                "totalDuration", duration,
-                "geometry", geometryLatLng,
-                "segments", Collections.emptyList()
-            );
+    private CompletableFuture<RouteResult> tryMapbox(String coordinates) {
+        String url = "https://api.mapbox.com/directions/v5/mapbox/driving/" + coordinates +
+            "?access_token=" + mapboxAccessToken +
+            "&geometries=geojson" +
+            "&overview=full" +
+            "&steps=false" +
+            "&alternatives=false";
+
+        log.info("🗺️ Attempting route from Mapbox Directions API");
+        log.debug("Mapbox URL: {}", url.replace(mapboxAccessToken, "***TOKEN***"));
 
-        } catch (org.springframework.web.client.HttpClientErrorException e) {
-            log.error("Mapbox HTTP client error: {} - {}", e.getStatusCode(), e.getResponseBodyAsString());
-            if (e.getStatusCode().value() == 401) {
+        CompletableFuture<RoutingTransport.Response> exchange = transport.get(url, Map.of(
+            HttpHeaders.ORIGIN, mapboxRequestOrigin,
+            HttpHeaders.REFERER, mapboxRequestOrigin + "/"
+        ));
+        return RoutingTransport.cancelsUpstream(exchange.handle((response, error) -> {
+            if (error != null) {
+                logMapboxFailure(error);
+                return null;
+            }
+            try {
+                return parseMapbox(response);
+            } catch (Exception e) {
+                log.error("Mapbox unexpected error: {} - {}", e.getClass().getSimpleName(), e.getMessage());
+                log.debug("Stack trace:", e);
+                return null;
+            }
+        }), exchange);
+    }
+
+    private RouteResult parseMapbox(RoutingTransport.Response response) throws java.io.IOException {
+        log.debug("Mapbox response status: {}", response.status());
+
+        if (!response.isSuccessful()) {
+            log.error("Mapbox HTTP client error: {} - {}", response.status(),
+                new String(response.body(), StandardCharsets.UTF_8));
+            if (response.status() == 401) {
                 log.error("⚠️ AUTHENTICATION FAILED - Check your MAPBOX_ACCESS_TOKEN!");
-            } else if (e.getStatusCode().value() == 403) {
+            } else if (response.status() == 403) {
                 log.error("⚠️ ACCESS FORBIDDEN - Your Mapbox token may not have permission for Directions API");
-            } else if (e.getStatusCode().value() == 429) {
+            } else if (response.status() == 429) {
                 log.error("⚠️ RATE LIMIT EXCEEDED - Too many Mapbox API requests");
             }
-        } catch (org.springframework.web.client.ResourceAccessException e) {
-            log.error("Mapbox network error: {}", e.getMessage());
-        } catch (Exception e) {
-            log.error("Mapbox unexpected error: {} - {}", e.getClass().getSimpleName(), e.getMessage());
-            log.debug("Stack trace:", e);
+            return null;
         }
 
-        return null;
+        if (response.body() == null || response.body().length == 0) {
+            log.warn("Mapbox returned null body");
+            return null;
+        }
+
+        DirectionsParser.Directions data = DirectionsParser.parse(response.body());
+        log.debug("Mapbox response code: {}", data.code());
+
+        // Check for Mapbox API errors
+        if (data.code() != null && !"Ok".equals(data.code())) {
+            String code = data.code();
+            String message = data.message() != null ? data.message() : "Unknown error";
+            log.error("Mapbox API error - Code: {}, Message: {}", code, message);
+
+            // Common Mapbox error codes
+            switch (code) {
+                case "InvalidInput":
+                    log.error("Invalid coordinates or parameters sent to Mapbox");
+                    break;
+                case "NoRoute":
+                    log.error("Mapbox could not find a route between the waypoints");
+                    break;
+                case "NoSegment":
+                    log.error("No road segment found near the coordinates");
+                    break;
+                case "ProfileNotFound":
+                    log.error("Invalid routing profile (should be 'driving')");
+                    break;
+                default:
+                    log.error("Unhandled Mapbox error code: {}", code);
+            }
+            return null;
+        }
+
+        if (data.latLng() == null || data.latLng().length == 0) {
+            log.warn("Mapbox response missing route geometry");
+            return null;
+        }
+
+        if (Double.isNaN(data.distanceMeters()) || Double.isNaN(data.durationSeconds())) {
+            log.warn("Mapbox route missing distance or duration");
+            return null;
+        }
+
+        double distance = data.distanceMeters() / 1000; // km
+        double duration = data.durationSeconds() / 60; // minutes
+
+        log.info("✅ Mapbox route found! Distance: {} km, Duration: {} min, Points: {}",
+            String.format("%.2f", distance),
+            String.format("%.0f", duration),
+            data.latLng().length / 2);
+
+        return new RouteResult(distance, duration, data.latLng());
+    }
+
+    private static void logMapboxFailure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+            ? error.getCause() : error;
+        if (cause instanceof HttpTimeoutException || cause instanceof ConnectException
+            || cause instanceof org.springframework.web.client.ResourceAccessException) {
+            log.error("Mapbox network error: {}", cause.getMessage());
+        } else if (!(cause instanceof java.util.concurrent.CancellationException)) {
+            log.error("Mapbox unexpected error: {} - {}", cause.getClass().getSimpleName(), cause.getMessage());
+            log.debug("Stack trace:", cause);
+        }
     }
 
-    private Map<String, Object> tryOSRM(String server, String coordinates, int serverNumber) {
+    private CompletableFuture<RouteResult> tryOSRM(String server, String coordinates, int serverNumber) {
         String url = server + "/route/v1/driving/" + coordinates +
             "?overview=full&geometries=geojson&steps=false";
 
         log.info("Attempting route from OSRM server {}/{}: {}", serverNumber, osrmServers.size(), server);
 
-        try {
-            @SuppressWarnings("rawtypes")
-            ResponseEntity<Map> response = restTemplate.getForEntity(url, Map.class);
+        CompletableFuture<RoutingTransport.Response> exchange = transport.get(url, Map.of());
+        return RoutingTransport.cancelsUpstream(exchange.handle((response, error) -> {
+            try {
+                if (error != null) {
+                    throw error;
+                }
+                DirectionsParser.Directions data = response.isSuccessful()
+                    ? DirectionsParser.parse(response.body())
+                    : null;
 
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                Map<String, Object> data = response.getBody();
+                if (data != null && "Ok".equals(data.code()) &&
+                    data.latLng() != null && data.latLng().length > 0 &&
+                    !Double.isNaN(data.distanceMeters()) && !Double.isNaN(data.durationSeconds())) {
 
-                if ("Ok".equals(data.get("code")) &&
-                    data.containsKey("routes") &&
-                    !((List<?>) data.get("routes")).isEmpty()) {
+                    double distance = data.distanceMeters() / 1000; // km
+                    double duration = data.durationSeconds() / 60; // minutes
 
-                    Map<String, Object> route = (Map<String, Object>) ((List<?>) data.get("routes")).get(0);
-                    Map<String, Object> geometry = (Map<String, Object>) route.get("geometry");
+                    log.info("✅ OSRM route found! Distance: {} km, Duration: {} min, Points: {}",
+                        String.format("%.2f", distance),
+                        String.format("%.0f", duration),
+                        data.latLng().length / 2);
 
-                    if (geometry != null && geometry.containsKey("coordinates")) {
-                        List<List<Double>> coordinates_raw = (List<List<Double>>) geometry.get("coordinates");
+                    return new RouteResult(distance, duration, data.latLng());
+                }
 
-                        // Convert [lng, lat] to [lat, lng] for Leaflet
-                        List<List<Double>> geometryLatLng = coordinates_raw.stream()
-                            .map(coord -> List.of(coord.get(1), coord.get(0)))
-                            .toList();
+                log.warn("OSRM server {} returned unusable response", serverNumber);
+            } catch (Throwable e) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                log.warn("OSRM server {} failed: {}", serverNumber, cause.getMessage());
+            }
+            return null;
+        }), exchange);
+    }
 
-                        double distance = ((Number) route.get("distance")).doubleValue() / 1000; // km
-                        double duration = ((Number) route.get("duration")).doubleValue() / 60; // minutes
+    private CompletableFuture<DirectionsParser.Table> mapboxMatrix(String coordinates, String query) {
+        String url = "https://api.mapbox.com/directions-matrix/v1/mapbox/driving/" + coordinates +
+            "?" + query + "&access_token=" + mapboxAccessToken;
+        return fetchTable(url, Map.of(
+            HttpHeaders.ORIGIN, mapboxRequestOrigin,
+            HttpHeaders.REFERER, mapboxRequestOrigin + "/"
+        ), "mapbox");
+    }
 
-                        log.info("✅ OSRM route found! Distance: {} km, Duration: {} min, Points: {}",
-                            String.format("%.2f", distance),
-                            String.format("%.0f", duration),
-                            geometryLatLng.size());
+    /**
+     * A routing backend; {@code call} completes with null when it had no usable
+     * route, {@code matrix} (coordinates, query string) with null when it had no
+     * usable table.
+     */
+    private record Provider(String name, ProviderCircuitBreaker breaker,
+                            Function<String, CompletableFuture<RouteResult>> call,
+                            BiFunction<String, String, CompletableFuture<DirectionsParser.Table>> matrix) {
+    }
 
-                        return Map.of(
-                            "totalDistance", distance,
-                            "totalDuration", duration,
-                            "geometry", geometryLatLng,
-                            "segments", Collections.emptyList()
-                        );
-                    }
-                }
-            }
+    private record MatrixResult(String provider, DirectionsParser.Table table) {
+    }
 
-            log.warn("OSRM server {} returned unusable response", serverNumber);
-        } catch (Exception e) {
-            log.warn("OSRM server {} failed: {}", serverNumber, e.getMessage());
-        }
+    /** A provider's route: km, minutes and the full geometry as flat [lat0, lng0, lat1, lng1, ...]. */
+    record RouteResult(double distanceKm, double durationMin, double[] latLng) {
+    }
 
-        return null;
+    /**
+     * Response-shaping options. {@code toleranceMeters} wins over {@code zoom};
+     * with neither, {@code routing.simplify.default-tolerance-meters} applies.
+     */
+    public record RouteOptions(Double toleranceMeters, Integer zoom, GeometryCodec.Format format) {
+        public static final RouteOptions DEFAULT = new RouteOptions(null, null, GeometryCodec.Format.GEOJSON);
     }
 
-    private Map<String, Object> createFallbackResponse(List<RoutingController.Waypoint> waypoints) {
-        List<List<Double>> fallbackGeometry = waypoints.stream()
-            .map(w -> List.of(w.lat(), w.lng()))
-            .toList();
+    private Map<String, Object> toResponse(RouteResult route, RouteOptions options) {
+        double[] latLng = route.latLng();
+        double tolerance = toleranceMeters(latLng, options);
+        if (tolerance > 0) {
+            latLng = GeometrySimplifier.simplify(latLng, tolerance);
+        }
+        return response(route.distanceKm(), route.durationMin(), latLng, options.format());
+    }
 
+    /** The route response body, with {@code latLng} encoded in the requested geometry format. */
+    private static Map<String, Object> response(Number distance, Number duration, double[] latLng,
+                                                GeometryCodec.Format format) {
+        if (format != GeometryCodec.Format.GEOJSON) {
+            return Map.of(
+                "totalDistance", distance,
+                "totalDuration", duration,
+                "geometry", format == GeometryCodec.Format.POLYLINE6
+                    ? GeometryCodec.encodePolyline6(latLng)
+                    : GeometryCodec.encodeFloat32(latLng),
+                "geometryFormat", format.parameterValue(),
+                "segments", Collections.emptyList()
+            );
+        }
+        List<List<Double>> geometry = new ArrayList<>(latLng.length / 2);
+        for (int i = 0; i < latLng.length; i += 2) {
+            geometry.add(List.of(latLng[i], latLng[i + 1]));
+        }
         return Map.of(
-            "totalDistance", 0,
-            "totalDuration", 0,
-            "geometry", fallbackGeometry,
+            "totalDistance", distance,
+            "totalDuration", duration,
+            "geometry", geometry,
             "segments", Collections.emptyList()
         );
     }
+
+    /**
+     * Half a screen pixel at the requested zoom (Web Mercator ground
+     * resolution at the route's mean latitude) — below what Leaflet can draw.
+     */
+    private double toleranceMeters(double[] latLng, RouteOptions options) {
+        if (options.toleranceMeters() != null) {
+            return options.toleranceMeters();
+        }
+        if (options.zoom() != null && latLng.length > 0) {
+            double meanLat = 0;
+            for (int i = 0; i < latLng.length; i += 2) {
+                meanLat += latLng[i];
+            }
+            meanLat /= latLng.length / 2.0;
+            double metersPerPixel = 156_543.03392 * Math.cos(Math.toRadians(meanLat)) / Math.pow(2, options.zoom());
+            return metersPerPixel / 2;
+        }
+        return simplify.getDefaultToleranceMeters();
+    }
+
+    /** Straight lines between the waypoints, in the format the caller asked for. */
+    private Map<String, Object> createFallbackResponse(List<RoutingController.Waypoint> waypoints,
+                                                       RouteOptions options) {
+        double[] latLng = new double[waypoints.size() * 2];
+        for (int i = 0; i < waypoints.size(); i++) {
+            latLng[2 * i] = waypoints.get(i).lat();
+            latLng[2 * i + 1] = waypoints.get(i).lng();
+        }
+        return response(0, 0, latLng, options.format());
+    }
 }
@@ -0,0 +1,36 @@
+package com.tripplanner.TripPlanner.routing;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Outbound GET to a routing provider. Implementations must not block the
+ * caller: the returned future completes with the status and raw body (any
+ * status, 4xx/5xx included) or exceptionally on a network failure.
+ */
+interface RoutingTransport {
+
+    CompletableFuture<Response> get(String url, Map<String, String> headers);
+
+    record Response(int status, byte[] body) {
+
+        boolean isSuccessful() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    /**
+     * CompletableFuture does not propagate cancellation upstream; this makes
+     * cancelling {@code derived} also cancel {@code source}, so an abandoned
+     * hedge attempt aborts its exchange instead of running to completion.
+     */
+    static <T> CompletableFuture<T> cancelsUpstream(CompletableFuture<T> derived, Future<?> source) {
+        derived.whenComplete((result, error) -> {
+            if (derived.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return derived;
+    }
+}
@@ -0,0 +1,249 @@
+package com.tripplanner.TripPlanner.routing;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Open-path TSP heuristic for stop ordering: the first waypoint stays the
+ * start and, optionally, the last stays the destination; the stops between
+ * are reordered to minimise the summed {@code cost[from][to]} (which may be
+ * asymmetric — one-way streets).
+ *
+ * <p>Each restart seeds a tour by nearest neighbour (restart 0 greedily, the
+ * rest picking randomly among the three nearest) and improves it with 2-opt
+ * and Or-opt moves until no move helps. Restarts run as a fork-join task
+ * tree and every loop checks one shared deadline, so the answer is the best
+ * tour found within the time budget. At 25 stops a full pass is ~50k cost
+ * lookups, so a budget of a few hundred ms covers dozens of restarts.</p>
+ */
+final class WaypointOptimizer {
+
+    private static final int NEAREST_CANDIDATES = 3;
+    private static final int MAX_OR_OPT_SEGMENT = 3;
+    // Moves must win by more than float noise, or asymmetric ties can cycle
+    private static final double EPSILON = 1e-9;
+
+    private WaypointOptimizer() {
+    }
+
+    /**
+     * @param order       waypoint indices in visiting order
+     * @param initialCost cost of the input order (0, 1, ..., n-1)
+     * @param restarts    restarts that finished before the deadline
+     */
+    record Result(int[] order, double cost, double initialCost, int restarts) {
+    }
+
+    static Result optimize(double[][] cost, boolean fixEnd, int restarts, long budgetMs, ForkJoinPool pool) {
+        int n = cost.length;
+        int[] identity = new int[n];
+        Arrays.setAll(identity, i -> i);
+        double initialCost = pathCost(cost, identity);
+        // Fewer than two movable stops: nothing to reorder
+        if (n - (fixEnd ? 2 : 1) < 2) {
+            return new Result(identity, initialCost, initialCost, 0);
+        }
+
+        long deadline = System.nanoTime() + budgetMs * 1_000_000;
+        Tour best = pool.invoke(new RestartTask(cost, fixEnd, deadline, 0, Math.max(1, restarts)));
+        if (best == null || best.cost > initialCost - EPSILON) {
+            // Never hand back something worse than what the user already has
+            return new Result(identity, initialCost, initialCost, best == null ? 0 : best.restarts);
+        }
+        return new Result(best.order, best.cost, initialCost, best.restarts);
+    }
+
+    static double pathCost(double[][] cost, int[] order) {
+        double total = 0;
+        for (int i = 0; i + 1 < order.length; i++) {
+            total += cost[order[i]][order[i + 1]];
+        }
+        return total;
+    }
+
+    /** Restarts [from, to): split in halves down to one restart per leaf. */
+    private static final class RestartTask extends RecursiveTask<Tour> {
+
+        private final double[][] cost;
+        private final boolean fixEnd;
+        private final long deadline;
+        private final int from;
+        private final int to;
+
+        RestartTask(double[][] cost, boolean fixEnd, long deadline, int from, int to) {
+            this.cost = cost;
+            this.fixEnd = fixEnd;
+            this.deadline = deadline;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Tour compute() {
+            if (to - from == 1) {
+                // Restart 0 always runs: a greedy tour even on an exhausted budget
+                if (from > 0 && System.nanoTime() >= deadline) {
+                    return null;
+                }
+                int[] order = seed(cost, fixEnd, from);
+                improve(cost, order, fixEnd, deadline);
+                return new Tour(order, pathCost(cost, order), 1);
+            }
+            int mid = (from + to) >>> 1;
+            RestartTask left = new RestartTask(cost, fixEnd, deadline, from, mid);
+            RestartTask right = new RestartTask(cost, fixEnd, deadline, mid, to);
+            right.fork();
+            return Tour.better(left.compute(), right.join());
+        }
+    }
+
+    private record Tour(int[] order, double cost, int restarts) {
+
+        static Tour better(Tour a, Tour b) {
+            if (a == null || b == null) {
+                return a == null ? b : a;
+            }
+            Tour winner = b.cost < a.cost ? b : a;
+            return new Tour(winner.order, winner.cost, a.restarts + b.restarts);
+        }
+    }
+
+    /** Nearest-neighbour tour from waypoint 0; randomised among the closest candidates after restart 0. */
+    static int[] seed(double[][] cost, boolean fixEnd, long restart) {
+        int n = cost.length;
+        int last = fixEnd ? n - 1 : n;
+        SplittableRandom random = new SplittableRandom(restart);
+        boolean[] visited = new boolean[n];
+        int[] order = new int[n];
+        order[0] = 0;
+        visited[0] = true;
+        if (fixEnd) {
+            order[n - 1] = n - 1;
+            visited[n - 1] = true;
+        }
+        int[] candidates = new int[NEAREST_CANDIDATES];
+        for (int pos = 1; pos < last; pos++) {
+            int current = order[pos - 1];
+            int found = 0;
+            for (int next = 0; next < n; next++) {
+                if (visited[next]) {
+                    continue;
+                }
+                // Insertion into a tiny sorted candidate list
+                int slot = Math.min(found, NEAREST_CANDIDATES - 1);
+                if (found == NEAREST_CANDIDATES && cost[current][next] >= cost[current][candidates[slot]]) {
+                    continue;
+                }
+                while (slot > 0 && cost[current][candidates[slot - 1]] > cost[current][next]) {
+                    candidates[slot] = candidates[slot - 1];
+                    slot--;
+                }
+                candidates[slot] = next;
+                found = Math.min(found + 1, NEAREST_CANDIDATES);
+            }
+            int pick = restart == 0 ? candidates[0] : candidates[random.nextInt(found)];
+            order[pos] = pick;
+            visited[pick] = true;
+        }
+        return order;
+    }
+
+    /** 2-opt then Or-opt, repeated until neither improves or the deadline passes. */
+    static void improve(double[][] cost, int[] order, boolean fixEnd, long deadline) {
+        int first = 1;
+        int last = fixEnd ? order.length - 2 : order.length - 1;
+        boolean improved = true;
+        while (improved && System.nanoTime() < deadline) {
+            improved = twoOpt(cost, order, first, last) | orOpt(cost, order, first, last);
+        }
+    }
+
+    /**
+     * Reverses order[i..j] when that shortens the path. With an asymmetric
+     * matrix the reversed segment's own cost changes too, so the delta counts
+     * it rather than just the two boundary edges.
+     */
+    private static boolean twoOpt(double[][] cost, int[] order, int first, int last) {
+        boolean improved = false;
+        for (int i = first; i < last; i++) {
+            for (int j = i + 1; j <= last; j++) {
+                double before = edge(cost, order, i - 1, i) + edge(cost, order, j, j + 1);
+                double after = cost[order[i - 1]][order[j]]
+                    + (j + 1 < order.length ? cost[order[i]][order[j + 1]] : 0);
+                for (int k = i; k < j; k++) {
+                    before += cost[order[k]][order[k + 1]];
+                    after += cost[order[k + 1]][order[k]];
+                }
+                if (after < before - EPSILON) {
+                    reverse(order, i, j);
+                    improved = true;
+                }
+            }
+        }
+        return improved;
+    }
+
+    /** Moves a run of 1-3 stops to the best other gap on the path, keeping its direction. */
+    private static boolean orOpt(double[][] cost, int[] order, int first, int last) {
+        boolean improved = false;
+        for (int length = 1; length <= MAX_OR_OPT_SEGMENT; length++) {
+            for (int i = first; i + length - 1 <= last; i++) {
+                int j = i + length - 1;
+                int prev = order[i - 1];
+                int head = order[i];
+                int tail = order[j];
+                boolean hasNext = j + 1 < order.length;
+                double removeGain = cost[prev][head] + (hasNext ? cost[tail][order[j + 1]] - cost[prev][order[j + 1]] : 0);
+
+                int bestGap = -1;
+                double bestDelta = -EPSILON;
+                // Gap g = between order[g] and order[g + 1], outside the segment
+                for (int g = first - 1; g <= last; g++) {
+                    if (g >= i - 1 && g <= j) {
+                        continue;
+                    }
+                    int a = order[g];
+                    boolean hasB = g + 1 < order.length;
+                    double insertCost = cost[a][head] + (hasB ? cost[tail][order[g + 1]] - cost[a][order[g + 1]] : 0);
+                    double delta = insertCost - removeGain;
+                    if (delta < bestDelta) {
+                        bestDelta = delta;
+                        bestGap = g;
+                    }
+                }
+                if (bestGap >= 0) {
+                    moveSegment(order, i, j, bestGap);
+                    improved = true;
+                }
+            }
+        }
+        return improved;
+    }
+
+    private static double edge(double[][] cost, int[] order, int from, int to) {
+        return to < order.length ? cost[order[from]][order[to]] : 0;
+    }
+
+    private static void reverse(int[] order, int i, int j) {
+        while (i < j) {
+            int tmp = order[i];
+            order[i++] = order[j];
+            order[j--] = tmp;
+        }
+    }
+
+    /** Moves order[i..j] to sit right after position {@code gap} (a position outside i-1..j). */
+    private static void moveSegment(int[] order, int i, int j, int gap) {
+        int[] segment = Arrays.copyOfRange(order, i, j + 1);
+        int length = segment.length;
+        if (gap < i) {
+            System.arraycopy(order, gap + 1, order, gap + 1 + length, i - gap - 1);
+            System.arraycopy(segment, 0, order, gap + 1, length);
+        } else {
+            System.arraycopy(order, j + 1, order, i, gap - j);
+            System.arraycopy(segment, 0, order, gap - length + 1, length);
+        }
+    }
+}
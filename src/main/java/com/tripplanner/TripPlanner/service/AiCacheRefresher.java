@@ -0,0 +1,173 @@
+package com.tripplanner.TripPlanner.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tripplanner.TripPlanner.controller.StreamRecording;
+import com.tripplanner.TripPlanner.dto.AgentResponse;
+import com.tripplanner.TripPlanner.filter.AiRateLimitingFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stale-while-revalidate for the AI cache: a hit past the soft TTL is served
+ * as-is, and if the prompt is hot the agent is asked again in the background
+ * so the entry is renewed before the hard TTL drops it. Without this, the
+ * most popular prompts (all cached around the same time) expire together and
+ * their next askers each pay for a full agent call.
+ *
+ * <p>Hot means at least {@code ai.cache.refresh.min-hits} recent hits in a
+ * {@link FrequencySketch} (counts halve over time, like the cache's own).
+ * Every refresh takes a process-wide slot from the rate limiter's refresh
+ * share ({@link AiRateLimitingFilter#tryReserveGlobal}); without one the
+ * stale entry is simply served until it expires. At most
+ * {@code ai.cache.refresh.max-concurrent} refreshes run at once, one per key.</p>
+ */
+@Service
+public class AiCacheRefresher {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiCacheRefresher.class);
+    private static final int SKETCH_SIZE = 1000;
+
+    @Value("${agent.url:}")
+    private String agentUrl;
+
+    @Value("${agent.timeout.seconds:30}")
+    private int timeoutSeconds = 30;
+
+    @Value("${ai.cache.refresh.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${ai.cache.refresh.min-hits:3}")
+    private int minHits = 3;
+
+    @Value("${ai.cache.refresh.max-concurrent:2}")
+    private int maxConcurrent = 2;
+
+    private final AiCacheService cacheService;
+    private final AiRateLimitingFilter rateLimiter;
+    private final ObjectMapper objectMapper;
+    private final FrequencySketch hits = new FrequencySketch(SKETCH_SIZE);
+    private final Map<String, Boolean> refreshing = new ConcurrentHashMap<>();
+    private final Counter started;
+    private final Counter renewed;
+    private final Counter skippedBudget;
+    private RestTemplate restTemplate;
+    private ExecutorService executor;
+
+    public AiCacheRefresher(AiCacheService cacheService, AiRateLimitingFilter rateLimiter,
+                            ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.cacheService = cacheService;
+        this.rateLimiter = rateLimiter;
+        this.objectMapper = objectMapper;
+        this.started = Counter.builder("ai.cache.refresh").tag("result", "started")
+                .description("Background refreshes of stale hot AI cache entries")
+                .register(meterRegistry);
+        this.renewed = Counter.builder("ai.cache.refresh").tag("result", "renewed")
+                .register(meterRegistry);
+        this.skippedBudget = Counter.builder("ai.cache.refresh").tag("result", "no_budget")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void init() {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(5000);
+        factory.setReadTimeout(timeoutSeconds * 1000);
+        restTemplate = new RestTemplate(factory);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrent), r -> {
+            Thread t = new Thread(r, "ai-cache-refresh-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Records a cache hit and, if the entry is stale and the prompt hot,
+     * starts its refresh. Never blocks the caller on the agent.
+     * @return true if a refresh was started
+     */
+    public boolean onHit(String key, String prompt, String language, boolean stale) {
+        int frequency;
+        synchronized (hits) {
+            hits.increment(key.hashCode());
+            frequency = hits.frequency(key.hashCode());
+        }
+        if (!stale || !enabled || agentUrl == null || agentUrl.isEmpty() || frequency < minHits) {
+            return false;
+        }
+        if (refreshing.size() >= maxConcurrent || refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+            return false;
+        }
+        if (!rateLimiter.tryReserveGlobal()) {
+            refreshing.remove(key);
+            skippedBudget.increment();
+            logger.debug("No refresh budget left, serving stale AI cache entry: key={}", key);
+            return false;
+        }
+        started.increment();
+        executor.execute(() -> {
+            try {
+                refresh(key, prompt, language);
+            } finally {
+                refreshing.remove(key);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Asks the agent again and replaces the entry; on any failure the stale entry stays.
+     * A recording of the stream's progress frames is kept with the new answer, so
+     * streamed hits on the renewed entry still replay them.
+     */
+    void refresh(String key, String prompt, String language) {
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.add("User-Agent", "TripPlanner-Backend/1.0");
+            Map<String, Object> body = Map.of(
+                    "message", prompt,
+                    "language", language,
+                    "user_id", "cache-refresh");
+
+            ResponseEntity<String> response = restTemplate.postForEntity(
+                    agentUrl + "/parse-route", new HttpEntity<>(body, headers), String.class);
+            String responseBody = response.getBody();
+            AgentResponse agentResponse = responseBody == null ? null
+                    : objectMapper.readValue(responseBody, AgentResponse.class);
+            if (response.getStatusCode().is2xxSuccessful() && agentResponse != null && agentResponse.isValid()) {
+                String recording = StreamRecording.recording(cacheService.get(key));
+                cacheService.put(key, recording != null ? StreamRecording.withResult(recording, responseBody) : responseBody);
+                renewed.increment();
+                logger.debug("Refreshed stale AI cache entry: key={}", key);
+            } else {
+                logger.info("AI cache refresh got no valid answer, keeping stale entry: key={}", key);
+            }
+        } catch (Exception e) {
+            logger.warn("AI cache refresh failed for key={}: {}", key, e.getMessage());
+        }
+    }
+}
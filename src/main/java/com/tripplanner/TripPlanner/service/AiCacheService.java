@@ -1,10 +1,9 @@
 package com.tripplanner.TripPlanner.service;
 
-import java.security.MessageDigest;
-
 /**
  * Interface for AI response caching
- * Implementations: MemoryCacheService (staging) and RedisCacheService (production)
+ * Implementations: MemoryCacheService (staging) and, in production, TieredCacheService
+ * (in-heap near-cache in front of RedisCacheService)
  */
 public interface AiCacheService {
 
@@ -13,18 +12,11 @@ public interface AiCacheService {
      * MD5 hash of the normalized prompt (lowercased, trimmed, whitespace-collapsed)
      * concatenated with the language, falling back to a plain hashCode if MD5
      * is unavailable. Shared by every caller (sync proxy, SSE relay) so cache
-     * keys always agree regardless of entry point.
+     * keys always agree regardless of entry point. Runs on every AI request,
+     * so it is derived in one pass with reused buffers (see {@link CacheKeys})
      */
     default String cacheKey(String prompt, String language) {
-        try {
-            String normalized = prompt.toLowerCase().trim().replaceAll("\\s+", " ");
-            byte[] hash = MessageDigest.getInstance("MD5").digest((normalized + "|" + language).getBytes(java.nio.charset.StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hash) sb.append(String.format("%02x", b));
-            return sb.toString();
-        } catch (Exception e) {
-            return String.valueOf((prompt + language).hashCode());
-        }
+        return CacheKeys.v1(prompt, language);
     }
 
     /**
@@ -34,6 +26,18 @@ public interface AiCacheService {
      */
     String get(String key);
 
+    /**
+     * Get cached response by key, also telling whether it is past the soft TTL
+     * (ai.cache.soft-ttl.hours): a stale entry is still served, but is due for
+     * a background refresh (see AiCacheRefresher)
+     * @param key Cache key
+     * @return Cached response and staleness, or null if not found
+     */
+    default Lookup lookup(String key) {
+        String value = get(key);
+        return value == null ? null : new Lookup(value, false);
+    }
+
     /**
      * Store response in cache
      * @param key Cache key
@@ -54,7 +58,7 @@ public interface AiCacheService {
 
     /**
      * Get cache implementation type for response headers
-     * @return "memory" or "redis"
+     * @return "memory", "redis" or "tiered"
      */
     String getImplementationType();
 
@@ -64,6 +68,14 @@ public interface AiCacheService {
      */
     CacheStats getStats();
 
+    /**
+     * Result of {@link #lookup}
+     * @param value Cached response
+     * @param stale Older than the soft TTL
+     */
+    record Lookup(String value, boolean stale) {
+    }
+
     /**
      * Cache statistics holder
      */
@@ -0,0 +1,107 @@
+package com.tripplanner.TripPlanner.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-flight for agent calls on a cache miss: the first request for a
+ * cache key becomes the leader and calls the agent; identical requests that
+ * arrive while it runs attach to its result instead of paying for another
+ * LLM call. Keyed by {@link AiCacheService#cacheKey}, so the sync proxy and
+ * the SSE relay share flights.
+ *
+ * <p>Only a result the agent marks valid is shared. When the leader ends
+ * without one (agent error, timeout), followers get null and make their own
+ * call — a failure is not replayed to everyone who happened to be waiting.</p>
+ *
+ * <p>This implementation coalesces within one node; {@link RedisAiSingleFlight}
+ * extends it across nodes in production. Not a bean under prod, so the
+ * process holds exactly one flight map and one {@code ai.in.flight} gauge.</p>
+ */
+@Service
+@Profile("!prod")
+public class AiSingleFlight {
+
+    private static final Logger logger = LoggerFactory.getLogger(AiSingleFlight.class);
+
+    @Value("${ai.singleflight.max-wait.seconds:75}")
+    protected long maxWaitSeconds = 75;
+
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final Counter localJoins;
+    protected final Counter remoteJoins;
+
+    public AiSingleFlight(MeterRegistry meterRegistry) {
+        this.localJoins = Counter.builder("ai.coalesced").tag("scope", "local")
+                .description("Agent calls avoided by attaching to an in-flight call on this node")
+                .register(meterRegistry);
+        this.remoteJoins = Counter.builder("ai.coalesced").tag("scope", "remote")
+                .description("Agent calls avoided by waiting on another node's call")
+                .register(meterRegistry);
+        Gauge.builder("ai.in.flight", inFlight, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * A caller's place in a flight.
+     * @param leader true if this caller must call the agent and then {@link #finish} the flight
+     * @param result the shared result body; completes with null when there is none to share
+     */
+    public record Flight(String key, boolean leader, CompletableFuture<String> result) {
+    }
+
+    public Flight begin(String key) {
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            localJoins.increment();
+            logger.debug("Attached to in-flight agent call: key={}", key);
+            return new Flight(key, false, existing);
+        }
+        // Whatever completes the flight (leader, remote result, timeout) also retires it,
+        // and a leader that never finishes cannot strand its followers
+        created.completeOnTimeout(null, maxWaitSeconds, TimeUnit.SECONDS)
+                .whenComplete((body, e) -> inFlight.remove(key, created));
+        if (!tryAcquireRemote(key)) {
+            awaitRemote(key, created);
+            return new Flight(key, false, created);
+        }
+        return new Flight(key, true, created);
+    }
+
+    /**
+     * Ends the leader's flight. Idempotent, so it is safe to call with the
+     * result and again from a finally block with null.
+     * @param body valid agent response to share, or null
+     */
+    public void finish(Flight flight, String body) {
+        if (flight == null || !flight.leader() || flight.result().isDone()) {
+            return;
+        }
+        releaseRemote(flight.key());
+        flight.result().complete(body);
+    }
+
+    /** Claims the key across nodes; always succeeds without a shared store. */
+    protected boolean tryAcquireRemote(String key) {
+        return true;
+    }
+
+    protected void releaseRemote(String key) {
+    }
+
+    /** Completes {@code result} once another node's call for {@code key} is over. */
+    protected void awaitRemote(String key, CompletableFuture<String> result) {
+        result.complete(null);
+    }
+}
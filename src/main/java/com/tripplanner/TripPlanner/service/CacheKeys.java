@@ -0,0 +1,183 @@
+package com.tripplanner.TripPlanner.service;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Cache key derivation behind {@link AiCacheService#cacheKey}, in one pass
+ * over the prompt and without per-call garbage beyond the key itself: each
+ * thread keeps its MD5 digest and scratch buffers, whitespace is normalised
+ * while lowercasing, UTF-8 is encoded by hand and hex comes from a table.
+ *
+ * <p>Key scheme v1, the only one so far, and byte-for-byte what the original
+ * pipeline produced, so existing Redis and in-memory entries stay valid:
+ * {@code md5hex(collapse(trim(lower(prompt))) + "|" + language)}, where
+ * lower is {@link String#toLowerCase()} in the default locale, trim strips
+ * chars up to U+0020 and collapse turns each run of {@code [ \t\n\x0B\f\r]}
+ * into one space. A different hash or normalisation is a new scheme: give
+ * its keys a distinct form (e.g. a {@code v2:} prefix) so the two never
+ * collide and v1 entries simply age out.</p>
+ */
+final class CacheKeys {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // Buffers beyond this are used once and dropped rather than kept per thread
+    private static final int MAX_RETAINED_CHARS = 4096;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::create);
+
+    private CacheKeys() {
+    }
+
+    /** Key scheme v1 for a prompt + language pair. */
+    static String v1(String prompt, String language) {
+        Scratch scratch = SCRATCH.get();
+        if (scratch == null || prompt == null) {
+            // No MD5 in this JVM (or nothing to hash): the original fallback
+            return String.valueOf((prompt + language).hashCode());
+        }
+        language = String.valueOf(language);
+        // Chars whose lowercase depends on context or locale (and surrogates)
+        // send the prompt through String.toLowerCase() first, as before
+        String source = needsStringLowerCase(prompt) ? prompt.toLowerCase() : prompt;
+        char[] chars = scratch.chars(source.length() + 1 + language.length());
+        int n = normalize(source, source == prompt, chars);
+        chars[n++] = '|';
+        language.getChars(0, language.length(), chars, n);
+        n += language.length();
+
+        byte[] bytes = scratch.bytes(n * 3);
+        int length = encodeUtf8(chars, n, bytes);
+        try {
+            scratch.md5.update(bytes, 0, length);
+            scratch.md5.digest(scratch.digest, 0, scratch.digest.length);
+        } catch (DigestException e) {
+            scratch.md5.reset();
+            return String.valueOf((prompt + language).hashCode());
+        }
+        char[] hex = scratch.hex;
+        for (int i = 0; i < 16; i++) {
+            int b = scratch.digest[i] & 0xFF;
+            hex[i * 2] = HEX[b >>> 4];
+            hex[i * 2 + 1] = HEX[b & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Writes collapse(trim(source)) into {@code out}, lowercasing each char
+     * on the way when {@code lower}, and returns its length.
+     */
+    private static int normalize(String source, boolean lower, char[] out) {
+        int start = 0;
+        int end = source.length();
+        while (start < end && source.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && source.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int n = 0;
+        boolean inWhitespace = false;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r') {
+                if (!inWhitespace) {
+                    out[n++] = ' ';
+                    inWhitespace = true;
+                }
+            } else {
+                out[n++] = lower ? Character.toLowerCase(c) : c;
+                inWhitespace = false;
+            }
+        }
+        return n;
+    }
+
+    private static boolean needsStringLowerCase(String prompt) {
+        String language = Locale.getDefault().getLanguage();
+        if (language.equals("tr") || language.equals("az") || language.equals("lt")) {
+            return true;
+        }
+        for (int i = 0; i < prompt.length(); i++) {
+            char c = prompt.charAt(i);
+            // Dotted capital I and capital sigma lowercase by context; surrogates by code point
+            if (c == '\u0130' || c == '\u03A3' || Character.isSurrogate(c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** UTF-8 like {@link String#getBytes}: a lone surrogate becomes '?'. */
+    private static int encodeUtf8(char[] chars, int length, byte[] out) {
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                out[n++] = (byte) c;
+            } else if (c < 0x800) {
+                out[n++] = (byte) (0xC0 | (c >> 6));
+                out[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars[i + 1])) {
+                int cp = Character.toCodePoint(c, chars[++i]);
+                out[n++] = (byte) (0xF0 | (cp >> 18));
+                out[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[n++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[n++] = '?';
+            } else {
+                out[n++] = (byte) (0xE0 | (c >> 12));
+                out[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return n;
+    }
+
+    /** Per-thread digest and buffers; null (so callers fall back) when MD5 is unavailable. */
+    private static final class Scratch {
+        final MessageDigest md5;
+        final byte[] digest = new byte[16];
+        final char[] hex = new char[32];
+        char[] chars = new char[512];
+        byte[] bytes = new byte[1536];
+
+        private Scratch(MessageDigest md5) {
+            this.md5 = md5;
+        }
+
+        static Scratch create() {
+            try {
+                return new Scratch(MessageDigest.getInstance("MD5"));
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+
+        char[] chars(int size) {
+            if (size <= chars.length) {
+                return chars;
+            }
+            char[] grown = new char[size];
+            if (size <= MAX_RETAINED_CHARS) {
+                chars = grown;
+            }
+            return grown;
+        }
+
+        byte[] bytes(int size) {
+            if (size <= bytes.length) {
+                return bytes;
+            }
+            byte[] grown = new byte[size];
+            if (size <= MAX_RETAINED_CHARS * 3) {
+                bytes = grown;
+            }
+            return grown;
+        }
+    }
+}
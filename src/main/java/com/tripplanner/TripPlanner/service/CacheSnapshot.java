@@ -0,0 +1,140 @@
+package com.tripplanner.TripPlanner.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk snapshot of a {@link TinyLfuCache}, so an in-memory cache survives
+ * a restart warm.
+ *
+ * <p>Layout: an 8-byte header ({@code "AICS"}, format version), then one
+ * record per entry, appended in a single sequential pass:
+ * {@code [payload length][CRC32 of payload][payload]}, the payload being
+ * write time, frequency, key and value (values as held in the cache, i.e.
+ * already compressed). A snapshot is written to a temp file and renamed over
+ * the previous one, so readers only ever see a complete file.</p>
+ *
+ * <p>Reading verifies every record. At the first record that is truncated
+ * or fails its checksum, reading stops and the entries before it are kept;
+ * a file with a foreign header is ignored altogether.</p>
+ */
+final class CacheSnapshot {
+
+    static final int MAGIC = 0x41494353;
+    static final int VERSION = 1;
+    // Far beyond any agent response; a larger length means a damaged record
+    static final int MAX_RECORD_BYTES = 4 << 20;
+
+    private CacheSnapshot() {
+    }
+
+    static void write(Path file, List<TinyLfuCache.Entry> entries) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream fileOut = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            CRC32 crc = new CRC32();
+            for (TinyLfuCache.Entry entry : entries) {
+                byte[] payload = payload(entry);
+                crc.reset();
+                crc.update(payload);
+                out.writeInt(payload.length);
+                out.writeInt((int) crc.getValue());
+                out.write(payload);
+            }
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Entries of the snapshot at {@code file}; empty if there is none or it is not ours. */
+    static List<TinyLfuCache.Entry> read(Path file) throws IOException {
+        List<TinyLfuCache.Entry> entries = new ArrayList<>();
+        ByteBuffer buf;
+        try {
+            // Read in one go rather than mapped: a live mapping would keep the
+            // file from being replaced by the next snapshot on some platforms
+            buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        } catch (NoSuchFileException e) {
+            return entries;
+        }
+        if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            return entries;
+        }
+        CRC32 crc = new CRC32();
+        while (buf.remaining() >= 8) {
+            int length = buf.getInt();
+            int checksum = buf.getInt();
+            if (length < 0 || length > MAX_RECORD_BYTES || length > buf.remaining()) {
+                break;
+            }
+            ByteBuffer payload = buf.slice(buf.position(), length);
+            buf.position(buf.position() + length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            TinyLfuCache.Entry entry = parse(payload);
+            if (entry == null) {
+                break;
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static byte[] payload(TinyLfuCache.Entry entry) {
+        byte[] key = entry.key().getBytes(StandardCharsets.UTF_8);
+        byte[] value = entry.value().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(8 + 4 + 4 + key.length + 4 + value.length)
+                .putLong(entry.writtenAt())
+                .putInt(entry.frequency())
+                .putInt(key.length).put(key)
+                .putInt(value.length).put(value)
+                .array();
+    }
+
+    private static TinyLfuCache.Entry parse(ByteBuffer payload) {
+        try {
+            long writtenAt = payload.getLong();
+            int frequency = payload.getInt();
+            String key = string(payload);
+            String value = string(payload);
+            return payload.hasRemaining() ? null : new TinyLfuCache.Entry(key, value, writtenAt, frequency);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String string(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0 || length > payload.remaining()) {
+            throw new IllegalArgumentException("bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,110 @@
+package com.tripplanner.TripPlanner.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression for cached agent responses: raw Deflate primed with a preset
+ * dictionary of the response schema (field names, settings blocks, stats,
+ * common city names), stored as {@code z1:<base64>} so it stays a String for
+ * both the in-memory cache and RedisTemplate&lt;String, String&gt;.
+ *
+ * <p>A small JSON body has too little repetition for plain Deflate to help;
+ * the dictionary supplies the boilerplate, so even a two-waypoint route shrinks
+ * to a fraction of its size. Values without the marker are returned as-is,
+ * which keeps entries written before compression existed readable.</p>
+ *
+ * <p>The dictionary is part of the format: never edit
+ * {@code ai/response-dictionary-v1.txt} — add a v2 file and a {@code z2:}
+ * marker, and keep decoding {@code z1:}.</p>
+ */
+final class CachedValueCodec {
+
+    static final String MARKER = "z1:";
+    // Below this the base64 + marker overhead eats most of the win
+    static final int MIN_COMPRESS_LENGTH = 128;
+
+    private static final byte[] DICTIONARY = loadDictionary("/ai/response-dictionary-v1.txt");
+
+    private CachedValueCodec() {
+    }
+
+    /** Compressed form of {@code value}, or {@code value} itself when compression would not pay off. */
+    static String encode(String value) {
+        if (value == null || value.length() < MIN_COMPRESS_LENGTH) {
+            return value;
+        }
+        byte[] input = value.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] out = new byte[input.length];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == out.length) {
+                    // Incompressible: not worth storing compressed
+                    return value;
+                }
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            String encoded = MARKER + Base64.getEncoder().encodeToString(Arrays.copyOf(out, n));
+            return encoded.length() < value.length() ? encoded : value;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Original value for anything {@link #encode} produced, the input for
+     * uncompressed (legacy) values, and null for a corrupt compressed value so
+     * callers treat it as a miss.
+     */
+    static String decode(String stored) {
+        if (stored == null || !stored.startsWith(MARKER)) {
+            return stored;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            // Raw streams carry no dictionary id, so it is set up front
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(Base64.getDecoder().decode(stored.substring(MARKER.length())));
+            byte[] out = new byte[Math.max(256, stored.length() * 4)];
+            int n = 0;
+            while (!inflater.finished()) {
+                if (n == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int inflated = inflater.inflate(out, n, out.length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                n += inflated;
+            }
+            return new String(out, 0, n, StandardCharsets.UTF_8);
+        } catch (DataFormatException | IllegalArgumentException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] loadDictionary(String resource) {
+        try (InputStream in = CachedValueCodec.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("missing compression dictionary " + resource);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.tripplanner.TripPlanner.service;
+
+/**
+ * Count-min sketch of 4-bit counters estimating how often each key was seen
+ * recently — the admission filter behind {@link TinyLfuCache}.
+ *
+ * <p>Sixteen counters are packed per long and each key maps to four of them
+ * (one per hash seed); its frequency is the smallest of the four, capped at
+ * 15. After {@code 10 × maximumSize} increments every counter is halved, so
+ * yesterday's popular prompts fade instead of holding the cache forever.
+ * Not thread-safe: callers hold the cache's policy lock.</p>
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+        int size = Integer.highestOneBit(Math.max(64, maximumSize) - 1) << 1;
+        this.table = new long[size];
+        this.tableMask = size - 1;
+        this.sampleSize = Math.max(10 * maximumSize, 10);
+    }
+
+    int frequency(int hash) {
+        int frequency = 15;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, (int) ((table[index(hash, i)] >>> offset(hash, i)) & 0xF));
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = index(hash, i);
+            int offset = offset(hash, i);
+            if (((table[index] >>> offset) & 0xF) != 0xF) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    void clear() {
+        java.util.Arrays.fill(table, 0);
+        additions = 0;
+    }
+
+    /** Halves every counter: ages out old popularity while keeping the ranking. */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int index(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    /** Bit offset of the key's counter within its long: a different hash byte per seed. */
+    private static int offset(int hash, int i) {
+        return ((hash >>> (i << 3)) & 0xF) << 2;
+    }
+}
@@ -1,19 +1,28 @@
 package com.tripplanner.TripPlanner.service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * In-memory cache implementation for AI responses (staging environment)
- * Uses ConcurrentHashMap with TTL and LRU eviction
+ * Bounded W-TinyLFU cache (see {@link TinyLfuCache}) with TTL: O(1) get/put,
+ * and frequently repeated prompts survive bursts of one-off ones.
+ * Values are held compressed (see {@link CachedValueCodec})
+ * Entries older than ai.cache.soft-ttl.hours are still served by {@link #lookup},
+ * flagged stale so hot ones get refreshed before the hard TTL drops them
+ * With ai.cache.snapshot.path set, the cache is saved to that file every
+ * ai.cache.snapshot.interval.ms and on shutdown, and loaded back on startup
+ * (see {@link CacheSnapshot}), so a restart doesn't start from a cold cache
  */
 @Service
 @Profile({"staging", "dev", "default"})
@@ -24,48 +33,91 @@ public class MemoryCacheService implements AiCacheService {
     @Value("${ai.cache.ttl.hours:24}")
     private int ttlHours;
 
+    @Value("${ai.cache.soft-ttl.hours:20}")
+    private int softTtlHours = 20;
+
     @Value("${ai.cache.max.size:500}")
     private int maxSize;
 
-    private final Map<String, CachedEntry> cache = new ConcurrentHashMap<>();
+    @Value("${ai.cache.compression.enabled:true}")
+    private boolean compressionEnabled = true;
+
+    @Value("${ai.cache.snapshot.path:}")
+    private String snapshotPath = "";
+
+    private TinyLfuCache cache;
     private final AtomicLong hitCount = new AtomicLong(0);
     private final AtomicLong missCount = new AtomicLong(0);
 
+    @PostConstruct
+    void initCache() {
+        cache = new TinyLfuCache(maxSize, ttlHours * 3_600_000L, System::currentTimeMillis);
+        loadSnapshot();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        saveSnapshot();
+    }
+
+    /** Loads the last snapshot, if any; whatever can't be read is skipped, never fatal. */
+    void loadSnapshot() {
+        if (snapshotPath.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            List<TinyLfuCache.Entry> entries = CacheSnapshot.read(Path.of(snapshotPath));
+            entries.forEach(cache::restore);
+            logger.info("Cache WARM START: {} of {} snapshot entries restored in {}ms",
+                    cache.size(), entries.size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            logger.warn("Cache snapshot {} unreadable, starting cold: {}", snapshotPath, e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ai.cache.snapshot.interval.ms:300000}",
+            initialDelayString = "${ai.cache.snapshot.interval.ms:300000}")
+    public void saveSnapshot() {
+        if (snapshotPath.isEmpty()) {
+            return;
+        }
+        try {
+            List<TinyLfuCache.Entry> entries = cache.entries();
+            CacheSnapshot.write(Path.of(snapshotPath), entries);
+            logger.debug("Cache SNAPSHOT: {} entries -> {}", entries.size(), snapshotPath);
+        } catch (Exception e) {
+            logger.warn("Cache snapshot to {} failed: {}", snapshotPath, e.getMessage());
+        }
+    }
+
     @Override
     public String get(String key) {
-        CachedEntry entry = cache.get(key);
+        Lookup lookup = lookup(key);
+        return lookup == null ? null : lookup.value();
+    }
 
-        if (entry == null) {
-            missCount.incrementAndGet();
-            logger.debug("Cache MISS: key={}", key);
-            return null;
-        }
+    @Override
+    public Lookup lookup(String key) {
+        TinyLfuCache.Hit hit = cache.getHit(key);
+        String value = hit == null ? null : CachedValueCodec.decode(hit.value());
 
-        // Check if expired
-        if (entry.isExpired(ttlHours)) {
-            cache.remove(key);
+        if (value == null) {
             missCount.incrementAndGet();
-            logger.debug("Cache EXPIRED: key={}", key);
+            logger.debug("Cache MISS: key={}", key);
             return null;
         }
 
-        entry.incrementHitCount();
-        entry.updateLastAccessed();
         hitCount.incrementAndGet();
-        logger.debug("Cache HIT: key={}, hits={}", key, entry.getHitCount());
+        boolean stale = System.currentTimeMillis() - hit.writtenAt() >= softTtlHours * 3_600_000L;
+        logger.debug("Cache HIT: key={}, stale={}", key, stale);
 
-        return entry.getValue();
+        return new Lookup(value, stale);
     }
 
     @Override
     public void put(String key, String value) {
-        // Enforce max size with LRU eviction
-        if (cache.size() >= maxSize) {
-            evictLRU();
-        }
-
-        CachedEntry entry = new CachedEntry(value);
-        cache.put(key, entry);
+        cache.put(key, compressionEnabled ? CachedValueCodec.encode(value) : value);
         logger.debug("Cache PUT: key={}, size={}", key, cache.size());
     }
 
@@ -81,6 +133,8 @@ public class MemoryCacheService implements AiCacheService {
         cache.clear();
         hitCount.set(0);
         missCount.set(0);
+        // Or a restart before the next scheduled snapshot would bring them back
+        saveSnapshot();
         logger.info("Cache CLEAR: evicted {} entries", size);
     }
 
@@ -93,74 +147,4 @@ public class MemoryCacheService implements AiCacheService {
     public CacheStats getStats() {
         return new CacheStats(hitCount.get(), missCount.get(), cache.size());
     }
-
-    /**
-     * Evict least recently used entries when cache is full
-     */
-    private void evictLRU() {
-        if (cache.isEmpty()) {
-            return;
-        }
-
-        // Find oldest entry by last access time
-        String oldestKey = null;
-        LocalDateTime oldestTime = LocalDateTime.now();
-
-        for (Map.Entry<String, CachedEntry> entry : cache.entrySet()) {
-            if (entry.getValue().getLastAccessed().isBefore(oldestTime)) {
-                oldestTime = entry.getValue().getLastAccessed();
-                oldestKey = entry.getKey();
-            }
-        }
-
-        if (oldestKey != null) {
-            cache.remove(oldestKey);
-            logger.debug("Cache LRU EVICT: key={}", oldestKey);
-        }
-    }
-
-    /**
-     * Cached entry with metadata
-     */
-    private static class CachedEntry {
-        private final String value;
-        private final LocalDateTime cachedAt;
-        private LocalDateTime lastAccessed;
-        private int hitCount;
-
-        CachedEntry(String value) {
-            this.value = value;
-            this.cachedAt = LocalDateTime.now();
-            this.lastAccessed = LocalDateTime.now();
-            this.hitCount = 0;
-        }
-
-        String getValue() {
-            return value;
-        }
-
-        LocalDateTime getCachedAt() {
-            return cachedAt;
-        }
-
-        LocalDateTime getLastAccessed() {
-            return lastAccessed;
-        }
-
-        void updateLastAccessed() {
-            this.lastAccessed = LocalDateTime.now();
-        }
-
-        int getHitCount() {
-            return hitCount;
-        }
-
-        void incrementHitCount() {
-            this.hitCount++;
-        }
-
-        boolean isExpired(int ttlHours) {
-            return LocalDateTime.now().isAfter(cachedAt.plusHours(ttlHours));
-        }
-    }
 }
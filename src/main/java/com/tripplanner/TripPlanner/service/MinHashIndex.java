@@ -0,0 +1,246 @@
+package com.tripplanner.TripPlanner.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * In-process MinHash LSH index of cached prompts, finding an earlier prompt
+ * that asks the same thing in other words — the index behind
+ * {@link SemanticCacheIndex}.
+ *
+ * <p>A prompt is reduced to its content words: lowercased letter/digit runs,
+ * minus filler ({@code please}, {@code plan}, {@code from}, ...), with
+ * {@code to}, {@code до} and arrows all becoming one direction marker. Its
+ * shingles are those words, each adjacent pair, and each leg: the words on
+ * either side of a marker ({@code kyiv→lviv}), so word order and the order of
+ * stops count. A 64-value MinHash signature in 16 bands of 4 rows
+ * buckets prompts of one language together once their shingle sets are
+ * roughly half alike; candidates are then checked exactly.</p>
+ *
+ * <p>A match must be strict, since its answer is served as if it were this
+ * prompt's: same language, the same content words (no other city, date or
+ * number), the same legs in the same order (no reordered stops), and a shingle Jaccard similarity of at least the threshold. The
+ * least recently used prompt is dropped beyond {@code maxEntries}.
+ * Not thread-safe: callers synchronize.</p>
+ */
+final class MinHashIndex {
+
+    static final int HASHES = 64;
+    static final int ROWS = 4;
+    static final int BANDS = HASHES / ROWS;
+    static final String DIRECTION = "→";
+
+    private static final Set<String> FILLER = Set.of(
+            "a", "an", "the", "from", "please", "pls", "me", "i", "want", "need", "would", "like",
+            "can", "you", "show", "plan", "make", "trip", "route", "road",
+            "з", "із", "зі", "від", "будь", "ласка", "мені", "я", "хочу", "треба", "покажи",
+            "сплануй", "маршрут", "поїздка", "поїздку", "подорож");
+    private static final Set<String> DIRECTION_WORDS = Set.of("to", "до");
+
+    private static final long[] MULTIPLIERS = new long[HASHES];
+    private static final long[] INCREMENTS = new long[HASHES];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5eed_cafe_f00dL);
+        for (int i = 0; i < HASHES; i++) {
+            MULTIPLIERS[i] = random.nextLong() | 1;
+            INCREMENTS[i] = random.nextLong();
+        }
+    }
+
+    /** One indexed prompt. */
+    record Entry(String key, String language, Set<String> words, List<String> legs, Set<String> shingles,
+                 long[] bands) {
+    }
+
+    private final int maxEntries;
+    private final Map<Long, Set<String>> buckets = new HashMap<>();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    MinHashIndex(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /** Indexes {@code prompt} under {@code key}; a key already present is only marked used. */
+    void add(String key, String prompt, String language) {
+        if (entries.get(key) != null) {
+            return;
+        }
+        List<String> words = words(prompt);
+        if (words.isEmpty()) {
+            return;
+        }
+        List<String> legs = legs(words);
+        Set<String> shingles = shingles(words, legs);
+        long[] bands = bands(signature(shingles), language);
+        entries.put(key, new Entry(key, language, new HashSet<>(words), legs, shingles, bands));
+        for (long band : bands) {
+            buckets.computeIfAbsent(band, b -> new HashSet<>()).add(key);
+        }
+        if (entries.size() > maxEntries) {
+            remove(entries.keySet().iterator().next());
+        }
+    }
+
+    void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+        for (long band : entry.bands()) {
+            Set<String> bucket = buckets.get(band);
+            if (bucket != null && bucket.remove(key) && bucket.isEmpty()) {
+                buckets.remove(band);
+            }
+        }
+    }
+
+    /**
+     * The key of the most similar indexed prompt that matches {@code prompt}
+     * (see class doc), other than {@code ownKey}; null if none does.
+     */
+    String find(String prompt, String language, String ownKey, double threshold) {
+        List<String> words = words(prompt);
+        if (words.isEmpty()) {
+            return null;
+        }
+        Set<String> wordSet = new HashSet<>(words);
+        List<String> legs = legs(words);
+        Set<String> shingles = shingles(words, legs);
+        Set<String> candidates = new HashSet<>();
+        for (long band : bands(signature(shingles), language)) {
+            Set<String> bucket = buckets.get(band);
+            if (bucket != null) {
+                candidates.addAll(bucket);
+            }
+        }
+        String best = null;
+        double bestSimilarity = threshold;
+        for (String candidate : candidates) {
+            Entry entry = entries.get(candidate);
+            if (candidate.equals(ownKey) || entry == null || !entry.language().equals(language)
+                    || !entry.words().equals(wordSet) || !entry.legs().equals(legs)) {
+                continue;
+            }
+            double similarity = jaccard(shingles, entry.shingles());
+            if (similarity >= bestSimilarity) {
+                best = candidate;
+                bestSimilarity = similarity;
+            }
+        }
+        return best;
+    }
+
+    /** Content words of a prompt, in order. */
+    static List<String> words(String prompt) {
+        List<String> words = new ArrayList<>();
+        int i = 0;
+        int n = prompt.length();
+        while (i < n) {
+            int cp = prompt.codePointAt(i);
+            if (Character.isLetterOrDigit(cp)) {
+                int start = i;
+                while (i < n && Character.isLetterOrDigit(prompt.codePointAt(i))) {
+                    i += Character.charCount(prompt.codePointAt(i));
+                }
+                String word = prompt.substring(start, i).toLowerCase(Locale.ROOT);
+                if (DIRECTION_WORDS.contains(word)) {
+                    words.add(DIRECTION);
+                } else if (!FILLER.contains(word)) {
+                    words.add(word);
+                }
+                continue;
+            }
+            if (cp == '→' || cp == '⇒' || (cp == '-' || cp == '=' || cp == '–' || cp == '—')
+                    && i + 1 < n && prompt.charAt(i + 1) == '>') {
+                words.add(DIRECTION);
+            }
+            i += Character.charCount(cp);
+        }
+        return words;
+    }
+
+    /**
+     * The word before and after each direction marker, joined by it, in order.
+     * Pairs alone only tie each stop to the marker, so reordered middle stops
+     * would leave them unchanged.
+     */
+    static List<String> legs(List<String> words) {
+        List<String> legs = new ArrayList<>();
+        for (int i = 1; i + 1 < words.size(); i++) {
+            String from = words.get(i - 1);
+            String to = words.get(i + 1);
+            if (words.get(i).equals(DIRECTION) && !from.equals(DIRECTION) && !to.equals(DIRECTION)) {
+                legs.add(from + DIRECTION + to);
+            }
+        }
+        return legs;
+    }
+
+    /** Each word, each adjacent pair of words and each leg. */
+    static Set<String> shingles(List<String> words, List<String> legs) {
+        Set<String> shingles = new HashSet<>(words);
+        for (int i = 1; i < words.size(); i++) {
+            shingles.add(words.get(i - 1) + ' ' + words.get(i));
+        }
+        shingles.addAll(legs);
+        return shingles;
+    }
+
+    static double jaccard(Set<String> a, Set<String> b) {
+        int common = 0;
+        for (String s : a) {
+            if (b.contains(s)) {
+                common++;
+            }
+        }
+        return (double) common / (a.size() + b.size() - common);
+    }
+
+    static long[] signature(Set<String> shingles) {
+        long[] signature = new long[HASHES];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (String shingle : shingles) {
+            long h = shingle.hashCode();
+            for (int i = 0; i < HASHES; i++) {
+                signature[i] = Math.min(signature[i], mix(h * MULTIPLIERS[i] + INCREMENTS[i]));
+            }
+        }
+        return signature;
+    }
+
+    /** One bucket id per band: the band's rows hashed together with the language. */
+    private static long[] bands(long[] signature, String language) {
+        long[] bands = new long[BANDS];
+        for (int band = 0; band < BANDS; band++) {
+            long h = language.hashCode() * 31L + band;
+            for (int row = 0; row < ROWS; row++) {
+                h = mix(h * 31 + signature[band * ROWS + row]);
+            }
+            bands[band] = h;
+        }
+        return bands;
+    }
+
+    /** MurmurHash3's 64-bit finalizer. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
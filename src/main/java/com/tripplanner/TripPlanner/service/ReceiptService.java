@@ -6,6 +6,7 @@ import com.tripplanner.TripPlanner.dto.CreateReceiptRequest;
 import com.tripplanner.TripPlanner.dto.ReceiptDTO;
 import com.tripplanner.TripPlanner.entity.TripReceipt;
 import com.tripplanner.TripPlanner.repository.TripReceiptRepository;
+import com.tripplanner.TripPlanner.routing.GeometryCodec;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,7 +62,7 @@ public class ReceiptService {
         receipt.setCurrency(req.getCurrency());
         receipt.setPeople(req.getPeople());
         receipt.setLocale("uk".equalsIgnoreCase(req.getLocale()) ? "uk" : "en");
-        receipt.setRouteGeometry(validGeometryOrNull(req.getRouteGeometry()));
+        receipt.setRouteGeometry(validGeometryOrNull(req.getRouteGeometry(), req.getRouteGeometryFormat()));
         receipt.setUserId(userIdOrNull);
         receipt.setExpiresAt(userIdOrNull == null
                 ? LocalDateTime.now().plusDays(ANONYMOUS_EXPIRY_DAYS)
@@ -162,10 +163,13 @@ public class ReceiptService {
     }
 
     /** Geometry is decorative — invalid input is dropped, never a share-blocking error. */
-    private String validGeometryOrNull(String geometry) {
+    private String validGeometryOrNull(String geometry, String format) {
         if (geometry == null || geometry.isBlank() || geometry.length() > MAX_GEOMETRY_CHARS) {
             return null;
         }
+        if ("polyline6".equalsIgnoreCase(format) || "float32".equalsIgnoreCase(format)) {
+            return encodedAsJsonOrNull(geometry, format);
+        }
         try {
             JsonNode root = objectMapper.readTree(geometry);
             if (!root.isArray() || root.size() < 2 || root.size() > MAX_GEOMETRY_POINTS) {
@@ -183,6 +187,42 @@ public class ReceiptService {
         }
     }
 
+    /**
+     * Accepts the polyline6 or float32 string /api/routing/calculate returns
+     * for that format, but stores the same JSON [lat, lng] pairs as always so
+     * every reader (receipt page, OG preview) keeps a single format.
+     */
+    private String encodedAsJsonOrNull(String encoded, String format) {
+        try {
+            boolean float32 = "float32".equalsIgnoreCase(format);
+            double[] latLng = float32
+                    ? GeometryCodec.decodeFloat32(encoded)
+                    : GeometryCodec.decodePolyline6(encoded);
+            int points = latLng.length / 2;
+            if (points < 2 || points > MAX_GEOMETRY_POINTS) {
+                return null;
+            }
+            double[][] pairs = new double[points][];
+            for (int i = 0; i < points; i++) {
+                double lat = latLng[2 * i];
+                double lng = latLng[2 * i + 1];
+                // Negated so NaN from a float32 payload is rejected too
+                if (!(lat >= -90 && lat <= 90 && lng >= -180 && lng <= 180)) {
+                    return null;
+                }
+                if (float32) {
+                    // The shortest decimal for the float: 50.45, not 50.45000076293945
+                    lat = Double.parseDouble(Float.toString((float) lat));
+                    lng = Double.parseDouble(Float.toString((float) lng));
+                }
+                pairs[i] = new double[]{lat, lng};
+            }
+            return objectMapper.writeValueAsString(pairs);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     private void validateRange(Double value, double min, double max, String field) {
         if (value == null || value < min || value > max) {
             throw badRequest(field + " must be between " + min + " and " + max);
@@ -0,0 +1,105 @@
+package com.tripplanner.TripPlanner.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cross-node single-flight (production): the node that leads a flight also
+ * takes a short Redis lock (SET NX PX) on the cache key. A node that finds
+ * the lock held does not call the agent; it polls until the lock is released
+ * and then reads the leader's answer from the shared cache. If the leader's
+ * node dies, the lock expires and waiters fall back to their own call.
+ */
+@Service
+@Profile("prod")
+public class RedisAiSingleFlight extends AiSingleFlight {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisAiSingleFlight.class);
+    private static final String LOCK_PREFIX = "ai:inflight:";
+    // Delete only our own lock: after expiry another node may hold the key
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    @Value("${ai.singleflight.lock.ttl.seconds:75}")
+    private long lockTtlSeconds = 75;
+
+    @Value("${ai.singleflight.poll.ms:250}")
+    private long pollMs = 250;
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final AiCacheService cacheService;
+    private final String token = UUID.randomUUID().toString();
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ai-singleflight-poll");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RedisAiSingleFlight(RedisTemplate<String, String> redisTemplate, AiCacheService cacheService,
+                               MeterRegistry meterRegistry) {
+        super(meterRegistry);
+        this.redisTemplate = redisTemplate;
+        this.cacheService = cacheService;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        poller.shutdownNow();
+    }
+
+    @Override
+    protected boolean tryAcquireRemote(String key) {
+        try {
+            Boolean acquired = redisTemplate.opsForValue()
+                    .setIfAbsent(LOCK_PREFIX + key, token, Duration.ofSeconds(lockTtlSeconds));
+            return !Boolean.FALSE.equals(acquired);
+        } catch (Exception e) {
+            // Fail open: without Redis each node simply calls the agent itself
+            logger.warn("AI single-flight lock failed, calling agent directly: {}", e.getMessage());
+            return true;
+        }
+    }
+
+    @Override
+    protected void releaseRemote(String key) {
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(LOCK_PREFIX + key), token);
+        } catch (Exception e) {
+            logger.warn("AI single-flight unlock failed (lock expires on its own): {}", e.getMessage());
+        }
+    }
+
+    @Override
+    protected void awaitRemote(String key, CompletableFuture<String> result) {
+        remoteJoins.increment();
+        logger.debug("Agent call for key={} is running on another node, waiting for it", key);
+        ScheduledFuture<?> poll = poller.scheduleWithFixedDelay(() -> {
+            try {
+                if (!Boolean.TRUE.equals(redisTemplate.hasKey(LOCK_PREFIX + key))) {
+                    // Null when the other node got no valid answer: waiters call the agent themselves
+                    result.complete(cacheService.get(key));
+                }
+            } catch (Exception e) {
+                result.complete(null);
+            }
+        }, pollMs, pollMs, TimeUnit.MILLISECONDS);
+        result.whenComplete((body, e) -> poll.cancel(false));
+    }
+}
@@ -1,17 +1,55 @@
 package com.tripplanner.TripPlanner.service;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Redis-based cache implementation for AI responses (production environment)
  * Provides persistent, scalable caching with TTL support
+ *
+ * Hit/miss accounting is cluster-wide without a Redis write per lookup:
+ * each node counts locally and flushes the deltas into one stats hash with a
+ * pipelined HINCRBY every ai.cache.stats.flush.ms. Size is an estimate from a
+ * background SCAN, so neither the admin stats page nor a metrics scrape ever
+ * walks the keyspace.
+ *
+ * Keys are namespaced by a generation number kept in Redis
+ * ({@code ai:cache:g<N>:<key>}; generation 0 is the original unversioned
+ * {@code ai:cache:<key>} layout). evictAll is one INCR: readers move to the
+ * new namespace at once, and the old generation is UNLINKed in batches on a
+ * background thread — or simply expires if that sweep never finishes. Other
+ * nodes pick the new generation up via {@link #refreshGeneration()}.
+ *
+ * Values are stored compressed (see {@link CachedValueCodec}); entries
+ * written uncompressed are still read as-is.
+ *
+ * An entry's age for the soft TTL is read off its remaining TTL: lookup
+ * pipelines GET with PTTL, so staleness costs no extra round trip and needs
+ * no timestamp in the value.
  */
 @Service
 @Profile("prod")
@@ -19,26 +57,85 @@ public class RedisCacheService implements AiCacheService {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisCacheService.class);
     private static final String KEY_PREFIX = "ai:cache:";
+    static final String STATS_KEY = "ai:cache-stats";
+    static final String GENERATION_KEY = "ai:cache-generation";
+    private static final String HITS_FIELD = "hits";
+    private static final String MISSES_FIELD = "misses";
 
     @Value("${ai.cache.ttl.hours:24}")
     private int ttlHours;
 
+    @Value("${ai.cache.soft-ttl.hours:20}")
+    private int softTtlHours = 20;
+
+    @Value("${ai.cache.compression.enabled:true}")
+    private boolean compressionEnabled = true;
+
+    @Value("${ai.cache.evict.batch.size:500}")
+    private int evictBatchSize = 500;
+
     private final RedisTemplate<String, String> redisTemplate;
 
-    public RedisCacheService(RedisTemplate<String, String> redisTemplate) {
+    // Lifetime counts on this node (Micrometer) and deltas not yet flushed to STATS_KEY
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder unflushedHits = new LongAdder();
+    private final LongAdder unflushedMisses = new LongAdder();
+    private final AtomicLong sizeEstimate = new AtomicLong(0);
+
+    private volatile long generation;
+    private volatile String keyPrefix = KEY_PREFIX;
+    private final AtomicReference<SweepProgress> sweepProgress = new AtomicReference<>();
+    private final ExecutorService sweeper = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ai-cache-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Progress of the background UNLINK of a retired generation.
+     * @param generation generation being removed
+     * @param scanned    keys seen by the SCAN so far
+     * @param unlinked   keys removed so far
+     * @param done       sweep finished (or gave up; leftovers expire by TTL)
+     */
+    public record SweepProgress(long generation, long scanned, long unlinked, boolean done) {
+    }
+
+    public RedisCacheService(RedisTemplate<String, String> redisTemplate, MeterRegistry meterRegistry) {
         this.redisTemplate = redisTemplate;
-        logger.info("RedisCacheService initialized with TTL: {} hours", ttlHours);
+        FunctionCounter.builder("ai.cache.gets", hits, LongAdder::doubleValue)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("ai.cache.gets", misses, LongAdder::doubleValue)
+                .tag("result", "miss").register(meterRegistry);
+        Gauge.builder("ai.cache.size", sizeEstimate, AtomicLong::get)
+                .description("Approximate number of AI responses in Redis (background SCAN)")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void init() {
+        refreshGeneration();
+        logger.info("RedisCacheService initialized with TTL: {} hours, generation {}", ttlHours, generation);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        sweeper.shutdownNow();
     }
 
     @Override
     public String get(String key) {
         try {
-            String fullKey = KEY_PREFIX + key;
-            String value = redisTemplate.opsForValue().get(fullKey);
+            String fullKey = keyPrefix + key;
+            String value = CachedValueCodec.decode(redisTemplate.opsForValue().get(fullKey));
 
             if (value != null) {
+                recordHit();
                 logger.debug("Redis Cache HIT: key={}", key);
             } else {
+                misses.increment();
+                unflushedMisses.increment();
                 logger.debug("Redis Cache MISS: key={}", key);
             }
 
@@ -50,11 +147,49 @@ public class RedisCacheService implements AiCacheService {
         }
     }
 
+    @Override
+    public Lookup lookup(String key) {
+        try {
+            String fullKey = keyPrefix + key;
+            List<Object> replies = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    ops.opsForValue().get(fullKey);
+                    ops.getExpire(fullKey, TimeUnit.MILLISECONDS);
+                    return null;
+                }
+            });
+            String value = replies.get(0) instanceof String stored ? CachedValueCodec.decode(stored) : null;
+
+            if (value == null) {
+                misses.increment();
+                unflushedMisses.increment();
+                logger.debug("Redis Cache MISS: key={}", key);
+                return null;
+            }
+
+            recordHit();
+            // PTTL is negative for a key without expiry: never stale
+            long remainingMs = replies.get(1) instanceof Long ttl ? ttl : -1;
+            long ageMs = ttlHours * 3_600_000L - remainingMs;
+            boolean stale = remainingMs >= 0 && ageMs >= softTtlHours * 3_600_000L;
+            logger.debug("Redis Cache HIT: key={}, stale={}", key, stale);
+            return new Lookup(value, stale);
+
+        } catch (Exception e) {
+            logger.error("Redis LOOKUP error for key: {}", key, e);
+            return null;
+        }
+    }
+
     @Override
     public void put(String key, String value) {
         try {
-            String fullKey = KEY_PREFIX + key;
-            redisTemplate.opsForValue().set(fullKey, value, ttlHours, TimeUnit.HOURS);
+            String fullKey = keyPrefix + key;
+            String stored = compressionEnabled ? CachedValueCodec.encode(value) : value;
+            redisTemplate.opsForValue().set(fullKey, stored, ttlHours, TimeUnit.HOURS);
             logger.debug("Redis Cache PUT: key={}, ttl={}h", key, ttlHours);
 
         } catch (Exception e) {
@@ -65,7 +200,7 @@ public class RedisCacheService implements AiCacheService {
     @Override
     public void evict(String key) {
         try {
-            String fullKey = KEY_PREFIX + key;
+            String fullKey = keyPrefix + key;
             redisTemplate.delete(fullKey);
             logger.debug("Redis Cache EVICT: key={}", key);
 
@@ -77,49 +212,189 @@ public class RedisCacheService implements AiCacheService {
     @Override
     public void evictAll() {
         try {
-            String pattern = KEY_PREFIX + "*";
-            long deletedCount = 0;
-
-            // Use SCAN instead of KEYS for production safety (KEYS blocks Redis)
-            var scanOptions = org.springframework.data.redis.core.ScanOptions.scanOptions()
-                    .match(pattern)
-                    .count(100)
-                    .build();
-
-            try (var cursor = redisTemplate.scan(scanOptions)) {
-                while (cursor.hasNext()) {
-                    String key = cursor.next();
-                    redisTemplate.delete(key);
-                    deletedCount++;
-                }
-            }
+            long retired = generation;
+            long next = redisTemplate.opsForValue().increment(GENERATION_KEY);
+            useGeneration(next);
 
-            logger.info("Redis Cache CLEAR: evicted {} keys", deletedCount);
+            // Start counting afresh, like the in-memory cache does on clear
+            redisTemplate.delete(STATS_KEY);
+            unflushedHits.reset();
+            unflushedMisses.reset();
+            sizeEstimate.set(0);
+            logger.info("Redis Cache CLEAR: generation {} -> {}", retired, next);
+
+            // Everything up to the new generation is garbage, but only the one this
+            // node was using is swept; anything older has been swept or expired
+            sweeper.submit(() -> sweep(retired));
 
         } catch (Exception e) {
             logger.error("Redis EVICT_ALL error", e);
         }
     }
 
+    /** Latest sweep of a retired generation, or null if this node never ran one. */
+    public SweepProgress getSweepProgress() {
+        return sweepProgress.get();
+    }
+
+    /**
+     * Re-reads the generation from Redis. Scheduled as a backstop; the tiered
+     * cache also calls it as soon as a clear is announced on pub/sub.
+     */
+    @Scheduled(fixedDelayString = "${ai.cache.generation.refresh.ms:5000}")
+    public void refreshGeneration() {
+        try {
+            String value = redisTemplate.opsForValue().get(GENERATION_KEY);
+            long current = value == null ? 0 : Long.parseLong(value);
+            if (current != generation) {
+                useGeneration(current);
+                logger.info("Redis Cache now on generation {}", current);
+            }
+        } catch (Exception e) {
+            logger.warn("Redis cache generation refresh failed: {}", e.getMessage());
+        }
+    }
+
+    private void useGeneration(long value) {
+        generation = value;
+        keyPrefix = prefixFor(value);
+    }
+
+    static String prefixFor(long generation) {
+        return generation == 0 ? KEY_PREFIX : KEY_PREFIX + "g" + generation + ":";
+    }
+
+    /** Generation 0 shares its prefix with every later one, so those keys are filtered out. */
+    private static boolean belongsTo(String key, long generation) {
+        return generation != 0 || !key.startsWith(KEY_PREFIX + "g");
+    }
+
+    /** SCANs a retired generation and removes it with one multi-key UNLINK per batch. */
+    void sweep(long retired) {
+        String prefix = prefixFor(retired);
+        ScanOptions scanOptions = ScanOptions.scanOptions().match(prefix + "*").count(evictBatchSize).build();
+        List<String> batch = new ArrayList<>(evictBatchSize);
+        long scanned = 0;
+        long unlinked = 0;
+        sweepProgress.set(new SweepProgress(retired, 0, 0, false));
+        try (var cursor = redisTemplate.scan(scanOptions)) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                scanned++;
+                if (!belongsTo(key, retired)) {
+                    continue;
+                }
+                batch.add(key);
+                if (batch.size() >= evictBatchSize) {
+                    unlinked += unlink(batch);
+                    sweepProgress.set(new SweepProgress(retired, scanned, unlinked, false));
+                    logger.debug("Redis Cache sweep of generation {}: {} unlinked", retired, unlinked);
+                }
+            }
+            if (!batch.isEmpty()) {
+                unlinked += unlink(batch);
+            }
+            logger.info("Redis Cache sweep of generation {} finished: {} keys unlinked", retired, unlinked);
+        } catch (Exception e) {
+            // Leftovers carry a TTL and will expire on their own
+            logger.warn("Redis Cache sweep of generation {} stopped after {} keys: {}", retired, unlinked, e.getMessage());
+        }
+        sweepProgress.set(new SweepProgress(retired, scanned, unlinked, true));
+    }
+
+    private long unlink(List<String> batch) {
+        Long removed = redisTemplate.unlink(batch);
+        batch.clear();
+        return removed == null ? 0 : removed;
+    }
+
     @Override
     public String getImplementationType() {
         return "redis";
     }
 
+    /**
+     * One HMGET plus this node's unflushed deltas; size is the last SCAN
+     * estimate. Cheap enough for every admin dashboard load.
+     */
     @Override
     public CacheStats getStats() {
+        long hitCount = unflushedHits.sum();
+        long missCount = unflushedMisses.sum();
         try {
-            String pattern = KEY_PREFIX + "*";
-            var keys = redisTemplate.keys(pattern);
-            long size = keys != null ? keys.size() : 0;
+            List<Object> totals = redisTemplate.opsForHash().multiGet(STATS_KEY, List.of(HITS_FIELD, MISSES_FIELD));
+            hitCount += parseCount(totals.get(0));
+            missCount += parseCount(totals.get(1));
+        } catch (Exception e) {
+            logger.error("Redis GET_STATS error", e);
+        }
+        return new CacheStats(hitCount, missCount, sizeEstimate.get());
+    }
 
-            // Note: Hit/miss counts not tracked in this implementation
-            // Could be added using Redis INCR commands if needed
-            return new CacheStats(0, 0, size);
+    /** A hit served by a tier in front of Redis, so it counts towards the shared totals too. */
+    void recordHit() {
+        hits.increment();
+        unflushedHits.increment();
+    }
 
+    /** Pushes this node's hit/miss deltas into the shared stats hash in one pipelined round trip. */
+    @Scheduled(fixedDelayString = "${ai.cache.stats.flush.ms:10000}")
+    public void flushStats() {
+        long hitDelta = unflushedHits.sumThenReset();
+        long missDelta = unflushedMisses.sumThenReset();
+        if (hitDelta == 0 && missDelta == 0) {
+            return;
+        }
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    ops.opsForHash().increment(STATS_KEY, HITS_FIELD, hitDelta);
+                    ops.opsForHash().increment(STATS_KEY, MISSES_FIELD, missDelta);
+                    return null;
+                }
+            });
         } catch (Exception e) {
-            logger.error("Redis GET_STATS error", e);
-            return new CacheStats(0, 0, 0);
+            // Keep the deltas for the next flush rather than losing them
+            unflushedHits.add(hitDelta);
+            unflushedMisses.add(missDelta);
+            logger.warn("Redis cache stats flush failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Re-counts the cache keys with a background SCAN (never KEYS). Entries
+     * expire on their own in Redis, so a maintained counter would drift; a
+     * periodic count is both cheap for readers and self-correcting.
+     */
+    @Scheduled(fixedDelayString = "${ai.cache.stats.size-refresh.ms:300000}")
+    public void refreshSizeEstimate() {
+        long current = generation;
+        ScanOptions scanOptions = ScanOptions.scanOptions().match(prefixFor(current) + "*").count(1000).build();
+        long count = 0;
+        try (var cursor = redisTemplate.scan(scanOptions)) {
+            while (cursor.hasNext()) {
+                if (belongsTo(cursor.next(), current)) {
+                    count++;
+                }
+            }
+            sizeEstimate.set(count);
+            logger.debug("Redis cache size estimate: {} keys", count);
+        } catch (Exception e) {
+            logger.warn("Redis cache size refresh failed: {}", e.getMessage());
+        }
+    }
+
+    private static long parseCount(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
 }
@@ -0,0 +1,108 @@
+package com.tripplanner.TripPlanner.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Second-level AI cache lookup for near-duplicate prompts: "Kyiv -> Lviv
+ * tomorrow" and "from kyiv to lviv, tomorrow" have different cache keys, but
+ * after an exact miss the second can be answered with the first's cached
+ * response instead of another agent call.
+ *
+ * <p>Prompts are indexed in process once their answer is cached (see
+ * {@link MinHashIndex} for what counts as a match, which is deliberately
+ * strict), and only point at cache keys: the answer itself is always read
+ * from {@link AiCacheService}, so a matched entry that has since expired or
+ * been evicted is dropped from the index and the request simply misses.
+ * Off unless {@code ai.cache.semantic.enabled}; each node keeps its own index,
+ * which starts empty.</p>
+ */
+@Service
+public class SemanticCacheIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SemanticCacheIndex.class);
+
+    @Value("${ai.cache.semantic.enabled:false}")
+    private boolean enabled = false;
+
+    @Value("${ai.cache.semantic.threshold:0.8}")
+    private double threshold = 0.8;
+
+    @Value("${ai.cache.semantic.max-entries:2000}")
+    private int maxEntries = 2000;
+
+    private final AiCacheService cacheService;
+    private final Counter hits;
+    private final Counter misses;
+    private MinHashIndex index;
+
+    public SemanticCacheIndex(AiCacheService cacheService, MeterRegistry meterRegistry) {
+        this.cacheService = cacheService;
+        this.hits = Counter.builder("ai.cache.semantic").tag("result", "hit")
+                .description("Exact AI cache misses answered by a near-duplicate prompt's entry")
+                .register(meterRegistry);
+        this.misses = Counter.builder("ai.cache.semantic").tag("result", "miss")
+                .register(meterRegistry);
+    }
+
+    /**
+     * A cached response found through a near-duplicate prompt
+     * @param key Cache key of the prompt it was stored for
+     * @param lookup The cached response
+     */
+    public record Match(String key, AiCacheService.Lookup lookup) {
+    }
+
+    /**
+     * Indexes a prompt under its cache key, so later near-duplicates can find
+     * it. Called right after its answer is stored: a prompt still waiting for
+     * its answer is not indexed, so a near-duplicate asked meanwhile misses
+     * without dropping anything.
+     */
+    public void remember(String key, String prompt, String language) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            index().add(key, prompt, language);
+        }
+    }
+
+    /**
+     * After an exact miss on {@code key}: the cached response of a strictly
+     * similar earlier prompt in the same language, or null
+     */
+    public Match find(String key, String prompt, String language) {
+        if (!enabled) {
+            return null;
+        }
+        String similarKey;
+        synchronized (this) {
+            similarKey = index().find(prompt, language, key, threshold);
+        }
+        AiCacheService.Lookup lookup = similarKey != null ? cacheService.lookup(similarKey) : null;
+        if (lookup == null) {
+            if (similarKey != null) {
+                synchronized (this) {
+                    index.remove(similarKey);
+                }
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        logger.debug("Near-duplicate AI cache hit: key={} served from key={}", key, similarKey);
+        return new Match(similarKey, lookup);
+    }
+
+    private MinHashIndex index() {
+        if (index == null) {
+            index = new MinHashIndex(maxEntries);
+        }
+        return index;
+    }
+}
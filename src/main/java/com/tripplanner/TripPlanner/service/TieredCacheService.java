@@ -0,0 +1,165 @@
+package com.tripplanner.TripPlanner.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Two-tier AI response cache for production: a small in-heap near-cache (L1)
+ * in front of {@link RedisCacheService} (L2).
+ *
+ * Hot prompts are answered from L1 without a Redis round trip. L1 entries
+ * live only briefly (ai.cache.near.ttl.seconds), which bounds how stale a node
+ * can be; evict/evictAll are additionally broadcast on a Redis pub/sub channel
+ * so the admin panel's "clear cache" empties every node's L1 at once.
+ *
+ * {@link #lookup} reports L1 hits as fresh: staleness is judged in Redis, and
+ * a hot entry goes back there every time its short L1 copy expires.
+ */
+@Service
+@Primary
+@Profile("prod")
+public class TieredCacheService implements AiCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TieredCacheService.class);
+    static final String INVALIDATION_CHANNEL = "ai:cache:invalidate";
+    // Message body meaning "drop everything"; real keys are hex digests
+    static final String EVICT_ALL_MESSAGE = "*";
+
+    private final RedisCacheService redisCache;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final TinyLfuCache nearCache;
+    private final boolean nearCacheEnabled;
+
+    private final LongAdder nearHits = new LongAdder();
+
+    public TieredCacheService(RedisCacheService redisCache,
+                              RedisTemplate<String, String> redisTemplate,
+                              RedisMessageListenerContainer listenerContainer,
+                              MeterRegistry meterRegistry,
+                              @Value("${ai.cache.near.enabled:true}") boolean nearCacheEnabled,
+                              @Value("${ai.cache.near.max.size:1000}") int nearMaxSize,
+                              @Value("${ai.cache.near.ttl.seconds:60}") int nearTtlSeconds) {
+        this.redisCache = redisCache;
+        this.redisTemplate = redisTemplate;
+        this.nearCacheEnabled = nearCacheEnabled;
+        this.nearCache = new TinyLfuCache(nearMaxSize, nearTtlSeconds * 1000L, System::currentTimeMillis);
+        listenerContainer.addMessageListener(
+            (message, pattern) -> onInvalidation(new String(message.getBody(), StandardCharsets.UTF_8)),
+            new ChannelTopic(INVALIDATION_CHANNEL));
+        FunctionCounter.builder("ai.cache.near.hits", nearHits, LongAdder::doubleValue)
+                .description("AI cache lookups answered by the in-heap near-cache")
+                .register(meterRegistry);
+        logger.info("TieredCacheService initialized: near-cache {} (max {}, ttl {}s)",
+            nearCacheEnabled ? "enabled" : "disabled", nearMaxSize, nearTtlSeconds);
+    }
+
+    @Override
+    public String get(String key) {
+        if (nearCacheEnabled) {
+            String value = nearCache.get(key);
+            if (value != null) {
+                nearHits.increment();
+                // Still a cache hit for the shared hit/miss totals
+                redisCache.recordHit();
+                logger.debug("Near Cache HIT: key={}", key);
+                return value;
+            }
+        }
+
+        String value = redisCache.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (nearCacheEnabled) {
+            nearCache.put(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public Lookup lookup(String key) {
+        if (nearCacheEnabled) {
+            String value = nearCache.get(key);
+            if (value != null) {
+                nearHits.increment();
+                redisCache.recordHit();
+                logger.debug("Near Cache HIT: key={}", key);
+                return new Lookup(value, false);
+            }
+        }
+
+        Lookup lookup = redisCache.lookup(key);
+        if (lookup != null && nearCacheEnabled && !lookup.stale()) {
+            // A stale entry stays out of L1 so the next request sees it is stale too
+            nearCache.put(key, lookup.value());
+        }
+        return lookup;
+    }
+
+    @Override
+    public void put(String key, String value) {
+        redisCache.put(key, value);
+        if (nearCacheEnabled) {
+            nearCache.put(key, value);
+        }
+    }
+
+    @Override
+    public void evict(String key) {
+        redisCache.evict(key);
+        nearCache.remove(key);
+        publish(key);
+    }
+
+    @Override
+    public void evictAll() {
+        redisCache.evictAll();
+        nearCache.clear();
+        publish(EVICT_ALL_MESSAGE);
+    }
+
+    @Override
+    public String getImplementationType() {
+        return "tiered";
+    }
+
+    @Override
+    public CacheStats getStats() {
+        // Near-cache hits are already folded into the shared Redis totals
+        return redisCache.getStats();
+    }
+
+    /** Invalidation from any node, this one included — dropping an L1 entry twice is harmless. */
+    void onInvalidation(String message) {
+        if (EVICT_ALL_MESSAGE.equals(message)) {
+            nearCache.clear();
+            // Follow the clearing node onto the new key generation without waiting for the poll
+            redisCache.refreshGeneration();
+            logger.info("Near Cache CLEAR via pub/sub");
+        } else {
+            nearCache.remove(message);
+            logger.debug("Near Cache EVICT via pub/sub: key={}", message);
+        }
+    }
+
+    private void publish(String message) {
+        try {
+            redisTemplate.convertAndSend(INVALIDATION_CHANNEL, message);
+        } catch (Exception e) {
+            // Other nodes still converge once their short L1 TTL runs out
+            logger.error("Near-cache invalidation publish failed", e);
+        }
+    }
+}
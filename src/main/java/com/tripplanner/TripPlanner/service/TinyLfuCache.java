@@ -0,0 +1,320 @@
+package com.tripplanner.TripPlanner.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded string cache with W-TinyLFU eviction and a write TTL.
+ *
+ * <p>New entries land in a small LRU window (1% of capacity). When the window
+ * overflows, its oldest entry competes for a place in the main segmented LRU
+ * against the main area's eviction victim: whichever the
+ * {@link FrequencySketch} says was requested more often stays. A burst of
+ * one-off prompts therefore can't flush answers that are asked for all day.
+ * Main is split into probation (20%) and protected (80%): a second hit
+ * promotes an entry to protected, overflow demotes back to probation.</p>
+ *
+ * <p>Every operation is O(1): a ConcurrentHashMap for lookup plus intrusive
+ * doubly-linked lists for the three regions. Reads don't block — the lookup
+ * is lock-free and the recency/frequency update is skipped if another thread
+ * holds the policy lock (a lost reorder costs a little accuracy, never
+ * correctness). Writes and removals take the lock.</p>
+ */
+final class TinyLfuCache {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final ConcurrentHashMap<String, Node> data = new ConcurrentHashMap<>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final AccessOrder window = new AccessOrder();
+    private final AccessOrder probation = new AccessOrder();
+    private final AccessOrder protectedRegion = new AccessOrder();
+    private final FrequencySketch sketch;
+    private final LongAdder evictions = new LongAdder();
+
+    private final int windowMax;
+    private final int mainMax;
+    private final int protectedMax;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    TinyLfuCache(int maximumSize, long ttlMillis, LongSupplier clock) {
+        int max = Math.max(1, maximumSize);
+        this.windowMax = Math.max(1, max / 100);
+        this.mainMax = max - windowMax;
+        this.protectedMax = mainMax * 8 / 10;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.sketch = new FrequencySketch(max);
+    }
+
+    /** A live entry's value and when it was last written. */
+    record Hit(String value, long writtenAt) {
+    }
+
+    String get(String key) {
+        Hit hit = getHit(key);
+        return hit == null ? null : hit.value();
+    }
+
+    /** Same as {@link #get}, plus the entry's write time (for soft-TTL checks). */
+    Hit getHit(String key) {
+        Node node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        long writtenAt = node.writtenAt;
+        if (clock.getAsLong() - writtenAt >= ttlMillis) {
+            remove(key, node);
+            return null;
+        }
+        if (policyLock.tryLock()) {
+            try {
+                onAccess(node);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        return new Hit(node.value, writtenAt);
+    }
+
+    void put(String key, String value) {
+        put(key, value, clock.getAsLong(), 1);
+    }
+
+    /** A live entry as captured by {@link #entries}. */
+    record Entry(String key, String value, long writtenAt, int frequency) {
+    }
+
+    /** Copies out every live entry with its write time and sketch frequency (for snapshots). */
+    List<Entry> entries() {
+        long now = clock.getAsLong();
+        policyLock.lock();
+        try {
+            List<Entry> entries = new ArrayList<>(data.size());
+            for (Node node : data.values()) {
+                if (now - node.writtenAt < ttlMillis) {
+                    entries.add(new Entry(node.key, node.value, node.writtenAt, sketch.frequency(node.hash)));
+                }
+            }
+            return entries;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Re-inserts a snapshot entry, keeping its original write time (so it
+     * expires when it would have) and its frequency (so admission still
+     * favours it). Already-expired entries are ignored.
+     */
+    void restore(Entry entry) {
+        if (clock.getAsLong() - entry.writtenAt() >= ttlMillis) {
+            return;
+        }
+        // Sketch counters saturate at 15
+        put(entry.key(), entry.value(), entry.writtenAt(), Math.min(15, Math.max(1, entry.frequency())));
+    }
+
+    private void put(String key, String value, long writtenAt, int frequency) {
+        policyLock.lock();
+        try {
+            Node existing = data.get(key);
+            if (existing != null) {
+                existing.value = value;
+                existing.writtenAt = writtenAt;
+                onAccess(existing);
+                return;
+            }
+            Node node = new Node(key, value, writtenAt);
+            for (int i = 0; i < frequency; i++) {
+                sketch.increment(node.hash);
+            }
+            data.put(key, node);
+            node.region = WINDOW;
+            window.addLast(node);
+            evictIfNeeded();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    void remove(String key) {
+        Node node = data.get(key);
+        if (node != null) {
+            remove(key, node);
+        }
+    }
+
+    void clear() {
+        policyLock.lock();
+        try {
+            data.clear();
+            window.clear();
+            probation.clear();
+            protectedRegion.clear();
+            sketch.clear();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    int size() {
+        return data.size();
+    }
+
+    long evictionCount() {
+        return evictions.sum();
+    }
+
+    private void remove(String key, Node node) {
+        policyLock.lock();
+        try {
+            if (data.remove(key, node)) {
+                regionOf(node).remove(node);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /** Under the policy lock: count the hit and move the entry per its region. */
+    private void onAccess(Node node) {
+        sketch.increment(node.hash);
+        if (node.prev == null) {
+            // Evicted or removed since the lock-free lookup
+            return;
+        }
+        switch (node.region) {
+            case WINDOW -> window.moveToLast(node);
+            case PROTECTED -> protectedRegion.moveToLast(node);
+            default -> {
+                probation.remove(node);
+                node.region = PROTECTED;
+                protectedRegion.addLast(node);
+                if (protectedRegion.size > protectedMax) {
+                    Node demoted = protectedRegion.removeFirst();
+                    demoted.region = PROBATION;
+                    probation.addLast(demoted);
+                }
+            }
+        }
+    }
+
+    /** Under the policy lock: spill the window into main, admitting by frequency. */
+    private void evictIfNeeded() {
+        while (window.size > windowMax) {
+            Node candidate = window.removeFirst();
+            if (probation.size + protectedRegion.size < mainMax) {
+                candidate.region = PROBATION;
+                probation.addLast(candidate);
+                continue;
+            }
+            Node victim = probation.size > 0 ? probation.first() : protectedRegion.first();
+            if (victim != null && sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+                regionOf(victim).remove(victim);
+                evict(victim);
+                candidate.region = PROBATION;
+                probation.addLast(candidate);
+            } else {
+                evict(candidate);
+            }
+        }
+    }
+
+    private void evict(Node node) {
+        data.remove(node.key, node);
+        evictions.increment();
+    }
+
+    private AccessOrder regionOf(Node node) {
+        return switch (node.region) {
+            case WINDOW -> window;
+            case PROBATION -> probation;
+            default -> protectedRegion;
+        };
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Node {
+        final String key;
+        final int hash;
+        volatile String value;
+        volatile long writtenAt;
+        int region;
+        Node prev;
+        Node next;
+
+        Node(String key, String value, long writtenAt) {
+            this.key = key;
+            this.hash = spread(key.hashCode());
+            this.value = value;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    /** Intrusive LRU list: head is the eldest entry, tail the most recent. */
+    private static final class AccessOrder {
+        private final Node head = new Node("", null, 0);
+        int size;
+
+        AccessOrder() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        Node first() {
+            return size == 0 ? null : head.next;
+        }
+
+        void addLast(Node node) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            size++;
+        }
+
+        void remove(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        Node removeFirst() {
+            Node first = head.next;
+            remove(first);
+            return first;
+        }
+
+        void moveToLast(Node node) {
+            remove(node);
+            addLast(node);
+        }
+
+        void clear() {
+            for (Node node = head.next; node != head; ) {
+                Node next = node.next;
+                node.prev = null;
+                node.next = null;
+                node = next;
+            }
+            head.prev = head;
+            head.next = head;
+            size = 0;
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package com.tripplanner.TripPlanner.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tripplanner.TripPlanner.service.AiCacheRefresher;
 import com.tripplanner.TripPlanner.service.AiCacheService;
+import com.tripplanner.TripPlanner.service.AiSingleFlight;
 import com.tripplanner.TripPlanner.service.AiUsageService;
+import com.tripplanner.TripPlanner.service.SemanticCacheIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -13,9 +17,11 @@ import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Guards the AI proxy's input validation: over-long prompts must be
@@ -25,10 +31,14 @@ import static org.mockito.Mockito.verify;
 class AiInsightsControllerTest {
 
     private final AiCacheService cacheService = mock(AiCacheService.class);
+    private final SemanticCacheIndex semanticCache = mock(SemanticCacheIndex.class);
+    private final AiCacheRefresher cacheRefresher = mock(AiCacheRefresher.class);
 
     private AiInsightsController controller() {
+        when(cacheService.cacheKey(anyString(), anyString())).thenReturn("key");
         return new AiInsightsController(
-                cacheService, mock(AiUsageService.class), new ObjectMapper());
+                cacheService, mock(AiUsageService.class), new ObjectMapper(),
+                new AiSingleFlight(new SimpleMeterRegistry()), cacheRefresher, semanticCache);
     }
 
     @Test
@@ -76,7 +86,58 @@ class AiInsightsControllerTest {
                 new MockHttpServletRequest());
 
         verify(cacheService, never()).get(anyString());
+        verify(cacheService, never()).lookup(anyString());
         verify(cacheService, never()).put(anyString(), anyString());
+        verify(semanticCache, never()).find(anyString(), anyString(), anyString());
+        verify(semanticCache, never()).remember(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void cacheHitStoredByStreamServesResultWithoutRecording() {
+        AiInsightsController controller = controller();
+        ReflectionTestUtils.setField(controller, "agentUrl", "http://localhost:1");
+        when(cacheService.lookup("key")).thenReturn(new AiCacheService.Lookup(
+                StreamRecording.withResult("[[10,\"event:stage\\ndata:{}\\n\\n\"]]", "{\"success\":true}"), false));
+
+        ResponseEntity<?> response = controller.generateInsights(
+                Map.of("message", "Kyiv to Lviv", "language", "en"), new MockHttpServletRequest());
+
+        assertEquals("HIT", response.getHeaders().getFirst("X-Cache-Status"));
+        assertEquals("{\"success\":true}", response.getBody());
+    }
+
+    @Test
+    void nearDuplicateHitIsServedWithoutAgentCall() {
+        // An unreachable agent would answer 500: the 200 comes from the cache
+        AiInsightsController controller = controller();
+        ReflectionTestUtils.setField(controller, "agentUrl", "http://localhost:1");
+        when(semanticCache.find("key", "from kyiv to lviv, tomorrow", "en")).thenReturn(
+                new SemanticCacheIndex.Match("other", new AiCacheService.Lookup("{\"success\":true}", false)));
+
+        ResponseEntity<?> response = controller.generateInsights(
+                Map.of("message", "from kyiv to lviv, tomorrow", "language", "en"), new MockHttpServletRequest());
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("SIMILAR", response.getHeaders().getFirst("X-Cache-Status"));
+        assertEquals("{\"success\":true}", response.getBody());
+        verify(cacheService, never()).put(anyString(), anyString());
+    }
+
+    @Test
+    void staleNearDuplicateHitIsMarkedButNotRefreshedWithItsOwnPrompt() {
+        AiInsightsController controller = controller();
+        ReflectionTestUtils.setField(controller, "agentUrl", "http://localhost:1");
+        when(semanticCache.find("key", "from kyiv to lviv, tomorrow", "en")).thenReturn(
+                new SemanticCacheIndex.Match("other", new AiCacheService.Lookup("{\"success\":true}", true)));
+
+        ResponseEntity<?> response = controller.generateInsights(
+                Map.of("message", "from kyiv to lviv, tomorrow", "language", "en"), new MockHttpServletRequest());
+
+        assertEquals("SIMILAR_STALE", response.getHeaders().getFirst("X-Cache-Status"));
+        // Counted on the matched entry; renewing it with this prompt would store the wrong answer
+        verify(cacheRefresher).onHit("other", "from kyiv to lviv, tomorrow", "en", false);
+        verify(cacheRefresher, never()).onHit(anyString(), anyString(), anyString(), eq(true));
+        verify(semanticCache, never()).remember(anyString(), anyString(), anyString());
     }
 
     @Test
@@ -1,19 +1,28 @@
 package com.tripplanner.TripPlanner.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tripplanner.TripPlanner.filter.AiRateLimitingFilter;
+import com.tripplanner.TripPlanner.service.AiCacheRefresher;
 import com.tripplanner.TripPlanner.service.AiCacheService;
+import com.tripplanner.TripPlanner.service.AiSingleFlight;
 import com.tripplanner.TripPlanner.service.AiUsageService;
+import com.tripplanner.TripPlanner.service.SemanticCacheIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -34,6 +43,9 @@ class AiStreamControllerTest {
     private AiUsageService usageService;
     private HttpServletRequest httpRequest;
     private HttpServletResponse httpResponse;
+    private AiSingleFlight singleFlight;
+    private AiCacheRefresher cacheRefresher;
+    private SemanticCacheIndex semanticCache;
     private AiStreamController controller;
 
     @BeforeEach
@@ -42,7 +54,12 @@ class AiStreamControllerTest {
         usageService = mock(AiUsageService.class);
         httpRequest = mock(HttpServletRequest.class);
         httpResponse = mock(HttpServletResponse.class);
-        controller = new AiStreamController(cacheService, usageService, new ObjectMapper());
+        singleFlight = new AiSingleFlight(new SimpleMeterRegistry());
+        cacheRefresher = mock(AiCacheRefresher.class);
+        semanticCache = mock(SemanticCacheIndex.class);
+        controller = new AiStreamController(cacheService, usageService, new ObjectMapper(), singleFlight, cacheRefresher,
+                semanticCache, new SimpleMeterRegistry());
+        controller.initRelayExecutor();
         ReflectionTestUtils.setField(controller, "agentUrl", "http://localhost:1");
         when(usageService.logRequest(any(), any(), any(), any(), any())).thenReturn(1L);
         when(cacheService.cacheKey(anyString(), anyString())).thenReturn("key");
@@ -75,11 +92,99 @@ class AiStreamControllerTest {
 
     @Test
     void cacheHitEmitsResultWithoutContactingAgent() {
-        when(cacheService.get("key")).thenReturn("{\"success\":true}");
+        when(cacheService.lookup("key")).thenReturn(new AiCacheService.Lookup("{\"success\":true}", true));
         Object result = controller.streamInsights(request("Kyiv to Lviv"), httpRequest, httpResponse);
         assertInstanceOf(SseEmitter.class, result);
         // Cached body served → outcome logged as cached; upstream never dialed
         verify(usageService).logResponse(eq(1L), eq("success_cached"), isNull(), anyLong());
+        // Stale hits are still served; the refresher decides whether to renew
+        verify(cacheRefresher).onHit("key", "Kyiv to Lviv", "en", true);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void cacheHitReplaysRecordedProgressFramesBeforeResult() throws Exception {
+        StreamRecording recording = new StreamRecording(0);
+        recording.record(SseFrame.of("stage", "{\"stage\":\"parse\"}"), 40);
+        recording.record(SseFrame.of("stage", "{\"stage\":\"route\"}"), 90);
+        String stored = StreamRecording.withResult(recording.encode(new ObjectMapper()), "{\"success\":true}");
+        SseEmitter emitter = mock(SseEmitter.class);
+
+        controller.replayCached(emitter, stored, false);
+
+        InOrder inOrder = inOrder(emitter);
+        ArgumentCaptor<Set<ResponseBodyEmitter.DataWithMediaType>> frames = ArgumentCaptor.forClass(Set.class);
+        inOrder.verify(emitter, times(2)).send(frames.capture());
+        inOrder.verify(emitter).send(any(SseEmitter.SseEventBuilder.class));
+        inOrder.verify(emitter).complete();
+        assertEquals("event:stage\ndata:{\"stage\":\"parse\"}\n\n", sentText(frames.getAllValues().get(0)));
+        assertEquals("event:stage\ndata:{\"stage\":\"route\"}\n\n", sentText(frames.getAllValues().get(1)));
+    }
+
+    @Test
+    void cacheHitWithoutRecordingSendsResultAlone() throws Exception {
+        SseEmitter emitter = mock(SseEmitter.class);
+
+        controller.replayCached(emitter, "{\"success\":true}", true);
+
+        verify(emitter).send(any(SseEmitter.SseEventBuilder.class));
+        verify(emitter, never()).send(anySet());
+        verify(emitter).complete();
+    }
+
+    @Test
+    void identicalPromptAttachesToInFlightCall() {
+        AiSingleFlight.Flight leader = singleFlight.begin("key");
+
+        Object result = controller.streamInsights(request("Kyiv to Lviv"), httpRequest, httpResponse);
+        assertInstanceOf(SseEmitter.class, result);
+        // Marked before returning, so the rate limiter can give the global slot back
+        verify(httpRequest).setAttribute(AiRateLimitingFilter.SHARED_UPSTREAM_ATTRIBUTE, Boolean.TRUE);
+
+        singleFlight.finish(leader, "{\"success\":true}");
+        verify(usageService).logResponse(eq(1L), eq("success_shared"), isNull(), anyLong());
+    }
+
+    @Test
+    void followerOfFailedCallGetsErrorInsteadOfUncountedAgentCall() {
+        AiSingleFlight.Flight leader = singleFlight.begin("key");
+
+        controller.streamInsights(request("Kyiv to Lviv"), httpRequest, httpResponse);
+        singleFlight.finish(leader, null);
+
+        verify(usageService).logResponse(eq(1L), eq("error"), eq("shared_call_failed"), anyLong());
+        // No relay of its own was started for the follower
+        assertEquals(0, ((java.util.concurrent.ThreadPoolExecutor)
+                ReflectionTestUtils.getField(controller, "relayExecutor")).getTaskCount());
+    }
+
+    @Test
+    void saturatedRelayPoolShedsNewStreamsWith503() throws Exception {
+        ReflectionTestUtils.setField(controller, "relayMaxThreads", 1);
+        ReflectionTestUtils.setField(controller, "relayQueueCapacity", 1);
+        controller.initRelayExecutor();
+        java.util.concurrent.CountDownLatch release = new java.util.concurrent.CountDownLatch(1);
+        Runnable blocker = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        try {
+            assertTrue(controller.trySubmit(blocker));
+            assertTrue(controller.trySubmit(blocker));
+
+            Object result = controller.streamInsights(request("Kyiv to Lviv"), httpRequest, httpResponse);
+
+            assertInstanceOf(ResponseEntity.class, result);
+            assertEquals(503, ((ResponseEntity<?>) result).getStatusCode().value());
+            verify(usageService).logResponse(eq(1L), eq("rejected_capacity"), isNull(), anyLong());
+            // The flight was released, so the next identical request can lead
+            assertTrue(singleFlight.begin("key").leader());
+        } finally {
+            release.countDown();
+        }
     }
 
     @Test
@@ -189,21 +294,18 @@ class AiStreamControllerTest {
         CompletableFuture<HttpResponse<Stream<String>>> future = CompletableFuture.completedFuture(response);
         SseEmitter emitter = mock(SseEmitter.class);
 
-        controller.relay(future, emitter, false, "key", 1L, System.currentTimeMillis(), new AtomicReference<>());
+        controller.relay(future, broadcastTo(emitter), false, "key", "Kyiv to Lviv", "en", 1L,
+                System.currentTimeMillis(),
+                new AtomicReference<>(), null);
 
-        ArgumentCaptor<SseEmitter.SseEventBuilder> captor = ArgumentCaptor.forClass(SseEmitter.SseEventBuilder.class);
+        ArgumentCaptor<Set<ResponseBodyEmitter.DataWithMediaType>> captor = ArgumentCaptor.forClass(Set.class);
         verify(emitter).send(captor.capture());
-        // SseEventBuilder.build() packs framing text (e.g. "event:error\ndata:") as
-        // separate TEXT_PLAIN entries alongside the actual payload entry, so assert
-        // on membership/absence rather than the raw Set's size or iteration order.
-        Set<ResponseBodyEmitter.DataWithMediaType> built = captor.getValue().build();
-        boolean sawSanitizedPayload = built.stream()
-                .anyMatch(d -> "{\"error\":\"stream_failed\"}".equals(d.getData()));
-        assertTrue(sawSanitizedPayload, "expected sanitized error payload among sent data: " + built);
-        boolean leakedExceptionText = built.stream()
-                .map(d -> String.valueOf(d.getData()))
-                .anyMatch(s -> s.contains("boom") || s.contains("RuntimeException"));
-        assertFalse(leakedExceptionText, "exception text must not reach the emitter: " + built);
+        String sent = sentText(captor.getValue());
+        assertTrue(sent.contains("event:error\n"), "expected an error frame: " + sent);
+        assertTrue(sent.contains("data:{\"error\":\"stream_failed\"}\n"),
+                "expected sanitized error payload among sent data: " + sent);
+        assertFalse(sent.contains("boom") || sent.contains("RuntimeException"),
+                "exception text must not reach the emitter: " + sent);
         verify(emitter).complete();
         verify(emitter, never()).completeWithError(any());
         verify(usageService).logResponse(eq(1L), eq("error"), eq("boom"), anyLong());
@@ -220,9 +322,97 @@ class AiStreamControllerTest {
         CompletableFuture<HttpResponse<Stream<String>>> future = CompletableFuture.completedFuture(response);
         SseEmitter emitter = mock(SseEmitter.class);
 
-        controller.relay(future, emitter, false, "key", 1L, System.currentTimeMillis(), new AtomicReference<>());
+        controller.relay(future, broadcastTo(emitter), false, "key", "Kyiv to Lviv", "en", 1L,
+                System.currentTimeMillis(),
+                new AtomicReference<>(), null);
 
         verify(emitter).complete();
         verify(usageService).logResponse(eq(1L), eq("error"), eq("stream ended without terminal frame"), anyLong());
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void relay_passthroughForwardsUpstreamBytesAndCachesResult() throws Exception {
+        String body = "event: stage\r\ndata: {\"stage\":\"route\"}\r\n\r\n"
+                + "event: result\r\ndata: {\"success\":true,\"route\":{}}\r\n\r\n";
+        HttpResponse<InputStream> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(200);
+        when(response.body()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        SseEmitter emitter = mock(SseEmitter.class);
+
+        controller.relay(CompletableFuture.completedFuture(response), broadcastTo(emitter), true, "key",
+                "Kyiv to Lviv", "en", 1L, System.currentTimeMillis(), new AtomicReference<>(), null);
+
+        ArgumentCaptor<Set<ResponseBodyEmitter.DataWithMediaType>> captor = ArgumentCaptor.forClass(Set.class);
+        verify(emitter, times(2)).send(captor.capture());
+        assertEquals("event: stage\ndata: {\"stage\":\"route\"}\n\n", sentText(captor.getAllValues().get(0)));
+        assertEquals("event: result\ndata: {\"success\":true,\"route\":{}}\n\n", sentText(captor.getAllValues().get(1)));
+        // The stage frame is kept with the answer, in the one cache entry, for replaying it from cache
+        ArgumentCaptor<String> stored = ArgumentCaptor.forClass(String.class);
+        verify(cacheService).put(eq("key"), stored.capture());
+        verify(cacheService, never()).put(eq("key:frames"), anyString());
+        assertEquals("{\"success\":true,\"route\":{}}", StreamRecording.result(stored.getValue()));
+        List<StreamRecording.Frame> recorded = StreamRecording.decode(StreamRecording.recording(stored.getValue()),
+                new ObjectMapper());
+        assertEquals(1, recorded.size());
+        assertEquals("stage", recorded.get(0).frame().event());
+        // Indexed for near-duplicates only once the answer is there to serve
+        InOrder storedFirst = inOrder(cacheService, semanticCache);
+        storedFirst.verify(cacheService).put(eq("key"), anyString());
+        storedFirst.verify(semanticCache).remember("key", "Kyiv to Lviv", "en");
+        verify(emitter).complete();
+    }
+
+    @Test
+    void nearDuplicateHitCountsAsHitOnTheMatchedEntry() {
+        when(semanticCache.find("key", "from kyiv to lviv, tomorrow", "en")).thenReturn(
+                new SemanticCacheIndex.Match("other", new AiCacheService.Lookup("{\"success\":true}", true)));
+
+        Object result = controller.streamInsights(request("from kyiv to lviv, tomorrow"), httpRequest, httpResponse);
+
+        assertInstanceOf(SseEmitter.class, result);
+        verify(usageService).logResponse(eq(1L), eq("success_cached"), isNull(), anyLong());
+        // Served stale, but only counted: a refresh with this prompt would store its answer under the matched key
+        verify(cacheRefresher).onHit("other", "from kyiv to lviv, tomorrow", "en", false);
+        verify(cacheRefresher, never()).onHit(anyString(), anyString(), anyString(), eq(true));
+        verify(semanticCache, never()).remember(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void nearDuplicateAskedDuringFirstCallHitsOnceTheAnswerIsStored() throws Exception {
+        SemanticCacheIndex index = new SemanticCacheIndex(cacheService, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(index, "enabled", true);
+        AiStreamController controller = new AiStreamController(cacheService, usageService, new ObjectMapper(),
+                singleFlight, cacheRefresher, index, new SimpleMeterRegistry());
+        HttpResponse<InputStream> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(200);
+        when(response.body()).thenReturn(new ByteArrayInputStream(
+                "event: result\ndata: {\"success\":true,\"route\":{}}\n\n".getBytes(StandardCharsets.UTF_8)));
+
+        // The first prompt's answer is still coming: a near-duplicate misses...
+        assertNull(index.find("k2", "from kyiv to lviv, tomorrow", "en"));
+
+        controller.relay(CompletableFuture.completedFuture(response), broadcastTo(mock(SseEmitter.class)), true, "k1",
+                "Kyiv -> Lviv tomorrow", "en", 1L, System.currentTimeMillis(), new AtomicReference<>(), null);
+        when(cacheService.lookup("k1")).thenReturn(new AiCacheService.Lookup("{\"success\":true}", false));
+
+        // ...without costing the first prompt its place in the index
+        SemanticCacheIndex.Match match = index.find("k3", "from kyiv to lviv, tomorrow", "en");
+        assertEquals("k1", match.key());
+    }
+
+    private static String sentText(Set<ResponseBodyEmitter.DataWithMediaType> sent) {
+        StringBuilder text = new StringBuilder();
+        for (ResponseBodyEmitter.DataWithMediaType part : sent) {
+            text.append(new String((byte[]) part.getData(), StandardCharsets.UTF_8));
+        }
+        return text.toString();
+    }
+
+    private static StreamBroadcast broadcastTo(SseEmitter emitter) {
+        StreamBroadcast broadcast = new StreamBroadcast(Runnable::run, abandoned -> { });
+        broadcast.subscribe(emitter, null);
+        return broadcast;
+    }
 }
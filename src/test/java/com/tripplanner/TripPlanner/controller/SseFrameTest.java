@@ -0,0 +1,99 @@
+package com.tripplanner.TripPlanner.controller;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SseFrameTest {
+
+    @Test
+    void lfFramesPassThroughByteForByte() throws IOException {
+        List<SseFrame> frames = read("event: stage\ndata: {\"stage\":\"parse\"}\n\nevent:result\ndata:{}\n\n");
+
+        assertEquals(2, frames.size());
+        assertEquals("stage", frames.get(0).event());
+        assertEquals("event: stage\ndata: {\"stage\":\"parse\"}\n\n", text(frames.get(0)));
+        assertEquals("{\"stage\":\"parse\"}", frames.get(0).data());
+        assertEquals("result", frames.get(1).event());
+        assertEquals("{}", frames.get(1).data());
+    }
+
+    @Test
+    void crlfAndCrLineEndsAreNormalisedToLf() throws IOException {
+        List<SseFrame> frames = read("event: stage\r\ndata: a\r\n\r\nevent: result\rdata: b\r\r");
+
+        assertEquals(2, frames.size());
+        assertEquals("event: stage\ndata: a\n\n", text(frames.get(0)));
+        assertEquals("event: result\ndata: b\n\n", text(frames.get(1)));
+    }
+
+    @Test
+    void framesWithoutEventAndTrailingPartialFrameAreDropped() throws IOException {
+        List<SseFrame> frames = read(": keep-alive\ndata: orphan\n\nevent: result\ndata: {}\n\nevent: stage\ndata: cut");
+
+        assertEquals(1, frames.size());
+        assertEquals("result", frames.get(0).event());
+    }
+
+    @Test
+    void framesSplitAcrossReadsAreReassembled() throws IOException {
+        byte[] body = "event: result\ndata: {\"valid\":true}\n\n".getBytes(StandardCharsets.UTF_8);
+        List<SseFrame> frames = new ArrayList<>();
+        // One byte per read: every line end and frame boundary straddles a refill
+        SseFrame.readFrames(new InputStream() {
+            int i;
+
+            @Override
+            public int read() {
+                return i < body.length ? body[i++] : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (i == body.length) {
+                    return -1;
+                }
+                b[off] = body[i++];
+                return 1;
+            }
+        }, frames::add);
+
+        assertEquals(1, frames.size());
+        assertEquals("{\"valid\":true}", frames.get(0).data());
+    }
+
+    @Test
+    void ofSplitsMultilineDataAndDataJoinsItBack() {
+        SseFrame frame = SseFrame.of("result", "line one\nline two");
+
+        assertEquals("event:result\ndata:line one\ndata:line two\n\n", text(frame));
+        assertEquals("line one\nline two", frame.data());
+    }
+
+    @Test
+    void overlongFrameIsRefused() {
+        byte[] body = new byte[SseFrame.MAX_FRAME_BYTES + 1];
+        Arrays.fill(body, (byte) 'x');
+
+        assertThrows(IOException.class, () -> SseFrame.readFrames(new ByteArrayInputStream(body), frame -> { }));
+    }
+
+    private static List<SseFrame> read(String body) throws IOException {
+        List<SseFrame> frames = new ArrayList<>();
+        SseFrame.readFrames(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), frames::add);
+        return frames;
+    }
+
+    private static String text(SseFrame frame) {
+        return new String(frame.bytes(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,148 @@
+package com.tripplanner.TripPlanner.controller;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class StreamBroadcastTest {
+
+    private final AtomicInteger abandoned = new AtomicInteger();
+    private final StreamBroadcast broadcast = new StreamBroadcast(Runnable::run, b -> abandoned.incrementAndGet());
+
+    @Test
+    void lateJoinerGetsReplayThenLiveTail() {
+        List<String> first = new ArrayList<>();
+        List<String> late = new ArrayList<>();
+        broadcast.subscribe(mock(SseEmitter.class), frame -> first.add(frame.event()));
+
+        broadcast.publish(SseFrame.of("stage", "{\"stage\":\"parse\"}"));
+        broadcast.publish(SseFrame.of("stage", "{\"stage\":\"geocode\"}"));
+        assertTrue(broadcast.subscribe(mock(SseEmitter.class), frame -> late.add(frame.event() + ":" + frame.data())));
+        broadcast.publish(SseFrame.of("result", "{}"));
+
+        assertEquals(List.of("stage", "stage", "result"), first);
+        assertEquals(List.of("stage:{\"stage\":\"parse\"}", "stage:{\"stage\":\"geocode\"}", "result:{}"), late);
+    }
+
+    @Test
+    void lastSubscriberLeavingAbandonsTheStream() {
+        SseEmitter one = mock(SseEmitter.class);
+        SseEmitter two = mock(SseEmitter.class);
+        broadcast.subscribe(one, null);
+        broadcast.subscribe(two, null);
+
+        disconnect(one);
+        assertEquals(0, abandoned.get());
+        disconnect(two);
+
+        assertEquals(1, abandoned.get());
+        assertFalse(broadcast.subscribe(mock(SseEmitter.class), null));
+    }
+
+    @Test
+    void completedOrOverlongStreamsAreNotJoinable() {
+        SseEmitter emitter = mock(SseEmitter.class);
+        broadcast.subscribe(emitter, null);
+        for (int i = 0; i <= StreamBroadcast.MAX_REPLAY_FRAMES; i++) {
+            broadcast.publish(SseFrame.of("stage", "{}"));
+        }
+        assertFalse(broadcast.subscribe(mock(SseEmitter.class), null));
+
+        broadcast.complete();
+        verify(emitter).complete();
+        // Completion is not abandonment: the upstream already finished
+        disconnect(emitter);
+        assertEquals(0, abandoned.get());
+    }
+
+    @Test
+    void stalledClientHoldsUpNeitherPublisherNorOtherClients() throws Exception {
+        ExecutorService delivery = Executors.newFixedThreadPool(2);
+        StallingEmitter stalled = new StallingEmitter();
+        try {
+            StreamBroadcast shared = new StreamBroadcast(delivery, b -> abandoned.incrementAndGet());
+            CountDownLatch healthyGotResult = new CountDownLatch(1);
+            shared.subscribe(stalled, null);
+            shared.subscribe(mock(SseEmitter.class), frame -> healthyGotResult.countDown());
+
+            long start = System.nanoTime();
+            shared.publish(SseFrame.of("result", "{}"));
+            shared.complete();
+
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+            assertTrue(healthyGotResult.await(2, TimeUnit.SECONDS));
+            assertEquals(1, stalled.completed.getCount());
+            stalled.unstall.countDown();
+            // Completed only after its queued frame went out
+            assertTrue(stalled.completed.await(2, TimeUnit.SECONDS));
+        } finally {
+            stalled.unstall.countDown();
+            delivery.shutdownNow();
+        }
+    }
+
+    @Test
+    void clientTooFarBehindIsDropped() throws Exception {
+        List<Runnable> pendingDrains = new ArrayList<>();
+        StreamBroadcast shared = new StreamBroadcast(pendingDrains::add, b -> abandoned.incrementAndGet());
+        SseEmitter slow = mock(SseEmitter.class);
+        shared.subscribe(slow, null);
+
+        // No drain ever runs: the client's queue fills up
+        for (int i = 0; i <= StreamBroadcast.MAX_PENDING_FRAMES; i++) {
+            shared.publish(SseFrame.of("stage", "{}"));
+        }
+
+        verify(slow).completeWithError(any(Throwable.class));
+        assertEquals(0, shared.subscriberCount());
+        assertEquals(1, abandoned.get());
+        // Its drain, once it runs, sends nothing
+        pendingDrains.forEach(Runnable::run);
+        verify(slow, never()).send(anySet());
+    }
+
+    private static void disconnect(SseEmitter emitter) {
+        ArgumentCaptor<Runnable> onCompletion = ArgumentCaptor.forClass(Runnable.class);
+        verify(emitter).onCompletion(onCompletion.capture());
+        onCompletion.getValue().run();
+    }
+
+    /** A client whose writes block until released. */
+    private static final class StallingEmitter extends SseEmitter {
+        final CountDownLatch unstall = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public void send(Set<ResponseBodyEmitter.DataWithMediaType> items) {
+            try {
+                unstall.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+    }
+}
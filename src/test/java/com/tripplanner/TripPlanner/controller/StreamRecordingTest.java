@@ -0,0 +1,88 @@
+package com.tripplanner.TripPlanner.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamRecordingTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void roundTripsFramesWithGapsBetweenThem() {
+        StreamRecording recording = new StreamRecording(1_000);
+        SseFrame parse = SseFrame.of("stage", "{\"stage\":\"parse\"}");
+        SseFrame geocode = SseFrame.of("stage", "{\"stage\":\"geocode\"}");
+        recording.record(parse, 1_120);
+        recording.record(geocode, 1_900);
+
+        List<StreamRecording.Frame> frames = StreamRecording.decode(recording.encode(objectMapper), objectMapper);
+
+        assertEquals(2, frames.size());
+        assertEquals(120, frames.get(0).gapMs());
+        assertEquals(780, frames.get(1).gapMs());
+        assertEquals("stage", frames.get(1).frame().event());
+        assertArrayEquals(geocode.bytes(), frames.get(1).frame().bytes());
+    }
+
+    @Test
+    void emptyOrOverlongStreamsAreNotRecorded() {
+        assertNull(new StreamRecording(0).encode(objectMapper));
+
+        StreamRecording recording = new StreamRecording(0);
+        for (int i = 0; i <= StreamRecording.MAX_FRAMES; i++) {
+            recording.record(SseFrame.of("stage", "{}"), i);
+        }
+        assertNull(recording.encode(objectMapper));
+
+        StreamRecording large = new StreamRecording(0);
+        large.record(SseFrame.of("stage", "x".repeat(StreamRecording.MAX_BYTES)), 1);
+        assertNull(large.encode(objectMapper));
+    }
+
+    @Test
+    void missingOrUnreadableRecordingDecodesToNoFrames() {
+        assertTrue(StreamRecording.decode(null, objectMapper).isEmpty());
+        assertTrue(StreamRecording.decode("not json", objectMapper).isEmpty());
+        assertTrue(StreamRecording.decode("[[\"late\", 1]]", objectMapper).isEmpty());
+    }
+
+    @Test
+    void recordingTravelsInsideTheCachedResult() {
+        StreamRecording recording = new StreamRecording(0);
+        recording.record(SseFrame.of("stage", "{\"stage\":\"parse\"}"), 10);
+        String encoded = recording.encode(objectMapper);
+
+        String stored = StreamRecording.withResult(encoded, "{\"success\":true}");
+
+        assertEquals("{\"success\":true}", StreamRecording.result(stored));
+        assertEquals(encoded, StreamRecording.recording(stored));
+        assertEquals(1, StreamRecording.decode(StreamRecording.recording(stored), objectMapper).size());
+    }
+
+    @Test
+    void plainOrMalformedStoredValueIsAllResult() {
+        assertEquals("{\"success\":true}", StreamRecording.result("{\"success\":true}"));
+        assertNull(StreamRecording.recording("{\"success\":true}"));
+        assertNull(StreamRecording.result(null));
+        assertNull(StreamRecording.recording(null));
+        assertEquals("~frames:x:[]{}", StreamRecording.result("~frames:x:[]{}"));
+        assertEquals("~frames:99:[]{}", StreamRecording.result("~frames:99:[]{}"));
+        assertNull(StreamRecording.recording("~frames:99:[]{}"));
+    }
+
+    @Test
+    void rawFrameKeepsTextAndRereadsEventName() {
+        SseFrame frame = SseFrame.raw("event: stage\ndata: {}\n\n");
+
+        assertEquals("stage", frame.event());
+        assertEquals("event: stage\ndata: {}\n\n", new String(frame.bytes(), StandardCharsets.UTF_8));
+    }
+}
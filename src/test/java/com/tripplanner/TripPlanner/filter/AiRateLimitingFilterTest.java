@@ -16,15 +16,19 @@ import org.springframework.test.util.ReflectionTestUtils;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -109,6 +113,142 @@ class AiRateLimitingFilterTest {
 
     }
 
+    @Test
+    void requestServedFromAnotherCallsResultGivesGlobalSlotBack() throws Exception {
+        AiRateLimitingFilter filter = configuredFilter(100, 100, 10, 1);
+        FilterChain sharing = (req, res) -> req.setAttribute(AiRateLimitingFilter.SHARED_UPSTREAM_ATTRIBUTE, Boolean.TRUE);
+        FilterChain chain = mock(FilterChain.class);
+
+        authenticate("one@example.com", 1L);
+        assertEquals(200, invoke(filter, sharing).getStatus());
+        authenticate("two@example.com", 2L);
+        assertEquals(200, invoke(filter, chain).getStatus());
+        authenticate("three@example.com", 3L);
+
+        assertEquals(429, invoke(filter, chain).getStatus());
+    }
+
+    @Test
+    void backgroundRefreshesUseOnlyTheirShareOfTheGlobalBudget() throws Exception {
+        AiRateLimitingFilter filter = configuredFilter(100, 100, 100, 20);
+        FilterChain chain = mock(FilterChain.class);
+
+        // 10% of a 20-per-day global window
+        assertTrue(filter.tryReserveGlobal());
+        assertTrue(filter.tryReserveGlobal());
+        assertFalse(filter.tryReserveGlobal());
+
+        // Refreshes count against the global window users share
+        for (int i = 0; i < 18; i++) {
+            authenticate("user" + i + "@example.com", i);
+            assertEquals(200, invoke(filter, chain).getStatus());
+        }
+        authenticate("late@example.com", 99L);
+        assertEquals(429, invoke(filter, chain).getStatus());
+    }
+
+    @Test
+    void userRejectedRequestsRacingAtTheGlobalLimitLeaveNoGlobalCooldown() throws Exception {
+        int users = 2_000;
+        AiRateLimitingFilter filter = configuredFilter(100, 100, 1, users + 1);
+        ReflectionTestUtils.setField(filter, "maxUserBuckets", users * 2);
+        ReflectionTestUtils.setField(filter, "globalMinuteLimit", users + 1);
+        ReflectionTestUtils.setField(filter, "globalHourlyLimit", users + 1);
+        FilterChain chain = mock(FilterChain.class);
+        for (int i = 0; i < users; i++) {
+            authenticate("user" + i + "@example.com", i);
+            assertEquals(200, invoke(filter, chain).getStatus());
+        }
+
+        // Every user is at their own limit and one global slot is left: each
+        // request takes it for a moment, is rejected and gives it back, while
+        // the others see the global window full in the meantime
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = first; i < users; i += threads) {
+                        authenticate("user" + i + "@example.com", i);
+                        assertEquals(429, invoke(filter, chain).getStatus());
+                    }
+                    SecurityContextHolder.clearContext();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        authenticate("fresh@example.com", users + 1L);
+        assertEquals(200, invoke(filter, chain).getStatus());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void globalRejectionCausedByARolledBackSlotIsNotKeptAsCooldown() throws Exception {
+        AiRateLimitingFilter filter = configuredFilter(100, 100, 100, 2);
+        ReflectionTestUtils.setField(filter, "maxUserBuckets", 1);
+        FilterChain chain = mock(FilterChain.class);
+        authenticate("one@example.com", 1L);
+        assertEquals(200, invoke(filter, chain).getStatus());
+
+        // A new identity takes the last global slot, then is refused for
+        // identity capacity; while it still holds the slot, user one is
+        // refused for the global limit
+        AtomicReference<Integer> racedStatus = new AtomicReference<>();
+        AtomicBoolean armed = new AtomicBoolean();
+        ReflectionTestUtils.setField(filter, "userLimits", new ConcurrentHashMap<Object, Object>(
+                (Map<Object, Object>) ReflectionTestUtils.getField(filter, "userLimits")) {
+            @Override
+            public int size() {
+                if (armed.compareAndSet(true, false)) {
+                    Thread racer = new Thread(() -> {
+                        authenticate("one@example.com", 1L);
+                        try {
+                            racedStatus.set(invoke(filter, chain).getStatus());
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                    racer.start();
+                    try {
+                        racer.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.size();
+            }
+        });
+        armed.set(true);
+        authenticate("two@example.com", 2L);
+        assertEquals(429, invoke(filter, chain).getStatus());
+        assertEquals(429, racedStatus.get());
+
+        // The slot is back, and so is user one's access to it
+        authenticate("one@example.com", 1L);
+        assertEquals(200, invoke(filter, chain).getStatus());
+    }
+
+    @Test
+    void refreshIsRefusedWhenUsersHaveSpentTheGlobalBudget() throws Exception {
+        AiRateLimitingFilter filter = configuredFilter(100, 100, 100, 1);
+        authenticate("one@example.com", 1L);
+        assertEquals(200, invoke(filter, mock(FilterChain.class)).getStatus());
+
+        ReflectionTestUtils.setField(filter, "refreshShare", 1.0);
+        assertFalse(filter.tryReserveGlobal());
+    }
+
     @Test
     void repeatedGlobalQuotaRejectionsAvoidLockAndIdentityAllocation() throws Exception {
         AiRateLimitingFilter filter = configuredFilter(100, 100, 100, 1);
@@ -288,9 +428,9 @@ class AiRateLimitingFilterTest {
         authenticate("two@example.com", 2L);
         assertEquals(429, invoke(filter, chain).getStatus());
 
-        Object globalDaily = ReflectionTestUtils.getField(filter, "globalDaily");
-        AtomicInteger dailyCount = (AtomicInteger) ReflectionTestUtils.getField(globalDaily, "count");
-        dailyCount.set(0);
+        Object global = ReflectionTestUtils.getField(filter, "global");
+        AtomicLongArray windows = (AtomicLongArray) ReflectionTestUtils.getField(global, "windows");
+        windows.set(RateWindows.DAY, RateWindows.pack(System.currentTimeMillis(), 0));
         AtomicReference<?> cooldown = (AtomicReference<?>) ReflectionTestUtils.getField(filter, "globalCooldown");
         cooldown.set(null);
 
@@ -0,0 +1,113 @@
+package com.tripplanner.TripPlanner.filter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The rate limiter's admission path under contention: every AI request takes
+ * a slot in each global window, here followed by handing it back so the
+ * windows never fill. {@link RateWindows} (CAS on packed counters) against
+ * the monitor it replaced, which also built a wrapper per call.
+ *
+ * <p>Not a unit test. Run with:</p>
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.tripplanner.TripPlanner.filter.RateWindowsBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class RateWindowsBenchmark {
+
+    private static final int LIMIT = 1_000;
+
+    private final RateWindows windows = new RateWindows(System.currentTimeMillis());
+    private final Object lock = new Object();
+    private final Entry minute = new Entry(System.currentTimeMillis());
+    private final Entry hourly = new Entry(System.currentTimeMillis());
+    private final Entry daily = new Entry(System.currentTimeMillis());
+
+    @Benchmark
+    public boolean casWindows(Starts reserved) {
+        long now = System.currentTimeMillis();
+        if (windows.tryAcquire(now, LIMIT, LIMIT, LIMIT, reserved.starts) >= 0) {
+            return false;
+        }
+        windows.release(reserved.starts);
+        return true;
+    }
+
+    /** Per-thread buffer for the window starts of a reservation. */
+    @State(Scope.Thread)
+    public static class Starts {
+        final long[] starts = new long[3];
+    }
+
+    @Benchmark
+    public boolean synchronizedWindows() {
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            Entry[] entries = {minute, hourly, daily};
+            long[] windowMs = RateWindows.WINDOW_MS;
+            for (int i = 0; i < 3; i++) {
+                if (now - entries[i].windowStart.get() >= windowMs[i]) {
+                    entries[i].count.set(0);
+                    entries[i].windowStart.set(now);
+                }
+            }
+            for (Entry entry : entries) {
+                if (entry.count.get() >= LIMIT) {
+                    return false;
+                }
+            }
+            for (Entry entry : entries) {
+                entry.count.incrementAndGet();
+            }
+        }
+        synchronized (lock) {
+            for (Entry entry : new Entry[]{minute, hourly, daily}) {
+                if (entry.windowStart.get() <= now && entry.count.get() > 0) {
+                    entry.count.decrementAndGet();
+                }
+            }
+        }
+        return true;
+    }
+
+    /** The per-window state the filter kept before {@link RateWindows}. */
+    private static final class Entry {
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicLong windowStart;
+
+        Entry(long windowStart) {
+            this.windowStart = new AtomicLong(windowStart);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(RateWindowsBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,162 @@
+package com.tripplanner.TripPlanner.filter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Lock-free windows must never admit past a limit, and a refused or
+ * released acquisition must leave every window as it found it.
+ */
+class RateWindowsTest {
+
+    private static final long NOW = 1_800_000_000_000L;
+
+    @Test
+    void refusalNamesTheFullWindowAndTakesNothing() {
+        RateWindows windows = new RateWindows(NOW);
+        assertEquals(-1, windows.tryAcquire(NOW, 5, 5, 1));
+
+        assertEquals(RateWindows.DAY, windows.tryAcquire(NOW, 5, 5, 1));
+        assertEquals(1, windows.count(RateWindows.MINUTE, NOW));
+        assertEquals(1, windows.count(RateWindows.HOUR, NOW));
+    }
+
+    @Test
+    void expiredWindowStartsAfresh() {
+        RateWindows windows = new RateWindows(NOW);
+        assertEquals(-1, windows.tryAcquire(NOW, 1, 5, 5));
+        assertEquals(RateWindows.MINUTE, windows.tryAcquire(NOW + 59_999, 1, 5, 5));
+
+        long later = NOW + 60_000;
+        assertEquals(-1, windows.tryAcquire(later, 1, 5, 5));
+        assertEquals(later, windows.start(RateWindows.MINUTE, later));
+        assertEquals(NOW, windows.start(RateWindows.HOUR, later));
+        assertEquals(2, windows.count(RateWindows.HOUR, later));
+    }
+
+    @Test
+    void releaseSkipsWindowsThatRolledOver() {
+        RateWindows windows = new RateWindows(NOW);
+        long[] starts = new long[3];
+        windows.tryAcquire(NOW, 5, 5, 5, starts);
+        long later = NOW + 60_000;
+        windows.tryAcquire(later, 5, 5, 5);
+
+        // Reserved before the minute window restarted: only hour and day give it back
+        windows.release(starts);
+        assertEquals(1, windows.count(RateWindows.MINUTE, later));
+        assertEquals(1, windows.count(RateWindows.HOUR, later));
+        assertEquals(1, windows.count(RateWindows.DAY, later));
+    }
+
+    @Test
+    void releaseGoesByWindowStartNotByTime() {
+        RateWindows windows = new RateWindows(NOW - 60_000);
+        long[] starts = new long[3];
+        // Opens a new minute window at NOW; hour and day keep their earlier start
+        windows.tryAcquire(NOW, 5, 5, 5, starts);
+        assertArrayEquals(new long[]{NOW, NOW - 60_000, NOW - 60_000}, starts);
+
+        // After the minute rolls over, the slot goes back to the hour and day
+        // windows it was taken in, not to the new minute
+        long later = NOW + 60_000;
+        windows.tryAcquire(later, 5, 5, 5);
+        windows.release(starts);
+        assertEquals(1, windows.count(RateWindows.MINUTE, later));
+        assertEquals(1, windows.count(RateWindows.HOUR, later));
+        assertEquals(1, windows.count(RateWindows.DAY, later));
+
+        // A start that was never a window of this scope releases nothing
+        windows.release(new long[]{later - 1, NOW, NOW});
+        assertEquals(1, windows.count(RateWindows.MINUTE, later));
+        assertEquals(1, windows.count(RateWindows.HOUR, later));
+    }
+
+    @Test
+    void packedFieldsRoundTrip() {
+        long packed = RateWindows.pack(NOW, RateWindows.MAX_COUNT);
+        assertEquals(NOW, RateWindows.start(packed));
+        assertEquals(RateWindows.MAX_COUNT, RateWindows.count(packed));
+    }
+
+    @Test
+    void concurrentAcquisitionsNeverExceedTheTightestWindow() throws Exception {
+        // Hour is the tightest window, so minute slots taken by losers of the
+        // last hour slot must all be given back
+        RateWindows windows = new RateWindows(NOW);
+        int threads = 16;
+        int attemptsPerThread = 2_000;
+        int hourLimit = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    int admitted = 0;
+                    for (int i = 0; i < attemptsPerThread; i++) {
+                        if (windows.tryAcquire(NOW, 100_000, hourLimit, 100_000) < 0) {
+                            admitted++;
+                        }
+                    }
+                    return admitted;
+                }));
+            }
+            start.countDown();
+            int admitted = 0;
+            for (Future<Integer> future : futures) {
+                admitted += future.get();
+            }
+
+            assertEquals(hourLimit, admitted);
+            assertEquals(hourLimit, windows.count(RateWindows.MINUTE, NOW));
+            assertEquals(hourLimit, windows.count(RateWindows.HOUR, NOW));
+            assertEquals(hourLimit, windows.count(RateWindows.DAY, NOW));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentAcquireAndReleaseLeavesNothingBehind() throws Exception {
+        RateWindows windows = new RateWindows(NOW);
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    long[] starts = new long[3];
+                    for (int i = 0; i < 5_000; i++) {
+                        if (windows.tryAcquire(NOW, 8, 8, 8, starts) < 0) {
+                            windows.release(starts);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            for (int window = 0; window < 3; window++) {
+                assertEquals(0, windows.count(window, NOW));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.tripplanner.TripPlanner.routing;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tree-model (Map.class) vs streaming parse of a Mapbox directions payload.
+ *
+ * <p>Not a unit test. Run with the GC profiler to see allocation per call:</p>
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.tripplanner.TripPlanner.routing.DirectionsParserBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectionsParserBenchmark {
+
+    @Param({"500", "20000"})
+    int points;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder(points * 40);
+        sb.append("{\"code\":\"Ok\",\"routes\":[{\"geometry\":{\"coordinates\":[");
+        for (int i = 0; i < points; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('[').append(30.523456 + i * 1e-4).append(',').append(50.450123 + i * 1e-4).append(']');
+        }
+        sb.append("],\"type\":\"LineString\"},\"legs\":[{\"summary\":\"\",\"weight\":1200.5,")
+            .append("\"duration\":1100.2,\"steps\":[],\"distance\":15000.1}],")
+            .append("\"weight_name\":\"auto\",\"weight\":1200.5,\"duration\":1100.2,\"distance\":15000.1}],")
+            .append("\"waypoints\":[{\"distance\":1.2,\"name\":\"\",\"location\":[30.52,50.45]},")
+            .append("{\"distance\":3.4,\"name\":\"\",\"location\":[30.6,50.5]}],\"uuid\":\"abc\"}");
+        payload = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** The pre-streaming path: Map/List tree, then flatten into [lat, lng, ...]. */
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public double[] treeModel() throws IOException {
+        Map<String, Object> data = objectMapper.readValue(payload, Map.class);
+        Map<String, Object> route = (Map<String, Object>) ((List<?>) data.get("routes")).get(0);
+        Map<String, Object> geometry = (Map<String, Object>) route.get("geometry");
+        List<List<Number>> lngLat = (List<List<Number>>) geometry.get("coordinates");
+        double[] latLng = new double[lngLat.size() * 2];
+        int i = 0;
+        for (List<Number> coord : lngLat) {
+            latLng[i++] = coord.get(1).doubleValue();
+            latLng[i++] = coord.get(0).doubleValue();
+        }
+        return latLng;
+    }
+
+    @Benchmark
+    public double[] streaming() throws IOException {
+        return DirectionsParser.parse(payload).latLng();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(DirectionsParserBenchmark.class.getSimpleName())
+            .addProfiler("gc")
+            .build()).run();
+    }
+}
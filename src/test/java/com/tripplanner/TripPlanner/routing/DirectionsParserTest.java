@@ -0,0 +1,53 @@
+package com.tripplanner.TripPlanner.routing;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DirectionsParserTest {
+
+    private static DirectionsParser.Directions parse(String json) throws Exception {
+        return DirectionsParser.parse(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void readsFirstRouteAndFlipsCoordinatesToLatLng() throws Exception {
+        DirectionsParser.Directions directions = parse("""
+            {"waypoints":[{"location":[1,2]}],
+             "routes":[
+               {"legs":[{"steps":[],"distance":1}],"distance":15000.5,"duration":1200,
+                "geometry":{"type":"LineString","coordinates":[[30.52,50.45],[24.03,49.84,312.0]]}},
+               {"distance":1,"duration":1,"geometry":{"coordinates":[[0,0],[1,1]]}}
+             ],
+             "code":"Ok"}
+            """);
+
+        assertThat(directions.code()).isEqualTo("Ok");
+        assertThat(directions.distanceMeters()).isEqualTo(15000.5);
+        assertThat(directions.durationSeconds()).isEqualTo(1200);
+        assertThat(directions.latLng()).containsExactly(50.45, 30.52, 49.84, 24.03);
+    }
+
+    @Test
+    void errorResponseHasCodeAndMessageButNoRoute() throws Exception {
+        DirectionsParser.Directions directions = parse("""
+            {"code":"NoRoute","message":"No route found","routes":[]}
+            """);
+
+        assertThat(directions.code()).isEqualTo("NoRoute");
+        assertThat(directions.message()).isEqualTo("No route found");
+        assertThat(directions.latLng()).isNull();
+        assertThat(directions.distanceMeters()).isNaN();
+    }
+
+    @Test
+    void rejectsNonNumericCoordinates() {
+        assertThatThrownBy(() -> parse("""
+            {"code":"Ok","routes":[{"geometry":{"coordinates":[["a","b"]]}}]}
+            """)).isInstanceOf(JsonParseException.class);
+    }
+}
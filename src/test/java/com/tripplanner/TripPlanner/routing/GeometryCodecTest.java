@@ -0,0 +1,76 @@
+package com.tripplanner.TripPlanner.routing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class GeometryCodecTest {
+
+    @Test
+    void polyline6RoundTripsAtMicrodegreePrecision() {
+        double[] route = {50.450100, 30.523400, 49.839683, 24.029717, -33.868820, 151.209296};
+
+        double[] decoded = GeometryCodec.decodePolyline6(GeometryCodec.encodePolyline6(route));
+
+        assertThat(decoded).containsExactly(route, within(1e-6));
+    }
+
+    @Test
+    void polyline6DecoderRejectsMalformedInput() {
+        String valid = GeometryCodec.encodePolyline6(new double[]{50.45, 30.52, 49.84, 24.03});
+
+        assertThatThrownBy(() -> GeometryCodec.decodePolyline6("not json at all"))
+            .isInstanceOf(IllegalArgumentException.class);
+        // Cut mid-varint
+        assertThatThrownBy(() -> GeometryCodec.decodePolyline6(valid.substring(0, valid.length() - 1)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void float32IsLittleEndianLatLngPairs() {
+        byte[] bytes = Base64.getDecoder().decode(GeometryCodec.encodeFloat32(new double[]{50.45, 30.52}));
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertThat(bytes).hasSize(8);
+        assertThat(buffer.getFloat()).isEqualTo(50.45f);
+        assertThat(buffer.getFloat()).isEqualTo(30.52f);
+    }
+
+    @Test
+    void float32DecoderRejectsUnpairedOrInvalidInput() {
+        assertThat(GeometryCodec.decodeFloat32(GeometryCodec.encodeFloat32(new double[]{50.45, 30.52})))
+            .containsExactly(50.45f, 30.52f);
+        assertThatThrownBy(() -> GeometryCodec.decodeFloat32(GeometryCodec.encodeFloat32(new double[]{50.45})))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> GeometryCodec.decodeFloat32("not base64!"))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void formatParameterDefaultsToGeoJson() {
+        assertThat(GeometryCodec.Format.fromParameter(null)).isEqualTo(GeometryCodec.Format.GEOJSON);
+        assertThat(GeometryCodec.Format.fromParameter("Polyline6")).isEqualTo(GeometryCodec.Format.POLYLINE6);
+        assertThatThrownBy(() -> GeometryCodec.Format.fromParameter("wkb"))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void formatNamesDoNotDependOnDefaultLocale() {
+        // Turkish lowercases 'I' to a dotless 'ı'
+        Locale previous = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+        try {
+            assertThat(GeometryCodec.Format.fromParameter("POLYLINE6")).isEqualTo(GeometryCodec.Format.POLYLINE6);
+            assertThat(GeometryCodec.Format.POLYLINE6.parameterValue()).isEqualTo("polyline6");
+        } finally {
+            Locale.setDefault(previous);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.tripplanner.TripPlanner.routing;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GeometrySimplifierTest {
+
+    @Test
+    void collinearPointsCollapseToEndpoints() {
+        double[] line = new double[202];
+        for (int i = 0; i <= 100; i++) {
+            line[2 * i] = 50.0;
+            line[2 * i + 1] = 30.0 + i * 0.001;
+        }
+
+        double[] simplified = GeometrySimplifier.simplify(line, 1);
+
+        assertThat(simplified).containsExactly(50.0, 30.0, 50.0, 30.1);
+    }
+
+    @Test
+    void keepsDeviationLargerThanTolerance() {
+        // Middle point sits ~111 m north of the straight line between its neighbours
+        double[] line = {50.0, 30.0, 50.001, 30.01, 50.0, 30.02};
+
+        assertThat(GeometrySimplifier.simplify(line, 50)).isSameAs(line);
+        assertThat(GeometrySimplifier.simplify(line, 200)).containsExactly(50.0, 30.0, 50.0, 30.02);
+    }
+
+    @Test
+    void zeroToleranceAndShortLinesAreReturnedUntouched() {
+        double[] twoPoints = {50.0, 30.0, 49.8, 24.0};
+        double[] threePoints = {50.0, 30.0, 50.0, 30.01, 50.0, 30.02};
+
+        assertThat(GeometrySimplifier.simplify(twoPoints, 1000)).isSameAs(twoPoints);
+        assertThat(GeometrySimplifier.simplify(threePoints, 0)).isSameAs(threePoints);
+    }
+}
@@ -0,0 +1,85 @@
+package com.tripplanner.TripPlanner.routing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProviderCircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    private ProviderCircuitBreaker breaker() {
+        RoutingProperties.CircuitBreaker config = new RoutingProperties.CircuitBreaker();
+        config.setWindowSize(10);
+        config.setMinimumCalls(4);
+        config.setFailureRateThreshold(0.5);
+        config.setOpenSeconds(30);
+        return new ProviderCircuitBreaker("osrm-1", config, now::get);
+    }
+
+    @Test
+    void opensOnceErrorRateCrossesThresholdWithEnoughCalls() {
+        ProviderCircuitBreaker breaker = breaker();
+        breaker.record(false, 100);
+        breaker.record(false, 100);
+        // Two failures out of two: over threshold, but below minimumCalls
+        assertThat(breaker.allowsRequests()).isTrue();
+
+        breaker.record(true, 100);
+        breaker.record(false, 100);
+
+        assertThat(breaker.allowsRequests()).isFalse();
+        assertThat(breaker.snapshot().state()).isEqualTo(ProviderCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void probeIsOnlyDueAfterCoolDownAndClosesOnSuccess() {
+        ProviderCircuitBreaker breaker = breaker();
+        for (int i = 0; i < 4; i++) {
+            breaker.record(false, 10_000);
+        }
+
+        assertThat(breaker.tryStartProbe()).isFalse();
+        now.addAndGet(30_000);
+        assertThat(breaker.tryStartProbe()).isTrue();
+        // Only one probe per cool-down
+        assertThat(breaker.tryStartProbe()).isFalse();
+        assertThat(breaker.allowsRequests()).isFalse();
+
+        breaker.probeFinished(true);
+
+        assertThat(breaker.allowsRequests()).isTrue();
+        assertThat(breaker.snapshot().calls()).isZero();
+    }
+
+    @Test
+    void failedProbeRestartsCoolDown() {
+        ProviderCircuitBreaker breaker = breaker();
+        for (int i = 0; i < 4; i++) {
+            breaker.record(false, 100);
+        }
+        now.addAndGet(30_000);
+        breaker.tryStartProbe();
+
+        breaker.probeFinished(false);
+
+        assertThat(breaker.allowsRequests()).isFalse();
+        now.addAndGet(29_000);
+        assertThat(breaker.tryStartProbe()).isFalse();
+    }
+
+    @Test
+    void failingProviderScoresBelowSlowOne() {
+        ProviderCircuitBreaker slow = breaker();
+        ProviderCircuitBreaker flaky = breaker();
+        for (int i = 0; i < 3; i++) {
+            slow.record(true, 4_000);
+        }
+        flaky.record(true, 100);
+        flaky.record(false, 100);
+
+        assertThat(slow.score()).isGreaterThan(flaky.score());
+    }
+}
@@ -1,16 +1,25 @@
 package com.tripplanner.TripPlanner.routing;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.test.web.client.ExpectedCount;
 import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.web.client.RestTemplate;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
 class RoutingServiceTest {
@@ -48,4 +57,256 @@ class RoutingServiceTest {
         assertThat(result.get("totalDistance")).isEqualTo(1.0);
         server.verify();
     }
+
+    @Test
+    void repeatedPlanWithinCoordinateGridIsServedFromCache() {
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        RoutingService service = new RoutingService(
+            restTemplate,
+            "pk.test-token",
+            "https://trip-calculate.online"
+        );
+
+        server.expect(requestTo(org.hamcrest.Matchers.startsWith(
+                "https://api.mapbox.com/directions/v5/mapbox/driving/")))
+            .andRespond(withSuccess(MAPBOX_OK, MediaType.APPLICATION_JSON));
+
+        var first = service.calculateRoute(List.of(
+            new RoutingController.Waypoint(50.4501, 30.5234),
+            new RoutingController.Waypoint(49.8397, 24.0297)
+        ));
+        // Sub-metre jitter from a re-dropped pin snaps to the same grid cell
+        var second = service.calculateRoute(List.of(
+            new RoutingController.Waypoint(50.450101, 30.523402),
+            new RoutingController.Waypoint(49.839698, 24.029701)
+        ));
+
+        assertThat(second).isEqualTo(first);
+        server.verify();
+    }
+
+    @Test
+    void hedgedModeLetsOsrmWinWhenMapboxIsSlow() {
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate)
+            .ignoreExpectOrder(true)
+            .build();
+        RoutingProperties properties = new RoutingProperties();
+        properties.getHedge().setEnabled(true);
+        properties.getHedge().setDelayMs(50);
+        RoutingService service = new RoutingService(
+            restTemplate, "pk.test-token", "https://trip-calculate.online",
+            properties, new SimpleMeterRegistry());
+
+        CountDownLatch mapboxReleased = new CountDownLatch(1);
+        server.expect(requestTo(org.hamcrest.Matchers.startsWith("https://api.mapbox.com/")))
+            .andRespond(request -> {
+                try {
+                    // Held until the race is decided and the loser is cancelled
+                    mapboxReleased.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return withSuccess(MAPBOX_OK, MediaType.APPLICATION_JSON).createResponse(request);
+            });
+        server.expect(ExpectedCount.between(0, 1),
+                requestTo(org.hamcrest.Matchers.startsWith("https://router.project-osrm.org/")))
+            .andRespond(withSuccess(OSRM_OK, MediaType.APPLICATION_JSON));
+        server.expect(ExpectedCount.between(0, 1),
+                requestTo(org.hamcrest.Matchers.startsWith("https://routing.openstreetmap.de/")))
+            .andRespond(withSuccess(OSRM_OK, MediaType.APPLICATION_JSON));
+
+        var result = service.calculateRoute(List.of(
+            new RoutingController.Waypoint(50.45, 30.52),
+            new RoutingController.Waypoint(49.84, 24.03)
+        ));
+        mapboxReleased.countDown();
+
+        assertThat(result.get("totalDistance")).isEqualTo(2.0);
+    }
+
+    @Test
+    void failingProviderIsReorderedBehindHealthyOne() {
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate)
+            .ignoreExpectOrder(true)
+            .build();
+        RoutingProperties properties = new RoutingProperties();
+        properties.getCache().setEnabled(false);
+        RoutingService service = new RoutingService(
+            restTemplate, null, "https://trip-calculate.online",
+            properties, new SimpleMeterRegistry());
+
+        // One failure is enough to rank osrm-1 behind osrm-2: later requests
+        // must not pay its error again while osrm-2 keeps answering
+        server.expect(ExpectedCount.once(),
+                requestTo(org.hamcrest.Matchers.startsWith("https://router.project-osrm.org/")))
+            .andRespond(withServerError());
+        server.expect(ExpectedCount.times(3),
+                requestTo(org.hamcrest.Matchers.startsWith("https://routing.openstreetmap.de/")))
+            .andRespond(withSuccess(OSRM_OK, MediaType.APPLICATION_JSON));
+
+        for (int i = 0; i < 3; i++) {
+            var result = service.calculateRoute(List.of(
+                new RoutingController.Waypoint(50.45, 30.52),
+                new RoutingController.Waypoint(49.84, 24.03)
+            ));
+            assertThat(result.get("totalDistance")).isEqualTo(2.0);
+        }
+
+        server.verify();
+        assertThat(service.providerHealth())
+            .filteredOn(provider -> provider.provider().equals("osrm-1"))
+            .singleElement()
+            .extracting(ProviderCircuitBreaker.Snapshot::errorRate)
+            .isEqualTo(1.0);
+    }
+
+    @Test
+    void asyncRouteReturnsBeforeProviderAnswers() {
+        CompletableFuture<RoutingTransport.Response> mapbox = new CompletableFuture<>();
+        RoutingService service = new RoutingService(
+            (url, headers) -> mapbox, "pk.test-token", "https://trip-calculate.online",
+            new RoutingProperties(), new SimpleMeterRegistry());
+
+        var pending = service.calculateRouteAsync(List.of(
+            new RoutingController.Waypoint(50.45, 30.52),
+            new RoutingController.Waypoint(49.84, 24.03)
+        ), RoutingService.RouteOptions.DEFAULT);
+
+        // No thread is parked on the provider: the caller already has a future
+        assertThat(pending).isNotDone();
+        mapbox.complete(new RoutingTransport.Response(200, MAPBOX_OK.getBytes(StandardCharsets.UTF_8)));
+        assertThat(pending.join().get("totalDistance")).isEqualTo(540.0);
+    }
+
+    @Test
+    void identicalConcurrentRequestsShareOneProviderCall() {
+        CompletableFuture<RoutingTransport.Response> mapbox = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RoutingService service = new RoutingService(
+            (url, headers) -> {
+                calls.incrementAndGet();
+                return mapbox;
+            },
+            "pk.test-token", "https://trip-calculate.online", new RoutingProperties(), registry);
+        List<RoutingController.Waypoint> waypoints = List.of(
+            new RoutingController.Waypoint(50.4501, 30.5234),
+            new RoutingController.Waypoint(49.8397, 24.0297)
+        );
+
+        var first = service.calculateRouteAsync(waypoints, RoutingService.RouteOptions.DEFAULT);
+        var second = service.calculateRouteAsync(waypoints,
+            new RoutingService.RouteOptions(null, null, GeometryCodec.Format.POLYLINE6));
+        mapbox.complete(new RoutingTransport.Response(200, MAPBOX_OK.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(calls).hasValue(1);
+        assertThat(first.join().get("totalDistance")).isEqualTo(540.0);
+        // The joiner still gets its own response shape
+        assertThat(second.join().get("geometryFormat")).isEqualTo("polyline6");
+        assertThat(registry.counter("routing.coalesced").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void straightLineFallbackUsesRequestedGeometryFormat() {
+        RoutingService service = new RoutingService(
+            (url, headers) -> CompletableFuture.completedFuture(new RoutingTransport.Response(500, new byte[0])),
+            "pk.test-token", "https://trip-calculate.online", new RoutingProperties(), new SimpleMeterRegistry());
+        List<RoutingController.Waypoint> waypoints = List.of(
+            new RoutingController.Waypoint(50.4501, 30.5234),
+            new RoutingController.Waypoint(49.8397, 24.0297)
+        );
+
+        var fallback = service.calculateRouteAsync(waypoints,
+            new RoutingService.RouteOptions(null, null, GeometryCodec.Format.POLYLINE6)).join();
+
+        assertThat(fallback.get("totalDistance")).isEqualTo(0);
+        assertThat(fallback.get("geometryFormat")).isEqualTo("polyline6");
+        assertThat(fallback.get("geometry"))
+            .isEqualTo(GeometryCodec.encodePolyline6(new double[]{50.4501, 30.5234, 49.8397, 24.0297}));
+    }
+
+    @Test
+    void matrixIsFetchedOnceThenServedFromCellCache() {
+        List<String> urls = new ArrayList<>();
+        RoutingService service = new RoutingService(
+            (url, headers) -> {
+                urls.add(url);
+                return CompletableFuture.completedFuture(new RoutingTransport.Response(200, """
+                    {"code":"Ok","durations":[[0,600],[660,0]],"distances":[[0,10000],[11000,0]]}
+                    """.getBytes(StandardCharsets.UTF_8)));
+            },
+            "pk.test-token", "https://trip-calculate.online", new RoutingProperties(), new SimpleMeterRegistry());
+        List<RoutingController.Waypoint> waypoints = List.of(
+            new RoutingController.Waypoint(50.45, 30.52),
+            new RoutingController.Waypoint(50.40, 30.60)
+        );
+
+        var first = service.calculateMatrixAsync(waypoints).join();
+        var second = service.calculateMatrixAsync(waypoints).join();
+
+        assertThat(urls).singleElement().asString()
+            .startsWith("https://api.mapbox.com/directions-matrix/v1/mapbox/driving/")
+            .contains("sources=0;1&destinations=0;1");
+        assertThat(first.get("source")).isEqualTo("mapbox");
+        assertThat((double[][]) first.get("distances")).isDeepEqualTo(new double[][] {{0, 10}, {11, 0}});
+        assertThat((double[][]) first.get("durations")).isDeepEqualTo(new double[][] {{0, 10}, {11, 0}});
+        assertThat(second.get("source")).isEqualTo("cache");
+        assertThat((double[][]) second.get("distances")).isDeepEqualTo(new double[][] {{0, 10}, {11, 0}});
+    }
+
+    @Test
+    void unreachableMatrixCellsFallBackToStraightLineEstimate() {
+        List<String> urls = new ArrayList<>();
+        RoutingService service = new RoutingService(
+            (url, headers) -> {
+                urls.add(url);
+                // Second leg has no road route
+                return CompletableFuture.completedFuture(new RoutingTransport.Response(200, """
+                    {"code":"Ok","durations":[[0,600],[null,0]],"distances":[[0,10000],[null,0]]}
+                    """.getBytes(StandardCharsets.UTF_8)));
+            },
+            null, "https://trip-calculate.online", new RoutingProperties(), new SimpleMeterRegistry());
+        List<RoutingController.Waypoint> waypoints = List.of(
+            new RoutingController.Waypoint(50.0, 30.0),
+            new RoutingController.Waypoint(50.0, 31.0)
+        );
+
+        var result = service.calculateMatrixAsync(waypoints).join();
+        service.calculateMatrixAsync(waypoints).join();
+
+        boolean[][] estimated = (boolean[][]) result.get("estimated");
+        double[][] distances = (double[][]) result.get("distances");
+        assertThat(estimated[0][1]).isFalse();
+        assertThat(estimated[1][0]).isTrue();
+        // One degree of longitude at 50°N ≈ 71.5 km, × 1.3 detour
+        assertThat(distances[1][0]).isBetween(92.0, 94.0);
+        assertThat(urls.get(0)).startsWith("https://router.project-osrm.org/table/v1/driving/");
+        // Estimates are never cached: only the missing cell's block is asked again
+        assertThat(urls.get(1)).contains("sources=1&destinations=0");
+    }
+
+    private static final String OSRM_OK = """
+        {
+          "code": "Ok",
+          "routes": [{
+            "distance": 2000,
+            "duration": 120,
+            "geometry": {"coordinates": [[30.52, 50.45], [24.03, 49.84]]}
+          }]
+        }
+        """;
+
+    private static final String MAPBOX_OK = """
+        {
+          "code": "Ok",
+          "routes": [{
+            "distance": 540000,
+            "duration": 21600,
+            "geometry": {"coordinates": [[30.5234, 50.4501], [27.0, 50.0], [24.0297, 49.8397]]}
+          }]
+        }
+        """;
 }
@@ -0,0 +1,104 @@
+package com.tripplanner.TripPlanner.routing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WaypointOptimizerTest {
+
+    private static final long BUDGET_MS = 5_000;
+
+    @Test
+    void untanglesStopsAlongALine() {
+        // Positions on a line, visited in a zig-zag order between fixed ends at 0 and 10
+        double[] x = {0, 7, 2, 9, 4, 1, 8, 3, 6, 5, 10};
+        double[][] cost = new double[x.length][x.length];
+        for (int i = 0; i < x.length; i++) {
+            for (int j = 0; j < x.length; j++) {
+                cost[i][j] = Math.abs(x[i] - x[j]);
+            }
+        }
+
+        WaypointOptimizer.Result result = WaypointOptimizer.optimize(cost, true, 8, BUDGET_MS, ForkJoinPool.commonPool());
+
+        assertThat(result.cost()).isEqualTo(10.0);
+        assertThat(result.order()).startsWith(0).endsWith(10);
+        assertThat(result.initialCost()).isGreaterThan(result.cost());
+    }
+
+    @Test
+    void findsBruteForceOptimumOnSmallAsymmetricInstances() {
+        Random random = new Random(42);
+        for (int instance = 0; instance < 20; instance++) {
+            int n = 8;
+            double[][] cost = new double[n][n];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    cost[i][j] = i == j ? 0 : 1 + random.nextInt(100);
+                }
+            }
+
+            WaypointOptimizer.Result result = WaypointOptimizer.optimize(cost, true, 32, BUDGET_MS, ForkJoinPool.commonPool());
+
+            assertThat(result.cost()).isEqualTo(bruteForce(cost));
+            assertThat(WaypointOptimizer.pathCost(cost, result.order())).isEqualTo(result.cost());
+        }
+    }
+
+    @Test
+    void openEndedTripKeepsStartAndNeverGetsWorse() {
+        Random random = new Random(7);
+        int n = 25;
+        double[][] xy = new double[n][2];
+        for (double[] point : xy) {
+            point[0] = random.nextDouble();
+            point[1] = random.nextDouble();
+        }
+        double[][] cost = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                cost[i][j] = Math.hypot(xy[i][0] - xy[j][0], xy[i][1] - xy[j][1]);
+            }
+        }
+
+        WaypointOptimizer.Result result = WaypointOptimizer.optimize(cost, false, 16, BUDGET_MS, ForkJoinPool.commonPool());
+
+        assertThat(result.order()).startsWith(0).containsExactlyInAnyOrder(IntStream.range(0, n).toArray());
+        assertThat(result.cost()).isLessThanOrEqualTo(result.initialCost());
+        assertThat(result.cost()).isLessThanOrEqualTo(
+            WaypointOptimizer.pathCost(cost, WaypointOptimizer.seed(cost, false, 0)));
+    }
+
+    /** Exhaustive search over the stops between the fixed start and end. */
+    private static double bruteForce(double[][] cost) {
+        int n = cost.length;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        return permute(cost, order, 1, n - 2);
+    }
+
+    private static double permute(double[][] cost, int[] order, int k, int last) {
+        if (k == last) {
+            return WaypointOptimizer.pathCost(cost, order);
+        }
+        double best = Double.MAX_VALUE;
+        for (int i = k; i <= last; i++) {
+            swap(order, k, i);
+            best = Math.min(best, permute(cost, order, k + 1, last));
+            swap(order, k, i);
+        }
+        return best;
+    }
+
+    private static void swap(int[] order, int i, int j) {
+        int tmp = order[i];
+        order[i] = order[j];
+        order[j] = tmp;
+    }
+}
@@ -0,0 +1,120 @@
+package com.tripplanner.TripPlanner.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tripplanner.TripPlanner.controller.StreamRecording;
+import com.tripplanner.TripPlanner.filter.AiRateLimitingFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Stale-while-revalidate: only stale, hot entries are refreshed, one refresh
+ * per key, and never without a slot from the rate limiter's refresh share.
+ */
+class AiCacheRefresherTest {
+
+    private final AiRateLimitingFilter rateLimiter = mock(AiRateLimitingFilter.class);
+    private final CountDownLatch agentReplies = new CountDownLatch(1);
+    private AiCacheRefresher refresher;
+
+    @BeforeEach
+    void setUp() {
+        refresher = spy(new AiCacheRefresher(mock(AiCacheService.class), rateLimiter,
+                new ObjectMapper(), new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(refresher, "agentUrl", "http://localhost:1");
+        refresher.init();
+        when(rateLimiter.tryReserveGlobal()).thenReturn(true);
+        // Stands in for the agent call, held open until the test lets it finish
+        doAnswer(invocation -> agentReplies.await(5, TimeUnit.SECONDS))
+                .when(refresher).refresh(anyString(), anyString(), anyString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        agentReplies.countDown();
+        refresher.shutdown();
+    }
+
+    @Test
+    void staleHotEntryIsRefreshedOnceInTheBackground() {
+        assertFalse(refresher.onHit("k", "Kyiv to Lviv", "en", true));
+        assertFalse(refresher.onHit("k", "Kyiv to Lviv", "en", true));
+        assertTrue(refresher.onHit("k", "Kyiv to Lviv", "en", true));
+        // Already refreshing
+        assertFalse(refresher.onHit("k", "Kyiv to Lviv", "en", true));
+
+        verify(refresher, timeout(1000)).refresh("k", "Kyiv to Lviv", "en");
+    }
+
+    @Test
+    void freshEntriesAreNeverRefreshed() {
+        for (int i = 0; i < 10; i++) {
+            assertFalse(refresher.onHit("k", "Kyiv to Lviv", "en", false));
+        }
+        verify(rateLimiter, never()).tryReserveGlobal();
+    }
+
+    @Test
+    void noBudgetMeansTheStaleEntryIsJustServed() {
+        when(rateLimiter.tryReserveGlobal()).thenReturn(false);
+        refresher.onHit("k", "Kyiv to Lviv", "en", true);
+        refresher.onHit("k", "Kyiv to Lviv", "en", true);
+
+        assertFalse(refresher.onHit("k", "Kyiv to Lviv", "en", true));
+        verify(refresher, never()).refresh(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void refreshKeepsTheStreamRecordingOfTheEntry() {
+        AiCacheService cache = mock(AiCacheService.class);
+        String recording = "[[10,\"event:stage\\ndata:{}\\n\\n\"]]";
+        when(cache.get("k")).thenReturn(StreamRecording.withResult(recording, "{\"success\":true,\"old\":true}"));
+        AiCacheRefresher plain = new AiCacheRefresher(cache, rateLimiter, new ObjectMapper(), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(plain, "agentUrl", "http://localhost:1");
+        RestTemplate agent = mock(RestTemplate.class);
+        ReflectionTestUtils.setField(plain, "restTemplate", agent);
+        when(agent.postForEntity(eq("http://localhost:1/parse-route"), any(HttpEntity.class), eq(String.class)))
+                .thenReturn(ResponseEntity.ok("{\"success\":true,\"route\":{}}"));
+
+        plain.refresh("k", "Kyiv to Lviv", "en");
+
+        verify(cache).put("k", StreamRecording.withResult(recording, "{\"success\":true,\"route\":{}}"));
+    }
+
+    @Test
+    void refreshOfAnEntryWithoutRecordingStoresJustTheAnswer() {
+        AiCacheService cache = mock(AiCacheService.class);
+        when(cache.get("k")).thenReturn("{\"success\":true,\"old\":true}");
+        AiCacheRefresher plain = new AiCacheRefresher(cache, rateLimiter, new ObjectMapper(), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(plain, "agentUrl", "http://localhost:1");
+        RestTemplate agent = mock(RestTemplate.class);
+        ReflectionTestUtils.setField(plain, "restTemplate", agent);
+        when(agent.postForEntity(eq("http://localhost:1/parse-route"), any(HttpEntity.class), eq(String.class)))
+                .thenReturn(ResponseEntity.ok("{\"success\":true,\"route\":{}}"));
+
+        plain.refresh("k", "Kyiv to Lviv", "en");
+
+        verify(cache).put("k", "{\"success\":true,\"route\":{}}");
+    }
+}
@@ -0,0 +1,115 @@
+package com.tripplanner.TripPlanner.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AiSingleFlightTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AiSingleFlight singleFlight = new AiSingleFlight(registry);
+
+    @Test
+    void followersShareTheLeadersResult() {
+        AiSingleFlight.Flight leader = singleFlight.begin("k");
+        AiSingleFlight.Flight follower = singleFlight.begin("k");
+
+        assertTrue(leader.leader());
+        assertFalse(follower.leader());
+        assertSame(leader.result(), follower.result());
+
+        singleFlight.finish(leader, "{\"success\":true}");
+
+        assertEquals("{\"success\":true}", follower.result().join());
+        assertEquals(1.0, registry.get("ai.coalesced").tag("scope", "local").counter().count());
+    }
+
+    @Test
+    void finishedFlightIsRetiredSoTheNextRequestLeads() {
+        AiSingleFlight.Flight first = singleFlight.begin("k");
+        singleFlight.finish(first, null);
+
+        assertTrue(singleFlight.begin("k").leader());
+    }
+
+    @Test
+    void finishIsIdempotentAndIgnoredForFollowers() {
+        AiSingleFlight.Flight leader = singleFlight.begin("k");
+        AiSingleFlight.Flight follower = singleFlight.begin("k");
+
+        singleFlight.finish(follower, "ignored");
+        assertFalse(leader.result().isDone());
+
+        singleFlight.finish(leader, "answer");
+        // The finally-block call after a successful finish must not overwrite it
+        singleFlight.finish(leader, null);
+        assertEquals("answer", follower.result().join());
+        singleFlight.finish(null, null);
+    }
+
+    @Test
+    void failedLeaderReleasesFollowersEmptyHanded() {
+        AiSingleFlight.Flight leader = singleFlight.begin("k");
+        AiSingleFlight.Flight follower = singleFlight.begin("k");
+
+        singleFlight.finish(leader, null);
+
+        assertNull(follower.result().join());
+    }
+
+    @Test
+    void prodContextHasOnlyTheRedisFlightAndItsGauge() {
+        @SuppressWarnings("unchecked")
+        RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+        @SuppressWarnings("unchecked")
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(ops);
+        when(ops.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+
+        SimpleMeterRegistry prodRegistry = new SimpleMeterRegistry();
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.getEnvironment().setActiveProfiles("prod");
+            context.registerBean(MeterRegistry.class, () -> prodRegistry);
+            context.registerBean("redisTemplate", RedisTemplate.class, () -> redisTemplate);
+            context.registerBean(AiCacheService.class, () -> mock(AiCacheService.class));
+            context.register(AiSingleFlight.class, RedisAiSingleFlight.class);
+            context.refresh();
+
+            assertEquals(1, context.getBeansOfType(AiSingleFlight.class).size());
+            AiSingleFlight bean = context.getBean(AiSingleFlight.class);
+            assertInstanceOf(RedisAiSingleFlight.class, bean);
+
+            bean.begin("k");
+            assertEquals(1.0, prodRegistry.get("ai.in.flight").gauge().value());
+        }
+    }
+
+    @Test
+    void otherProfilesHaveOnlyTheLocalFlight() {
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.getEnvironment().setActiveProfiles("staging");
+            context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+            context.register(AiSingleFlight.class, RedisAiSingleFlight.class);
+            context.refresh();
+
+            assertEquals(1, context.getBeansOfType(AiSingleFlight.class).size());
+            assertEquals(AiSingleFlight.class, context.getBean(AiSingleFlight.class).getClass());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.tripplanner.TripPlanner.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache key derivation, run on every AI request: the original pipeline
+ * (lowercase, regex, new MessageDigest, String.format per byte) against
+ * {@link CacheKeys}. Run with the gc profiler to compare allocation per key.
+ *
+ * <p>Not a unit test. Run with:</p>
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.tripplanner.TripPlanner.service.CacheKeysBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheKeysBenchmark {
+
+    @Param({
+        "Kyiv to Lviv",
+        "Маршрут з Києва до Львова через Житомир і Рівне, з зупинкою на каву  ",
+    })
+    String prompt;
+
+    @Benchmark
+    public String legacy() {
+        return CacheKeysTest.legacyKey(prompt, "uk");
+    }
+
+    @Benchmark
+    public String v1() {
+        return CacheKeys.v1(prompt, "uk");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(CacheKeysBenchmark.class.getSimpleName())
+            .addProfiler("gc")
+            .build()).run();
+    }
+}
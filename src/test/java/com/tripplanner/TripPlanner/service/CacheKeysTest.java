@@ -0,0 +1,87 @@
+package com.tripplanner.TripPlanner.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Cache keys must not change: every entry already in Redis was stored under
+ * the original lowercase/trim/regex/MD5/String.format pipeline, reproduced
+ * here as the oracle.
+ */
+class CacheKeysTest {
+
+    private static final String ALPHABET = "aZ09 \t\n\u000B\f\r\u0001|ІїЄґЖщÄößİΣς🚗\uD83Dé";
+
+    @Test
+    void matchesOriginalKeysForTypicalPrompts() {
+        for (String prompt : List.of(
+                "Kyiv to Lviv",
+                "  Kyiv   to\tLviv \n",
+                "Київ — Львів через Житомир",
+                "ПОЇЗДКА З ОДЕСИ ДО ХАРКОВА",
+                "Istanbul to İzmir",
+                "ΟΔΟΣ ΑΘΗΝΑ",
+                "road trip 🚗 Berlin",
+                "",
+                "   ")) {
+            for (String language : List.of("en", "uk", "")) {
+                assertEquals(legacyKey(prompt, language), CacheKeys.v1(prompt, language), prompt);
+            }
+        }
+    }
+
+    @Test
+    void matchesOriginalKeysForRandomInput() {
+        Random random = new Random(42);
+        for (int i = 0; i < 5_000; i++) {
+            String prompt = randomString(random, random.nextInt(600));
+            String language = randomString(random, random.nextInt(4));
+            assertEquals(legacyKey(prompt, language), CacheKeys.v1(prompt, language), prompt);
+        }
+    }
+
+    @Test
+    void matchesOriginalKeysUnderTurkishDefaultLocale() {
+        Locale previous = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+            assertEquals(legacyKey("ISTANBUL to IZMIR", "en"), CacheKeys.v1("ISTANBUL to IZMIR", "en"));
+        } finally {
+            Locale.setDefault(previous);
+        }
+    }
+
+    @Test
+    void interfaceDefaultUsesTheSameScheme() {
+        AiCacheService cache = new MemoryCacheService();
+        assertEquals(legacyKey(" Kyiv  to Lviv", "uk"), cache.cacheKey(" Kyiv  to Lviv", "uk"));
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    /** AiCacheService.cacheKey as first written. */
+    static String legacyKey(String prompt, String language) {
+        try {
+            String normalized = prompt.toLowerCase().trim().replaceAll("\\s+", " ");
+            byte[] hash = MessageDigest.getInstance("MD5").digest((normalized + "|" + language).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (Exception e) {
+            return String.valueOf((prompt + language).hashCode());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.tripplanner.TripPlanner.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Snapshot file of the in-memory cache: round trip, and damaged files that
+ * must cost at most the damaged part, never the startup.
+ */
+class CacheSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<TinyLfuCache.Entry> entries = List.of(
+            new TinyLfuCache.Entry("a", "z1:AAAA", 1_000L, 4),
+            new TinyLfuCache.Entry("b", "{\"route\":\"Київ\"}", 2_000L, 1),
+            new TinyLfuCache.Entry("c", "", 3_000L, 15));
+
+    @Test
+    void roundTripsEntries() throws IOException {
+        Path file = dir.resolve("cache.snapshot");
+        CacheSnapshot.write(file, entries);
+
+        assertEquals(entries, CacheSnapshot.read(file));
+        assertTrue(Files.notExists(dir.resolve("cache.snapshot.tmp")));
+    }
+
+    @Test
+    void truncatedSnapshotKeepsTheRecordsBeforeTheCut() throws IOException {
+        Path file = dir.resolve("cache.snapshot");
+        CacheSnapshot.write(file, entries);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        assertEquals(entries.subList(0, 2), CacheSnapshot.read(file));
+    }
+
+    @Test
+    void recordFailingItsChecksumEndsTheRead() throws IOException {
+        Path file = dir.resolve("cache.snapshot");
+        CacheSnapshot.write(file, entries);
+        byte[] bytes = Files.readAllBytes(file);
+        // Header (8) + first record's length and CRC (8) + one byte into its payload
+        bytes[17] ^= 0x40;
+        Files.write(file, bytes);
+
+        assertTrue(CacheSnapshot.read(file).isEmpty());
+    }
+
+    @Test
+    void missingOrForeignFileReadsAsEmpty() throws IOException {
+        assertTrue(CacheSnapshot.read(dir.resolve("absent")).isEmpty());
+        Path foreign = dir.resolve("foreign");
+        Files.writeString(foreign, "not a cache snapshot at all");
+        assertTrue(CacheSnapshot.read(foreign).isEmpty());
+    }
+
+    @Test
+    void memoryCacheComesBackWarmAfterRestart() {
+        Path file = dir.resolve("ai-cache.snapshot");
+        MemoryCacheService before = memoryCache(file);
+        before.put("k", "{\"route\":1}");
+        before.shutdown();
+
+        MemoryCacheService after = memoryCache(file);
+
+        assertEquals("{\"route\":1}", after.get("k"));
+        assertNull(after.get("other"));
+    }
+
+    @Test
+    void unreadableSnapshotStartsColdInsteadOfFailing() throws IOException {
+        Path file = dir.resolve("ai-cache.snapshot");
+        Files.createDirectory(file);
+
+        MemoryCacheService cache = memoryCache(file);
+
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    private static MemoryCacheService memoryCache(Path file) {
+        MemoryCacheService cache = new MemoryCacheService();
+        ReflectionTestUtils.setField(cache, "ttlHours", 24);
+        ReflectionTestUtils.setField(cache, "maxSize", 100);
+        ReflectionTestUtils.setField(cache, "snapshotPath", file.toString());
+        cache.initCache();
+        return cache;
+    }
+}
@@ -0,0 +1,69 @@
+package com.tripplanner.TripPlanner.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading a compressed agent response back out of the cache (decode
+ * runs on every hit) and of writing one (encode runs once per miss). Setup
+ * prints the stored size next to the plain JSON size.
+ *
+ * <p>Not a unit test. Run with:</p>
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.tripplanner.TripPlanner.service.CachedValueCodecBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachedValueCodecBenchmark {
+
+    @Param({"2", "10", "25"})
+    int waypoints;
+
+    private String json;
+    private String stored;
+
+    @Setup
+    public void setUp() {
+        json = CachedValueCodecTest.agentResponse(waypoints);
+        stored = CachedValueCodec.encode(json);
+        System.out.printf("%n%d waypoints: %d chars plain, %d stored%n", waypoints, json.length(), stored.length());
+    }
+
+    @Benchmark
+    public String decode() {
+        return CachedValueCodec.decode(stored);
+    }
+
+    @Benchmark
+    public String encode() {
+        return CachedValueCodec.encode(json);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(CachedValueCodecBenchmark.class.getSimpleName())
+            .addProfiler("gc")
+            .build()).run();
+    }
+}
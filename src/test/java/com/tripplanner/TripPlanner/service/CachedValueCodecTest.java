@@ -0,0 +1,75 @@
+package com.tripplanner.TripPlanner.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachedValueCodecTest {
+
+    static String agentResponse(int waypoints) {
+        String[] names = {"Kyiv", "Zhytomyr", "Rivne", "Lutsk", "Lublin", "Warsaw", "Poznan", "Berlin", "Hanover", "Cologne"};
+        StringBuilder sb = new StringBuilder("{\"success\":true,\"route\":{\"waypoints\":[");
+        for (int i = 0; i < waypoints; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"positionOrder\":").append(i)
+                .append(",\"name\":\"").append(names[i % names.length]).append("\",\"latitude\":")
+                .append(50.45 + i * 0.173).append(",\"longitude\":").append(30.52 - i * 1.291).append('}');
+        }
+        sb.append("],\"settings\":{\"passengers\":2,\"fuelConsumption\":7.2,\"fuelCostPerLiter\":1.65,\"currency\":\"EUR\"}},")
+            .append("\"message\":\"Route created with ").append(waypoints).append(" waypoint(s)\",")
+            .append("\"stats\":{\"totalRequested\":").append(waypoints).append(",\"successful\":").append(waypoints)
+            .append(",\"skipped\":0,\"aiProvided\":1,\"nominatimProvided\":").append(waypoints - 1)
+            .append(",\"recovered\":0}}");
+        return sb.toString();
+    }
+
+    @Test
+    void roundTripsAndShrinksAgentResponses() {
+        String json = agentResponse(6);
+
+        String stored = CachedValueCodec.encode(json);
+
+        assertTrue(stored.startsWith(CachedValueCodec.MARKER));
+        assertTrue(stored.length() * 2 < json.length(), "stored " + stored.length() + " of " + json.length());
+        assertEquals(json, CachedValueCodec.decode(stored));
+    }
+
+    @Test
+    void shortAndLegacyValuesPassThrough() {
+        String shortValue = "{\"success\":true}";
+        String legacy = agentResponse(3);
+
+        assertSame(shortValue, CachedValueCodec.encode(shortValue));
+        assertSame(legacy, CachedValueCodec.decode(legacy));
+        assertNull(CachedValueCodec.decode(null));
+    }
+
+    @Test
+    void corruptCompressedValueReadsAsMiss() {
+        String stored = CachedValueCodec.encode(agentResponse(4));
+
+        assertNull(CachedValueCodec.decode(stored.substring(0, stored.length() / 2)));
+        assertNull(CachedValueCodec.decode(CachedValueCodec.MARKER + "not base64!"));
+    }
+
+    @Test
+    void dictionaryIsFrozenForTheZ1Format() throws IOException {
+        // Editing the file would make every stored z1 value undecodable — add a v2 instead
+        try (InputStream in = CachedValueCodec.class.getResourceAsStream("/ai/response-dictionary-v1.txt")) {
+            CRC32 crc = new CRC32();
+            crc.update(in.readAllBytes());
+            assertEquals(DICTIONARY_V1_CRC, crc.getValue());
+        }
+    }
+
+    private static final long DICTIONARY_V1_CRC = 1709066112L;
+}
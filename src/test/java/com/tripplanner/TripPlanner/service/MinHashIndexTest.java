@@ -0,0 +1,119 @@
+package com.tripplanner.TripPlanner.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Near-duplicate matching must find rewordings of a prompt and nothing that
+ * could have a different answer: other cities, numbers, direction, language.
+ */
+class MinHashIndexTest {
+
+    private static final double THRESHOLD = 0.8;
+
+    @Test
+    void rewordedPromptMatches() {
+        MinHashIndex index = new MinHashIndex(100);
+        index.add("a", "Kyiv -> Lviv tomorrow", "en");
+
+        assertEquals("a", index.find("from kyiv to lviv, tomorrow", "en", "b", THRESHOLD));
+        assertEquals("a", index.find("Please plan a trip from Kyiv to Lviv tomorrow!", "en", "b", THRESHOLD));
+    }
+
+    @Test
+    void ukrainianFillerAndDirectionAreNormalised() {
+        MinHashIndex index = new MinHashIndex(100);
+        index.add("a", "Маршрут з Києва до Львова", "uk");
+
+        assertEquals("a", index.find("з києва до львова, будь ласка", "uk", "b", THRESHOLD));
+    }
+
+    @Test
+    void differentContentNeverMatches() {
+        MinHashIndex index = new MinHashIndex(100);
+        index.add("a", "Plan a road trip from Kyiv to Lviv with a coffee stop in Zhytomyr and a night in Rivne",
+                "en");
+
+        // One city out of many differs: similar shingles, different answer
+        assertNull(index.find("Plan a road trip from Kyiv to Odesa with a coffee stop in Zhytomyr and a night in Rivne",
+                "en", "b", THRESHOLD));
+        assertNull(index.find("Plan a road trip from Kyiv to Lviv with a coffee stop in Zhytomyr and 2 nights in Rivne",
+                "en", "b", THRESHOLD));
+    }
+
+    @Test
+    void directionMatters() {
+        MinHashIndex index = new MinHashIndex(100);
+        index.add("a", "Kyiv to Lviv", "en");
+
+        assertNull(index.find("Lviv to Kyiv", "en", "b", THRESHOLD));
+        assertNull(index.find("Lviv -> Kyiv", "en", "b", THRESHOLD));
+    }
+
+    @Test
+    void reorderedStopsNeverMatch() {
+        MinHashIndex index = new MinHashIndex(100);
+        index.add("a", "Kyiv to Lviv to Odesa to Kharkiv", "en");
+
+        // Same words and the same pairs with the marker: only the legs differ
+        assertNull(index.find("Kyiv to Odesa to Lviv to Kharkiv", "en", "b", THRESHOLD));
+        assertNull(index.find("Kyiv -> Odesa -> Lviv -> Kharkiv", "en", "b", THRESHOLD));
+        assertEquals("a", index.find("from Kyiv -> Lviv -> Odesa -> Kharkiv", "en", "b", THRESHOLD));
+    }
+
+    @Test
+    void legsFollowTheStopOrder() {
+        assertEquals(List.of("kyiv→lviv", "lviv→odesa"),
+                MinHashIndex.legs(MinHashIndex.words("Kyiv to Lviv -> Odesa")));
+    }
+
+    @Test
+    void onlySameLanguageMatches() {
+        MinHashIndex index = new MinHashIndex(100);
+        index.add("a", "Kyiv to Lviv", "en");
+
+        assertNull(index.find("Kyiv to Lviv", "uk", "b", THRESHOLD));
+    }
+
+    @Test
+    void ownKeyIsNotAMatch() {
+        MinHashIndex index = new MinHashIndex(100);
+        index.add("a", "Kyiv to Lviv", "en");
+
+        assertNull(index.find("Kyiv to Lviv", "en", "a", THRESHOLD));
+    }
+
+    @Test
+    void leastRecentlyUsedPromptIsDroppedBeyondCapacity() {
+        MinHashIndex index = new MinHashIndex(2);
+        index.add("a", "Kyiv to Lviv", "en");
+        index.add("b", "Kyiv to Odesa", "en");
+        index.add("a", "Kyiv to Lviv", "en");
+        index.add("c", "Kyiv to Dnipro", "en");
+
+        assertEquals(2, index.size());
+        assertEquals("a", index.find("from Kyiv to Lviv", "en", "x", THRESHOLD));
+        assertNull(index.find("from Kyiv to Odesa", "en", "x", THRESHOLD));
+    }
+
+    @Test
+    void removedPromptNoLongerMatches() {
+        MinHashIndex index = new MinHashIndex(100);
+        index.add("a", "Kyiv to Lviv", "en");
+        index.remove("a");
+
+        assertNull(index.find("from Kyiv to Lviv", "en", "b", THRESHOLD));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void wordsDropFillerAndNormaliseDirection() {
+        assertEquals(List.of("kyiv", MinHashIndex.DIRECTION, "lviv", "2", "adults"),
+                MinHashIndex.words("Please, a trip from Kyiv → Lviv, 2 adults"));
+        assertEquals(List.of("kyiv", MinHashIndex.DIRECTION, "lviv"), MinHashIndex.words("Kyiv=>Lviv"));
+    }
+}
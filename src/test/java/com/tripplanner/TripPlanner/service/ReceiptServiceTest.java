@@ -5,6 +5,7 @@ import com.tripplanner.TripPlanner.dto.CreateReceiptRequest;
 import com.tripplanner.TripPlanner.dto.ReceiptDTO;
 import com.tripplanner.TripPlanner.entity.TripReceipt;
 import com.tripplanner.TripPlanner.repository.TripReceiptRepository;
+import com.tripplanner.TripPlanner.routing.GeometryCodec;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.web.server.ResponseStatusException;
@@ -114,6 +115,34 @@ class ReceiptServiceTest {
         assertEquals("[[50.45,30.52],[49.84,24.03]]", dto.getRouteGeometry());
     }
 
+    @Test
+    void storesPolyline6GeometryAsJsonPairs() {
+        CreateReceiptRequest req = validRequest();
+        req.setRouteGeometry(GeometryCodec.encodePolyline6(new double[]{50.45, 30.52, 49.84, 24.03}));
+        req.setRouteGeometryFormat("polyline6");
+        ReceiptDTO dto = service.create(req, null);
+        assertEquals("[[50.45,30.52],[49.84,24.03]]", dto.getRouteGeometry());
+    }
+
+    @Test
+    void storesFloat32GeometryAsJsonPairs() {
+        CreateReceiptRequest req = validRequest();
+        req.setRouteGeometry(GeometryCodec.encodeFloat32(new double[]{50.45, 30.52, 49.84, 24.03}));
+        req.setRouteGeometryFormat("float32");
+        ReceiptDTO dto = service.create(req, null);
+        assertEquals("[[50.45,30.52],[49.84,24.03]]", dto.getRouteGeometry());
+    }
+
+    @Test
+    void dropsTruncatedFloat32Geometry() {
+        CreateReceiptRequest req = validRequest();
+        String encoded = GeometryCodec.encodeFloat32(new double[]{50.45, 30.52, 49.84});
+        req.setRouteGeometry(encoded);
+        req.setRouteGeometryFormat("float32");
+        ReceiptDTO dto = service.create(req, null);
+        assertNull(dto.getRouteGeometry());
+    }
+
     @Test
     void expiredReceiptAnswers410() {
         TripReceipt expired = new TripReceipt();
@@ -0,0 +1,173 @@
+package com.tripplanner.TripPlanner.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Hit/miss accounting of the Redis cache: counted locally, flushed in one
+ * pipeline, and never lost when a flush fails. Clearing moves to a new key
+ * generation and sweeps the old one in batches.
+ */
+class RedisCacheServiceTest {
+
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> values = mock(ValueOperations.class);
+    @SuppressWarnings("unchecked")
+    private final HashOperations<String, Object, Object> hashes = mock(HashOperations.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private RedisCacheService service() {
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        when(redisTemplate.<Object, Object>opsForHash()).thenReturn(hashes);
+        when(values.get("ai:cache:hot")).thenReturn("{}");
+        return new RedisCacheService(redisTemplate, registry);
+    }
+
+    @Test
+    void statsCombineSharedTotalsWithUnflushedLocalCounts() {
+        RedisCacheService service = service();
+        when(hashes.multiGet(eq(RedisCacheService.STATS_KEY), anyList())).thenReturn(Arrays.asList("10", "4"));
+
+        service.get("hot");
+        service.get("hot");
+        service.get("cold");
+
+        AiCacheService.CacheStats stats = service.getStats();
+        assertEquals(12, stats.getHitCount());
+        assertEquals(5, stats.getMissCount());
+        assertEquals(2.0, registry.get("ai.cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, registry.get("ai.cache.gets").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void failedFlushKeepsDeltasForTheNextAttempt() {
+        RedisCacheService service = service();
+        when(hashes.multiGet(eq(RedisCacheService.STATS_KEY), anyList())).thenReturn(Arrays.asList(null, null));
+        when(redisTemplate.executePipelined(any(SessionCallback.class)))
+                .thenThrow(new RedisConnectionFailureException("down"));
+
+        service.get("hot");
+        service.get("cold");
+        service.flushStats();
+
+        AiCacheService.CacheStats stats = service.getStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+    }
+
+    @Test
+    void flushIsSkippedWhenNothingWasCounted() {
+        RedisCacheService service = service();
+
+        service.flushStats();
+
+        verify(redisTemplate, never()).executePipelined(any(SessionCallback.class));
+    }
+
+    @Test
+    void successfulFlushMovesDeltasOutOfLocalCounts() {
+        RedisCacheService service = service();
+        when(redisTemplate.executePipelined(any(SessionCallback.class))).thenReturn(List.of());
+        when(hashes.multiGet(eq(RedisCacheService.STATS_KEY), anyList())).thenReturn(Arrays.asList("1", null));
+
+        service.get("hot");
+        service.flushStats();
+
+        assertEquals(1, service.getStats().getHitCount());
+    }
+
+    @Test
+    void lookupReadsAgeOffRemainingTtlInTheSamePipeline() {
+        RedisCacheService service = service();
+        long hour = 3_600_000L;
+        // Hard TTL 24h, soft 20h: 3h left means 21h old
+        when(redisTemplate.executePipelined(any(SessionCallback.class)))
+                .thenReturn(Arrays.asList("{}", 3 * hour))
+                .thenReturn(Arrays.asList("{}", 10 * hour))
+                .thenReturn(Arrays.asList("{}", -1L))
+                .thenReturn(Arrays.asList(null, -2L));
+        ReflectionTestUtils.setField(service, "ttlHours", 24);
+
+        assertTrue(service.lookup("old").stale());
+        assertFalse(service.lookup("young").stale());
+        assertFalse(service.lookup("persistent").stale());
+        assertNull(service.lookup("gone"));
+        assertEquals(3.0, registry.get("ai.cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, registry.get("ai.cache.gets").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void evictAllMovesToNewGenerationWithoutTouchingKeys() {
+        RedisCacheService service = service();
+        when(values.increment(RedisCacheService.GENERATION_KEY)).thenReturn(1L);
+
+        service.evictAll();
+        service.put("k", "v");
+        service.get("k");
+
+        verify(values).set(eq("ai:cache:g1:k"), eq("v"), any(Long.class), any());
+        verify(values).get("ai:cache:g1:k");
+        verify(redisTemplate, never()).delete("ai:cache:k");
+    }
+
+    @Test
+    void sweepUnlinksRetiredGenerationInBatches() {
+        RedisCacheService service = service();
+        // Legacy generation 0 shares its prefix with later generations, which must survive
+        List<String> keys = new ArrayList<>(IntStream.range(0, 1200).mapToObj(i -> "ai:cache:" + i).toList());
+        keys.add("ai:cache:g1:live");
+        Cursor<String> cursor = cursorOver(keys);
+        when(redisTemplate.scan(any(ScanOptions.class))).thenReturn(cursor);
+        List<Integer> batchSizes = new ArrayList<>();
+        doAnswer(invocation -> {
+            int size = invocation.<List<String>>getArgument(0).size();
+            batchSizes.add(size);
+            return (long) size;
+        }).when(redisTemplate).unlink(anyList());
+
+        service.sweep(0);
+
+        assertEquals(List.of(500, 500, 200), batchSizes);
+        RedisCacheService.SweepProgress progress = service.getSweepProgress();
+        assertEquals(1200, progress.unlinked());
+        assertTrue(progress.done());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cursor<String> cursorOver(List<String> keys) {
+        Iterator<String> it = keys.iterator();
+        Cursor<String> cursor = mock(Cursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> it.hasNext());
+        when(cursor.next()).thenAnswer(invocation -> it.next());
+        return cursor;
+    }
+}
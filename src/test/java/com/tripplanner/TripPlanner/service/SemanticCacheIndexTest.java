@@ -0,0 +1,64 @@
+package com.tripplanner.TripPlanner.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The near-duplicate layer only ever points at cache keys: answers come from
+ * the cache, and a match without a cached answer is forgotten.
+ */
+class SemanticCacheIndexTest {
+
+    private final AiCacheService cacheService = mock(AiCacheService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private SemanticCacheIndex semanticCache;
+
+    @BeforeEach
+    void setUp() {
+        semanticCache = new SemanticCacheIndex(cacheService, meterRegistry);
+        ReflectionTestUtils.setField(semanticCache, "enabled", true);
+    }
+
+    @Test
+    void nearDuplicateIsAnsweredFromTheCachedEntry() {
+        AiCacheService.Lookup cached = new AiCacheService.Lookup("{\"success\":true}", false);
+        when(cacheService.lookup("k1")).thenReturn(cached);
+        semanticCache.remember("k1", "Kyiv -> Lviv tomorrow", "en");
+
+        SemanticCacheIndex.Match match = semanticCache.find("k2", "from kyiv to lviv, tomorrow", "en");
+
+        assertEquals("k1", match.key());
+        assertEquals(cached, match.lookup());
+        assertEquals(1.0, meterRegistry.get("ai.cache.semantic").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void matchWithoutCachedEntryIsForgotten() {
+        semanticCache.remember("k1", "Kyiv -> Lviv tomorrow", "en");
+
+        assertNull(semanticCache.find("k2", "from kyiv to lviv, tomorrow", "en"));
+        assertNull(semanticCache.find("k3", "kyiv to lviv tomorrow", "en"));
+        verify(cacheService, times(1)).lookup("k1");
+        assertEquals(2.0, meterRegistry.get("ai.cache.semantic").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void disabledByDefault() {
+        SemanticCacheIndex disabled = new SemanticCacheIndex(cacheService, new SimpleMeterRegistry());
+        disabled.remember("k1", "Kyiv -> Lviv tomorrow", "en");
+
+        assertNull(disabled.find("k2", "from kyiv to lviv, tomorrow", "en"));
+        verify(cacheService, never()).lookup(anyString());
+    }
+}
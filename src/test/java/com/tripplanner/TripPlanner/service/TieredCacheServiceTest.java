@@ -0,0 +1,82 @@
+package com.tripplanner.TripPlanner.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Near-cache behaviour of the production cache: hot keys stay off the
+ * network, and invalidations travel to (and arrive from) other nodes.
+ */
+class TieredCacheServiceTest {
+
+    private final RedisCacheService redis = mock(RedisCacheService.class);
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+
+    private TieredCacheService service() {
+        return new TieredCacheService(redis, redisTemplate, mock(RedisMessageListenerContainer.class),
+                new SimpleMeterRegistry(), true, 100, 60);
+    }
+
+    @Test
+    void repeatedLookupIsServedFromNearCache() {
+        TieredCacheService service = service();
+        when(redis.get("k")).thenReturn("{\"route\":1}");
+
+        assertEquals("{\"route\":1}", service.get("k"));
+        assertEquals("{\"route\":1}", service.get("k"));
+        assertEquals("{\"route\":1}", service.get("k"));
+
+        verify(redis, times(1)).get("k");
+        verify(redis, times(2)).recordHit();
+    }
+
+    @Test
+    void staleEntriesAreNotCopiedIntoNearCache() {
+        TieredCacheService service = service();
+        when(redis.lookup("k")).thenReturn(new AiCacheService.Lookup("{\"route\":1}", true));
+
+        assertTrue(service.lookup("k").stale());
+        assertTrue(service.lookup("k").stale());
+
+        // Each lookup goes back to Redis, so staleness is seen until the entry is refreshed
+        verify(redis, times(2)).lookup("k");
+    }
+
+    @Test
+    void evictDropsLocalCopyAndBroadcasts() {
+        TieredCacheService service = service();
+        service.put("k", "v");
+
+        service.evict("k");
+
+        assertNull(service.get("k"));
+        verify(redisTemplate).convertAndSend(TieredCacheService.INVALIDATION_CHANNEL, "k");
+        verify(redis).evict("k");
+    }
+
+    @Test
+    void invalidationFromAnotherNodeClearsNearCache() {
+        TieredCacheService service = service();
+        service.put("a", "1");
+        service.put("b", "2");
+
+        service.onInvalidation("a");
+        service.get("a");
+        service.onInvalidation(TieredCacheService.EVICT_ALL_MESSAGE);
+        service.get("b");
+
+        verify(redis).get("a");
+        verify(redis).get("b");
+    }
+}
@@ -0,0 +1,117 @@
+package com.tripplanner.TripPlanner.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TinyLfuCacheTest {
+
+    @Test
+    void expiresEntriesAfterTtl() {
+        AtomicLong now = new AtomicLong();
+        TinyLfuCache cache = new TinyLfuCache(10, 1_000, now::get);
+        cache.put("a", "1");
+
+        now.set(999);
+        assertEquals("1", cache.get("a"));
+        now.set(1_000);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void restoredEntriesKeepWriteTimeAndPopularity() {
+        AtomicLong now = new AtomicLong(5_000);
+        TinyLfuCache source = new TinyLfuCache(10, 1_000, now::get);
+        source.put("hot", "1");
+        source.get("hot");
+        source.get("hot");
+        now.set(5_400);
+        source.put("cold", "2");
+
+        now.set(5_900);
+        TinyLfuCache restored = new TinyLfuCache(10, 1_000, now::get);
+        source.entries().forEach(restored::restore);
+
+        assertEquals(3, restored.entries().stream().filter(e -> e.key().equals("hot")).findFirst().orElseThrow().frequency());
+        assertEquals(5_000, restored.getHit("hot").writtenAt());
+        // Expiry still counts from the original write
+        now.set(6_000);
+        assertNull(restored.get("hot"));
+        assertEquals("2", restored.get("cold"));
+    }
+
+    @Test
+    void staysBoundedAtLargeSizes() {
+        TinyLfuCache cache = new TinyLfuCache(50_000, Long.MAX_VALUE, System::currentTimeMillis);
+        for (int i = 0; i < 120_000; i++) {
+            cache.put("prompt-" + i, "answer");
+            if (i % 3 == 0) {
+                cache.get("prompt-" + (i / 2));
+            }
+        }
+
+        assertEquals(50_000, cache.size());
+        assertEquals(70_000, cache.evictionCount());
+    }
+
+    @Test
+    void popularPromptsSurviveOneOffBurstsBetterThanLru() {
+        // Repeated trip prompts follow a skewed popularity curve; every other
+        // request is a prompt nobody asks twice
+        int capacity = 200;
+        TinyLfuCache tinyLfu = new TinyLfuCache(capacity, Long.MAX_VALUE, System::currentTimeMillis);
+        Map<String, String> lru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+        Random random = new Random(11);
+        double[] zipf = zipfCdf(2_000, 0.9);
+        int tinyLfuHits = 0;
+        int lruHits = 0;
+        int requests = 200_000;
+        for (int i = 0; i < requests; i++) {
+            String key = i % 2 == 0 ? "popular-" + sample(zipf, random) : "one-off-" + i;
+            if (tinyLfu.get(key) != null) {
+                tinyLfuHits++;
+            } else {
+                tinyLfu.put(key, "answer");
+            }
+            if (lru.get(key) != null) {
+                lruHits++;
+            } else {
+                lru.put(key, "answer");
+            }
+        }
+
+        assertTrue(tinyLfuHits > lruHits * 1.5,
+            "W-TinyLFU hits " + tinyLfuHits + " vs LRU hits " + lruHits);
+    }
+
+    private static double[] zipfCdf(int n, double skew) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static int sample(double[] cdf, Random random) {
+        int index = java.util.Arrays.binarySearch(cdf, random.nextDouble());
+        return index >= 0 ? index : -index - 1;
+    }
+}